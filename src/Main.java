@@ -1,6 +1,7 @@
 import controller.ImageController;
 import controller.ImageprocessingController;
 import model.ImageOperations;
+import model.ParallelImageOperations;
 import view.ImageProcessingGUI;
 import view.ImageView;
 
@@ -20,7 +21,7 @@ public class Main {
     if (args.length == 0) {
       // Open the graphical user interface
       ImageProcessingGUI view = new ImageProcessingGUI();
-      ImageOperations model = new ImageOperations();
+      ImageOperations model = new ParallelImageOperations();
       new ImageprocessingController(view, model);
       view.setVisible(true);
     } else if (args.length == 2 && args[0].equals("-file")) {
@@ -34,7 +35,10 @@ public class Main {
 
       // Use the text-based controller to process the script file
       ImageView view = new ImageView();
-      ImageController controller = new ImageController(view);
+      ParallelImageOperations model = new ParallelImageOperations();
+      model.setViews(true);
+      ImageController controller = new ImageController(view, model);
+      controller.setFusePointOperations(true);
 
       try {
         controller.executeScriptFromFile(scriptFilePath);
@@ -44,7 +48,9 @@ public class Main {
     } else if (args.length == 1 && args[0].equals("-text")) {
       // Open interactive text mode
       ImageView view = new ImageView();
-      ImageController controller = new ImageController(view);
+      ParallelImageOperations model = new ParallelImageOperations();
+      model.setViews(true);
+      ImageController controller = new ImageController(view, model);
 
       // Start the interactive mode
       System.out.println("Interactive text mode. Type commands to execute, or 'exit' to quit:");
@@ -7,6 +7,14 @@ import java.io.IOException;
  */
 public interface ControllerInterface {
 
+  /**
+   * Enables or disables fusing of consecutive point operations into a single pass when a script is
+   * executed. Intermediate results that no later command of the script uses are not kept.
+   *
+   * @param fusePointOperations true to fuse runs of point operations
+   */
+  void setFusePointOperations(boolean fusePointOperations);
+
   /**
    * Reads a script file from the specified path and executes the commands within it.
    *
@@ -103,11 +111,19 @@ public interface ControllerInterface {
   /**
    * Applies blur or sharpen effect to the specified image.
    *
-   * @param parts  the command parts containing image names
+   * @param parts  the command parts containing image names, an optional split and an optional
+   *               edge mode (zero, clamp, mirror or wrap)
    * @param isBlur true for blur effect, false for sharpen
    */
   void handleBlurOrSharpen(String[] parts, boolean isBlur);
 
+  /**
+   * Applies a Gaussian blur with the given standard deviation to the specified image.
+   *
+   * @param parts the command parts containing sigma, image names and an optional split
+   */
+  void handleGaussianBlur(String[] parts);
+
   /**
    * Generates a histogram for the specified image.
    *
@@ -131,9 +147,19 @@ public interface ControllerInterface {
   void handleLevelsAdjust(String[] parts);
 
   /**
-   * Compresses the specified image using the Haar wavelet transform.
+   * Compresses the specified image using the Haar wavelet transform, setting the given
+   * percentage of its wavelet coefficients, the smallest ones, to zero. An optional
+   * {@code tile n} pair compresses independent n by n tiles instead.
    *
-   * @param parts the command parts containing threshold percentage and image names
+   * @param parts the command parts containing the compression percentage and image names
    */
   void handleCompress(String[] parts);
+
+  /**
+   * Compresses the specified image at the threshold that meets a target peak signal-to-noise
+   * ratio or fraction of nonzero wavelet coefficients.
+   *
+   * @param parts the command parts containing the target kind and value and image names
+   */
+  void handleCompressTo(String[] parts);
 }
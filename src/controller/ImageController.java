@@ -1,18 +1,40 @@
 package controller;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Scanner;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import model.CompressionSession;
+import model.EdgeMode;
 import model.Image;
 import model.ImageOperations;
 import model.ImageOperationsInterface;
+import model.OffHeapPixelStorage;
+import model.PackedPixelStorage;
+import model.PPMCodec;
+import model.PointOperation;
+import model.TiledFilePixelStorage;
+import model.WaveletCodec;
 import view.ImageView;
 import view.ViewInterface;
 
@@ -24,6 +46,13 @@ public class ImageController implements ControllerInterface {
   private final ViewInterface view;
   private final ImageOperationsInterface imageOps;
   private final Map<String, Image> images = new HashMap<>();
+  private boolean fusePointOperations;
+  private Image compressionSource;
+  private CompressionSession compressionSession;
+
+  // The split used when a command gives none. A split is the percentage of the width left
+  // unchanged on the left, so every command without one processes the whole image
+  private static final int WHOLE_IMAGE_SPLIT = 0;
 
   /**
    * Constructs an ImageController with the specified view.
@@ -31,8 +60,32 @@ public class ImageController implements ControllerInterface {
    * @param view the view for displaying messages and errors
    */
   public ImageController(ImageView view) {
+    this(view, new ImageOperations());
+  }
+
+  /**
+   * Constructs an ImageController with the specified view and image operations.
+   *
+   * @param view     the view for displaying messages and errors
+   * @param imageOps the operations used to process images
+   */
+  public ImageController(ImageView view, ImageOperationsInterface imageOps) {
     this.view = view;
-    this.imageOps = new ImageOperations();
+    this.imageOps = imageOps;
+  }
+
+  /**
+   * Enables or disables fusing of point operations. When enabled, {@link #executeScript} looks for
+   * runs of consecutive per-pixel commands (brighten, sepia, greyscale, levels-adjust and the
+   * component commands) where each command reads the result of the previous one, and applies the
+   * whole run in a single pass over the source image. An intermediate result is only skipped when
+   * no later command of the same script refers to it, so such results are not available to
+   * commands executed afterwards. Fusing is disabled by default.
+   *
+   * @param fusePointOperations true to fuse runs of point operations
+   */
+  public void setFusePointOperations(boolean fusePointOperations) {
+    this.fusePointOperations = fusePointOperations;
   }
 
   /**
@@ -83,126 +136,438 @@ public class ImageController implements ControllerInterface {
    * @throws IOException if an I/O error occurs during image processing
    */
   public void executeScript(String[] commands) throws IOException {
-    for (String command : commands) {
-      String[] parts = command.split(" ");
-      String operation = parts[0];
+    for (int index = 0; index < commands.length; index++) {
+      if (!commands[index].startsWith("compress ") && !commands[index].startsWith("compress-to ")) {
+        releaseCompressionSession();
+      }
+      try {
+        index += executeCommand(commands, index) - 1;
+      } catch (UncheckedIOException e) {
+        // Raised when an image held in a file cannot be read or its result file written
+        view.displayError("Error processing image: " + e.getCause().getMessage());
+      }
+    }
+  }
 
-      switch (operation) {
-        case "load":
-          handleLoad(parts);
-          break;
+  /**
+   * Executes the command at the given index of a script, together with the commands that follow
+   * it if they are fused with it.
+   *
+   * @param commands the script being executed
+   * @param index    the index of the command to execute
+   * @return the number of commands executed
+   * @throws IOException if an I/O error occurs during image processing
+   */
+  private int executeCommand(String[] commands, int index) throws IOException {
+    if (fusePointOperations) {
+      int fused = executePointOperationRun(commands, index);
+      if (fused > 0) {
+        return fused;
+      }
+    }
+    String[] parts = commands[index].split(" ");
+    String operation = parts[0];
+
+    switch (operation) {
+      case "load":
+        handleLoad(parts);
+        break;
+
+      case "save":
+        handleSave(parts);
+        break;
+
+      case "horizontal-flip":
+        handleFlip(parts, true);
+        break;
+
+      case "vertical-flip":
+        handleFlip(parts, false);
+        break;
+
+      case "value-component":
+        handleComponent(parts, "value");
+        break;
+
+      case "intensity-component":
+        handleComponent(parts, "intensity");
+        break;
+
+      case "luma-component":
+        handleComponent(parts, "luma");
+        break;
+
+      case "brighten":
+        handleBrighten(parts);
+        break;
+
+      case "red-component":
+      case "green-component":
+      case "blue-component":
+        handleColorComponent(parts, operation);
+        break;
+
+      case "rgb-split":
+        handleRgbSplit(parts);
+        break;
+
+      case "rgb-combine":
+        handleRgbCombine(parts);
+        break;
+
+      case "sepia":
+        handleSepiaOrGreyscale(parts, true);
+        break;
+
+      case "greyscale":
+        handleSepiaOrGreyscale(parts, false);
+        break;
+
+      case "blur":
+        handleBlurOrSharpen(parts, true);
+        break;
+
+      case "sharpen":
+        handleBlurOrSharpen(parts, false);
+        break;
+
+      case "gaussian-blur":
+        handleGaussianBlur(parts);
+        break;
+
+      case "histogram":
+        handleHistogram(parts);
+        break;
+
+      case "color-correct":
+        handleColorCorrect(parts);
+        break;
+
+      case "levels-adjust":
+        handleLevelsAdjust(parts);
+        break;
+
+      case "compress":
+        handleCompress(parts);
+        break;
+
+      case "compress-to":
+        handleCompressTo(parts);
+        break;
+
+      case "crop":
+        handleCrop(parts);
+        break;
+
+      default:
+        view.displayError("Unknown command: " + operation);
+        break;
+    }
+    return 1;
+  }
 
-        case "save":
-          handleSave(parts);
-          break;
+  /**
+   * Executes the run of fusable point operations that starts at the given command, if it is at
+   * least two commands long. Each command of the run must read the result of the previous one,
+   * and that result must not be used by any later command. A result that replaces an image that
+   * already has a name, as an in-place command like {@code brighten 10 a a} does, ends the run, so
+   * that the registry holds the result under that name.
+   *
+   * @param commands the script being executed
+   * @param start    the index of the first command of the run
+   * @return the number of commands executed, or 0 if there is no run to fuse
+   */
+  private int executePointOperationRun(String[] commands, int start) {
+    List<PointCommand> run = new ArrayList<>();
+    PointCommand first = parsePointCommand(commands[start]);
+    if (first == null || !images.containsKey(first.source)) {
+      return 0;
+    }
+    run.add(first);
+    for (int next = start + 1; next < commands.length; next++) {
+      String intermediate = run.get(run.size() - 1).dest;
+      PointCommand command = parsePointCommand(commands[next]);
+      if (command == null || !command.source.equals(intermediate)
+          || images.containsKey(intermediate) || isReferenced(intermediate, commands, next + 1)) {
+        break;
+      }
+      run.add(command);
+    }
+    if (run.size() < 2) {
+      return 0;
+    }
 
-        case "horizontal-flip":
-          handleFlip(parts, true);
-          break;
+    List<PointOperation> operations = new ArrayList<>();
+    for (PointCommand command : run) {
+      operations.add(command.operation);
+    }
+    storeImage(run.get(run.size() - 1).dest,
+        imageOps.applyPointOperations(images.get(first.source), operations));
+    for (PointCommand command : run) {
+      view.displayMessage(command.message);
+    }
+    return run.size();
+  }
 
-        case "vertical-flip":
-          handleFlip(parts, false);
-          break;
+  /**
+   * Parses a per-pixel command into a point operation, or returns null if the command is not a
+   * valid point operation. Invalid commands are left to the regular handlers, which report the
+   * error.
+   *
+   * @param command the command to parse
+   * @return the parsed command, or null
+   */
+  private PointCommand parsePointCommand(String command) {
+    String[] parts = command.split(" ");
+    try {
+      switch (parts[0]) {
+        case "brighten":
+          if (parts.length == 4) {
+            int increment = Integer.parseInt(parts[1]);
+            return new PointCommand(parts[2], parts[3], PointOperation.brightness(increment),
+                parts[2] + " brightened by " + increment + " and saved as " + parts[3]);
+          }
+          return null;
 
-        case "value-component":
-          handleComponent(parts, "value");
-          break;
+        case "sepia":
+        case "greyscale":
+          if (parts.length >= 3) {
+            boolean isSepia = "sepia".equals(parts[0]);
+            int splitPercent = parseSplit(parts, 3);
+            return new PointCommand(parts[1], parts[2],
+                isSepia ? PointOperation.sepia(splitPercent)
+                    : PointOperation.greyscale(splitPercent),
+                (isSepia ? "Sepia" : "Greyscale") + " applied to " + parts[1] + " with split at "
+                    + splitPercent + "% and saved as " + parts[2]);
+          }
+          return null;
 
-        case "intensity-component":
-          handleComponent(parts, "intensity");
-          break;
+        case "levels-adjust":
+          if (parts.length >= 6) {
+            int b = Integer.parseInt(parts[1]);
+            int m = Integer.parseInt(parts[2]);
+            int w = Integer.parseInt(parts[3]);
+            int splitPercent = parseSplit(parts, 6);
+            if (b >= 0 && b < m && m < w && w <= 255) {
+              return new PointCommand(parts[4], parts[5],
+                  PointOperation.levels(b, m, w, splitPercent),
+                  "Levels-adjusted image of " + parts[4] + " with split at " + splitPercent
+                      + "% saved as " + parts[5]);
+            }
+          }
+          return null;
 
+        case "value-component":
+        case "intensity-component":
         case "luma-component":
-          handleComponent(parts, "luma");
-          break;
-
-        case "brighten":
-          handleBrighten(parts);
-          break;
+          if (parts.length == 3) {
+            String componentType = parts[0].substring(0, parts[0].indexOf('-'));
+            PointOperation operation = "value".equals(componentType) ? PointOperation.value()
+                : "intensity".equals(componentType) ? PointOperation.intensity()
+                    : PointOperation.luma();
+            return new PointCommand(parts[1], parts[2], operation,
+                componentType + " image of " + parts[1] + " saved as " + parts[2]);
+          }
+          return null;
 
         case "red-component":
         case "green-component":
         case "blue-component":
-          handleColorComponent(parts, operation);
-          break;
-
-        case "rgb-split":
-          handleRgbSplit(parts);
-          break;
-
-        case "rgb-combine":
-          handleRgbCombine(parts);
-          break;
-
-        case "sepia":
-          handleSepiaOrGreyscale(parts, true);
-          break;
-
-        case "greyscale":
-          handleSepiaOrGreyscale(parts, false);
-          break;
-
-        case "blur":
-          handleBlurOrSharpen(parts, true);
-          break;
-
-        case "sharpen":
-          handleBlurOrSharpen(parts, false);
-          break;
-
-        case "histogram":
-          handleHistogram(parts);
-          break;
-
-        case "color-correct":
-          handleColorCorrect(parts);
-          break;
-
-        case "levels-adjust":
-          handleLevelsAdjust(parts);
-          break;
-
-        case "compress":
-          handleCompress(parts);
-          break;
+          if (parts.length == 3) {
+            PointOperation operation = "red-component".equals(parts[0])
+                ? PointOperation.redComponent()
+                : "green-component".equals(parts[0]) ? PointOperation.greenComponent()
+                    : PointOperation.blueComponent();
+            return new PointCommand(parts[1], parts[2], operation,
+                parts[0] + " of " + parts[1] + " saved as " + parts[2]);
+          }
+          return null;
 
         default:
-          view.displayError("Unknown command: " + operation);
-          break;
+          return null;
       }
+    } catch (IllegalArgumentException e) {
+      return null;
     }
   }
 
   /**
-   * Loads an image from the specified path and stores it with a given name.
+   * Checks whether any command from the given index onwards mentions the given image name.
+   */
+  private static boolean isReferenced(String imageName, String[] commands, int from) {
+    for (int i = from; i < commands.length; i++) {
+      for (String part : commands[i].split(" ")) {
+        if (part.equals(imageName)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A per-pixel script command: the image it reads, the image it writes, the operation it applies
+   * and the message it reports.
+   */
+  private static final class PointCommand {
+
+    private final String source;
+    private final String dest;
+    private final PointOperation operation;
+    private final String message;
+
+    private PointCommand(String source, String dest, PointOperation operation, String message) {
+      this.source = source;
+      this.dest = dest;
+      this.operation = operation;
+      this.message = message;
+    }
+  }
+
+  /**
+   * Loads an image from the specified path and stores it with a given name. A wavelet-compressed
+   * or standard image accepts an optional {@code scale 1/n} pair, where n is 1, 2, 4 or 8. A
+   * wavelet-compressed image then decodes only the coarse levels into an image of 1/n the width
+   * and height, and a standard image decodes only every nth pixel of every nth row. A standard
+   * image also accepts an optional {@code roi x y width height} group, to decode only that region
+   * of the file, which may be combined with a scale. A tiled raw image is not read but mapped
+   * into memory a tile at a time as it is used, and operations on it write their results to
+   * temporary tiled files, so that it may be far larger than memory. A color image of at least
+   * {@link OffHeapPixelStorage#MIN_PIXELS} pixels is held outside the heap, and so are the large
+   * results of operations on it.
    *
    * @param parts the command parts containing path and name
    */
   public void handleLoad(String[] parts) {
-    if (parts.length == 3) {
-      String imagePath = parts[1];
-      String imageName = parts[2];
+    if (parts.length < 3) {
+      view.displayError("Invalid load command.");
+      return;
+    }
+    String imagePath = parts[1];
+    String imageName = parts[2];
+    boolean isPPM = imagePath.endsWith(".ppm") || imagePath.endsWith(".pgm");
+    boolean isWavelet = imagePath.endsWith(WaveletCodec.EXTENSION);
+    boolean isTiled = imagePath.endsWith(TiledFilePixelStorage.EXTENSION);
+
+    int divisor = 1;
+    Rectangle region = null;
+    int k = 3;
+    while (k < parts.length) {
+      if ("scale".equals(parts[k]) && k + 1 < parts.length) {
+        if (isPPM || isTiled) {
+          view.displayError("Invalid load command: scaled loading is not supported for "
+              + (isPPM ? "PPM" : TiledFilePixelStorage.EXTENSION) + " images.");
+          return;
+        }
+        divisor = parseScale(parts[k + 1]);
+        if (divisor == 0) {
+          view.displayError("Invalid load command: scale must be 1/1, 1/2, 1/4 or 1/8.");
+          return;
+        }
+        k += 2;
+      } else if ("roi".equals(parts[k]) && k + 4 < parts.length) {
+        if (isPPM || isWavelet || isTiled) {
+          view.displayError("Invalid load command: region loading is only supported for PNG, "
+              + "JPG and other standard images.");
+          return;
+        }
+        region = parseRegion(parts, k + 1);
+        if (region == null) {
+          view.displayError("Invalid load command: roi must be x y width height, with a "
+              + "positive width and height.");
+          return;
+        }
+        k += 5;
+      } else {
+        view.displayError("Invalid load command.");
+        return;
+      }
+    }
 
-      try {
-        Image image =
-            imagePath.endsWith(".ppm") ? loadPPMImage(imagePath) : loadStandardImage(imagePath);
-        images.put(imageName, image);
-        view.displayMessage(imageName + " loaded.");
-      } catch (IOException e) {
-        view.displayError("Error loading image: " + e.getMessage());
+    try {
+      Image image;
+      if (isPPM) {
+        image = loadPPMImage(imagePath);
+      } else if (isWavelet) {
+        image = loadWaveletImage(imagePath, divisor);
+      } else if (isTiled) {
+        image = new Image(TiledFilePixelStorage.open(Paths.get(imagePath)));
+      } else {
+        try {
+          image = loadStandardImage(imagePath, divisor, region);
+        } catch (IllegalArgumentException e) {
+          view.displayError("Invalid load command: " + e.getMessage());
+          return;
+        }
       }
-    } else {
-      view.displayError("Invalid load command.");
+      // A large image is moved outside the heap, where it would otherwise be a single huge array
+      // that lives as long as its name, and operations on it then write their results there too
+      if (image.getStorage() instanceof PackedPixelStorage
+          && (long) image.getWidth() * image.getHeight() >= OffHeapPixelStorage.MIN_PIXELS) {
+        image = new Image(OffHeapPixelStorage.copyOf(image));
+      }
+      storeImage(imageName, image);
+      view.displayMessage(imageName + " loaded.");
+    } catch (IOException e) {
+      view.displayError("Error loading image: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Parses the four numbers of a region starting at the given part, and returns the region, or
+   * null if they are not integers or the region is empty or starts at a negative position.
+   */
+  private static Rectangle parseRegion(String[] parts, int from) {
+    try {
+      Rectangle region = new Rectangle(Integer.parseInt(parts[from]),
+          Integer.parseInt(parts[from + 1]), Integer.parseInt(parts[from + 2]),
+          Integer.parseInt(parts[from + 3]));
+      if (region.x < 0 || region.y < 0 || region.width <= 0 || region.height <= 0) {
+        return null;
+      }
+      return region;
+    } catch (NumberFormatException e) {
+      return null;
     }
   }
 
   /**
-   * Saves the specified image to the given path.
+   * Parses a scale of the form {@code 1/n}, where n is 1, 2, 4 or 8, and returns n, or 0 if the
+   * scale is not one of these.
+   */
+  private static int parseScale(String scale) {
+    switch (scale) {
+      case "1/1":
+        return 1;
+      case "1/2":
+        return 2;
+      case "1/4":
+        return 4;
+      case "1/8":
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Saves the specified image to the given path. An image saved in the wavelet-compressed format
+   * accepts an optional {@code threshold t} pair, below which wavelet coefficients are dropped. A
+   * PPM image is written in the plain format unless a {@code format p6} pair selects the binary
+   * one, and a PGM image is written in the binary greyscale format.
    *
    * @param parts the command parts containing save path and image name
    */
   public void handleSave(String[] parts) {
-    if (parts.length == 3) {
+    boolean hasThreshold = parts.length == 5 && parts[1].endsWith(WaveletCodec.EXTENSION)
+        && "threshold".equals(parts[3]);
+    boolean hasFormat = parts.length == 5 && parts[1].endsWith(".ppm")
+        && "format".equals(parts[3]);
+    if (hasFormat && !"p3".equals(parts[4]) && !"p6".equals(parts[4])) {
+      view.displayError("Invalid save command: format must be p3 or p6.");
+      return;
+    }
+    if (parts.length == 3 || hasThreshold || hasFormat) {
       String savePath = parts[1];
       String imageName = parts[2];
 
@@ -210,13 +575,22 @@ public class ImageController implements ControllerInterface {
         try {
           Image image = images.get(imageName);
           if (savePath.endsWith(".ppm")) {
-            savePPMImage(savePath, image);
+            savePPMImage(savePath, image, hasFormat && "p6".equals(parts[4]));
+          } else if (savePath.endsWith(".pgm")) {
+            PPMCodec.writeGreyscale(image, Paths.get(savePath));
+          } else if (savePath.endsWith(WaveletCodec.EXTENSION)) {
+            saveWaveletImage(savePath, image,
+                hasThreshold ? Double.parseDouble(parts[4]) : 0);
+          } else if (savePath.endsWith(TiledFilePixelStorage.EXTENSION)) {
+            TiledFilePixelStorage.write(image, Paths.get(savePath));
           } else {
             saveStandardImage(savePath, image);
           }
           view.displayMessage(imageName + " saved to " + savePath);
         } catch (IOException e) {
           view.displayError("Error saving image: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+          view.displayError("Invalid save command: " + e.getMessage());
         }
       } else {
         view.displayError("Image not found: " + imageName);
@@ -240,7 +614,7 @@ public class ImageController implements ControllerInterface {
       if (images.containsKey(imageName)) {
         Image flippedImage = isHorizontal ? imageOps.flipHorizontal(images.get(imageName))
             : imageOps.flipVertical(images.get(imageName));
-        images.put(destName, flippedImage);
+        storeImage(destName, flippedImage);
         view.displayMessage(
             imageName + (isHorizontal ? " flipped horizontally" : " flipped vertically")
                 + " and saved as " + destName);
@@ -281,7 +655,7 @@ public class ImageController implements ControllerInterface {
         }
 
         if (componentImage != null) {
-          images.put(destName, componentImage);
+          storeImage(destName, componentImage);
           view.displayMessage(componentType + " image of " + imageName + " saved as " + destName);
         }
       } else {
@@ -305,7 +679,7 @@ public class ImageController implements ControllerInterface {
 
       if (images.containsKey(imageName)) {
         Image brightenedImage = imageOps.adjustBrightness(images.get(imageName), increment);
-        images.put(destName, brightenedImage);
+        storeImage(destName, brightenedImage);
         view.displayMessage(
             imageName + " brightened by " + increment + " and saved as " + destName);
       } else {
@@ -316,6 +690,36 @@ public class ImageController implements ControllerInterface {
     }
   }
 
+  /**
+   * Crops the specified image to a region given as x y width height and saves it with a new
+   * name.
+   *
+   * @param parts the command parts containing the region and image names
+   */
+  public void handleCrop(String[] parts) {
+    if (parts.length == 7) {
+      String imageName = parts[5];
+      String destName = parts[6];
+
+      if (images.containsKey(imageName)) {
+        try {
+          Image croppedImage = imageOps.crop(images.get(imageName), Integer.parseInt(parts[1]),
+              Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4]));
+          storeImage(destName, croppedImage);
+          view.displayMessage(imageName + " cropped and saved as " + destName);
+        } catch (NumberFormatException e) {
+          view.displayError("Invalid crop command: the region must be four integers.");
+        } catch (IllegalArgumentException e) {
+          view.displayError("Invalid crop command: " + e.getMessage());
+        }
+      } else {
+        view.displayError("Image not found: " + imageName);
+      }
+    } else {
+      view.displayError("Invalid crop command.");
+    }
+  }
+
   /**
    * Extracts a specific color component (red, green, or blue) from the image.
    *
@@ -345,7 +749,7 @@ public class ImageController implements ControllerInterface {
         }
 
         if (componentImage != null) {
-          images.put(destName, componentImage);
+          storeImage(destName, componentImage);
           view.displayMessage(colorComponent + " of " + imageName + " saved as " + destName);
         } else {
           view.displayError("Invalid color component: " + colorComponent);
@@ -371,9 +775,9 @@ public class ImageController implements ControllerInterface {
       String destNameBlue = parts[4];
 
       if (images.containsKey(imageName)) {
-        images.put(destNameRed, imageOps.visualizeRedComponent(images.get(imageName)));
-        images.put(destNameGreen, imageOps.visualizeGreenComponent(images.get(imageName)));
-        images.put(destNameBlue, imageOps.visualizeBlueComponent(images.get(imageName)));
+        storeImage(destNameRed, imageOps.visualizeRedComponent(images.get(imageName)));
+        storeImage(destNameGreen, imageOps.visualizeGreenComponent(images.get(imageName)));
+        storeImage(destNameBlue, imageOps.visualizeBlueComponent(images.get(imageName)));
 
         view.displayMessage(imageName + " split into RGB components.");
       } else {
@@ -400,7 +804,7 @@ public class ImageController implements ControllerInterface {
           && images.containsKey(blueImageName)) {
         Image combinedImage = imageOps.combineRGB(images.get(redImageName),
             images.get(greenImageName), images.get(blueImageName));
-        images.put(destName, combinedImage);
+        storeImage(destName, combinedImage);
         view.displayMessage("RGB components combined and saved as " + destName);
       } else {
         view.displayError("One or more images not found.");
@@ -420,14 +824,13 @@ public class ImageController implements ControllerInterface {
     if (parts.length >= 3) {
       String imageName = parts[1];
       String destName = parts[2];
-      int splitPercent =
-          parts.length == 5 && "split".equals(parts[3]) ? Integer.parseInt(parts[4]) : 100;
+      int splitPercent = parseSplit(parts, 3);
 
       if (images.containsKey(imageName)) {
         Image processedImage = isSepia
             ? imageOps.applySepia(images.get(imageName), splitPercent)
             : imageOps.applyGreyscale(images.get(imageName), splitPercent);
-        images.put(destName, processedImage);
+        storeImage(destName, processedImage);
         view.displayMessage(
             (isSepia ? "Sepia" : "Greyscale") + " applied to " + imageName + " with split at "
                 + splitPercent + "% and saved as " + destName);
@@ -443,21 +846,34 @@ public class ImageController implements ControllerInterface {
   /**
    * Applies blur or sharpen effect to the specified image.
    *
-   * @param parts  the command parts containing image names
+   * @param parts  the command parts containing image names, an optional split and an optional
+   *               edge mode (zero, clamp, mirror or wrap)
    * @param isBlur true for blur effect, false for sharpen
    */
   public void handleBlurOrSharpen(String[] parts, boolean isBlur) {
     if (parts.length >= 3) {
       String imageName = parts[1];
       String destName = parts[2];
-      int splitPercent =
-          parts.length == 5 && "split".equals(parts[3]) ? Integer.parseInt(parts[4]) : 100;
+      int splitPercent = WHOLE_IMAGE_SPLIT;
+      EdgeMode edgeMode = EdgeMode.ZERO;
+      for (int k = 3; k + 1 < parts.length; k += 2) {
+        if ("split".equals(parts[k])) {
+          splitPercent = Integer.parseInt(parts[k + 1]);
+        } else if ("edge".equals(parts[k])) {
+          try {
+            edgeMode = EdgeMode.valueOf(parts[k + 1].toUpperCase(Locale.ROOT));
+          } catch (IllegalArgumentException e) {
+            view.displayError("Invalid edge mode: " + parts[k + 1]);
+            return;
+          }
+        }
+      }
 
       if (images.containsKey(imageName)) {
         Image processedImage = isBlur
-            ? imageOps.blur(images.get(imageName), splitPercent)
-            : imageOps.sharpen(images.get(imageName), splitPercent);
-        images.put(destName, processedImage);
+            ? imageOps.blur(images.get(imageName), splitPercent, edgeMode)
+            : imageOps.sharpen(images.get(imageName), splitPercent, edgeMode);
+        storeImage(destName, processedImage);
         view.displayMessage(
             (isBlur ? "Blur" : "Sharpen") + " applied to " + imageName + " with split at "
                 + splitPercent + "% and saved as " + destName);
@@ -470,76 +886,136 @@ public class ImageController implements ControllerInterface {
   }
 
 
-  private Image loadPPMImage(String filePath) throws IOException {
-    Scanner sc = new Scanner(new FileInputStream(filePath));
-    StringBuilder builder = new StringBuilder();
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (!s.isEmpty() && s.charAt(0) != '#') {
-        builder.append(s).append(System.lineSeparator());
-      }
-    }
-    sc = new Scanner(builder.toString());
-    if (!sc.next().equals("P3")) {
-      throw new IllegalArgumentException("Invalid PPM file: plain RAW file should begin with P3");
-    }
+  /**
+   * Applies a Gaussian blur with the given standard deviation to the specified image.
+   *
+   * @param parts the command parts containing sigma, image names and an optional split
+   */
+  public void handleGaussianBlur(String[] parts) {
+    if (parts.length == 4 || parts.length == 6 && "split".equals(parts[4])) {
+      String imageName = parts[2];
+      String destName = parts[3];
 
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    sc.nextInt(); // max color value (assumed to be 255)
-    int[][][] pixels = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        pixels[i][j][0] = sc.nextInt(); // Red
-        pixels[i][j][1] = sc.nextInt(); // Green
-        pixels[i][j][2] = sc.nextInt(); // Blue
+      if (images.containsKey(imageName)) {
+        try {
+          double sigma = Double.parseDouble(parts[1]);
+          int splitPercent = parseSplit(parts, 4);
+          Image processedImage = imageOps.blur(images.get(imageName), sigma, splitPercent);
+          storeImage(destName, processedImage);
+          view.displayMessage("Gaussian blur (sigma " + sigma + ") applied to " + imageName
+              + " with split at " + splitPercent + "% and saved as " + destName);
+        } catch (IllegalArgumentException e) {
+          view.displayError("Invalid gaussian-blur command: " + e.getMessage());
+        }
+      } else {
+        view.displayError("Image not found: " + imageName);
       }
+    } else {
+      view.displayError("Invalid gaussian-blur command.");
     }
-    return new Image(width, height, pixels);
   }
 
-  private void savePPMImage(String filePath, Image image) throws IOException {
-    try (FileOutputStream fos = new FileOutputStream(filePath)) {
-      fos.write(("P3\n" + image.getWidth() + " " + image.getHeight() + "\n255\n").getBytes());
-      for (int i = 0; i < image.getHeight(); i++) {
-        for (int j = 0; j < image.getWidth(); j++) {
-          int[] pixel = image.getPixel(i, j);
-          fos.write((pixel[0] + " " + pixel[1] + " " + pixel[2] + "\n").getBytes());
-        }
+
+  /**
+   * Returns the split percentage given as the last two parts of a command, "split" followed by
+   * the percentage at the given index, or the split of the whole image if the command ends there.
+   */
+  private static int parseSplit(String[] parts, int index) {
+    return parts.length == index + 2 && "split".equals(parts[index])
+        ? Integer.parseInt(parts[index + 1]) : WHOLE_IMAGE_SPLIT;
+  }
+
+  /**
+   * Stores an image under a name, replacing any image stored under it before. The memory or file
+   * of the image it replaces is released, unless the image, or a view of it, is also stored under
+   * another name.
+   */
+  private void storeImage(String name, Image image) {
+    Image replaced = images.put(name, image);
+    if (replaced != null && replaced == compressionSource) {
+      releaseCompressionSession();
+    }
+    if (replaced == null || !(replaced.getStorage() instanceof AutoCloseable)) {
+      return;
+    }
+    for (Image stored : images.values()) {
+      if (stored.getStorage().dependsOn(replaced.getStorage())) {
+        return;
       }
     }
+    try {
+      ((AutoCloseable) replaced.getStorage()).close();
+    } catch (Exception e) {
+      view.displayError("Error releasing image: " + e.getMessage());
+    }
   }
 
-  private Image loadStandardImage(String filePath) throws IOException {
-    BufferedImage bufferedImage = ImageIO.read(new File(filePath));
-    int width = bufferedImage.getWidth();
-    int height = bufferedImage.getHeight();
+  private Image loadPPMImage(String filePath) throws IOException {
+    return PPMCodec.read(Paths.get(filePath));
+  }
 
-    int[][][] pixels = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int rgb = bufferedImage.getRGB(j, i);
-        pixels[i][j][0] = (rgb >> 16) & 0xFF; // Red
-        pixels[i][j][1] = (rgb >> 8) & 0xFF;  // Green
-        pixels[i][j][2] = rgb & 0xFF;         // Blue
-      }
+  private void savePPMImage(String filePath, Image image, boolean binary) throws IOException {
+    if (binary) {
+      PPMCodec.writeBinary(image, Paths.get(filePath));
+    } else {
+      PPMCodec.write(image, Paths.get(filePath));
     }
-
-    return new Image(width, height, pixels);
   }
 
+  private Image loadWaveletImage(String filePath, int divisor) throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(filePath))) {
+      return WaveletCodec.read(in, divisor);
+    }
+  }
 
-  private void saveStandardImage(String filePath, Image image) throws IOException {
-    BufferedImage bufferedImage = new BufferedImage(image.getWidth(), image.getHeight(),
-        BufferedImage.TYPE_INT_RGB);
+  private void saveWaveletImage(String filePath, Image image, double thresholdValue)
+      throws IOException {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath))) {
+      WaveletCodec.write(image, out, thresholdValue);
+    }
+  }
 
-    for (int i = 0; i < image.getHeight(); i++) {
-      for (int j = 0; j < image.getWidth(); j++) {
-        int[] pixel = image.getPixel(i, j);
-        int rgb = (pixel[0] << 16) | (pixel[1] << 8) | pixel[2];
-        bufferedImage.setRGB(j, i, rgb);
+  /**
+   * Decodes a standard image with an image reader, so that only the pixels of the region, if
+   * any, that fall on the subsampling grid are decoded and held in memory.
+   *
+   * @throws IllegalArgumentException if the region does not lie inside the image
+   */
+  private Image loadStandardImage(String filePath, int divisor, Rectangle region)
+      throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(new File(filePath))) {
+      if (in == null) {
+        throw new IOException("Cannot open " + filePath);
+      }
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        throw new IOException("Unsupported image format: " + filePath);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (region != null) {
+          int width = reader.getWidth(0);
+          int height = reader.getHeight(0);
+          if ((long) region.x + region.width > width
+              || (long) region.y + region.height > height) {
+            throw new IllegalArgumentException("region lies outside the " + width + "x"
+                + height + " image.");
+          }
+          param.setSourceRegion(region);
+        }
+        param.setSourceSubsampling(divisor, divisor, 0, 0);
+        return Image.fromBufferedImage(reader.read(0, param));
+      } finally {
+        reader.dispose();
       }
     }
+  }
+
+
+  private void saveStandardImage(String filePath, Image image) throws IOException {
+    BufferedImage bufferedImage = image.toBufferedImage();
 
     String format = filePath.substring(filePath.lastIndexOf(".") + 1);
     ImageIO.write(bufferedImage, format, new File(filePath));
@@ -557,7 +1033,7 @@ public class ImageController implements ControllerInterface {
 
       if (images.containsKey(imageName)) {
         Image histogramImage = imageOps.generateHistogram(images.get(imageName));
-        images.put(destName, histogramImage);
+        storeImage(destName, histogramImage);
         view.displayMessage("Histogram for " + imageName + " saved as " + destName);
       } else {
         view.displayError("Image not found: " + imageName);
@@ -577,12 +1053,11 @@ public class ImageController implements ControllerInterface {
     if (parts.length >= 3) {
       String imageName = parts[1];
       String destName = parts[2];
-      int splitPercent =
-          parts.length == 5 && "split".equals(parts[3]) ? Integer.parseInt(parts[4]) : 100;
+      int splitPercent = parseSplit(parts, 3);
 
       if (images.containsKey(imageName)) {
         Image colorCorrectedImage = imageOps.colorCorrect(images.get(imageName), splitPercent);
-        images.put(destName, colorCorrectedImage);
+        storeImage(destName, colorCorrectedImage);
         view.displayMessage(
             "Color-corrected image of " + imageName + " with split at " + splitPercent
                 + "% saved as " + destName);
@@ -606,14 +1081,13 @@ public class ImageController implements ControllerInterface {
       int w = Integer.parseInt(parts[3]);
       String imageName = parts[4];
       String destName = parts[5];
-      int splitPercent =
-          parts.length == 8 && "split".equals(parts[6]) ? Integer.parseInt(parts[7]) : 100;
+      int splitPercent = parseSplit(parts, 6);
 
       if (b >= 0 && b < m && m < w && w <= 255) {
         if (images.containsKey(imageName)) {
           Image levelsAdjusted = imageOps.levelsAdjust(images.get(imageName), b, m, w,
               splitPercent);
-          images.put(destName, levelsAdjusted);
+          storeImage(destName, levelsAdjusted);
           view.displayMessage(
               "Levels-adjusted image of " + imageName + " with split at " + splitPercent
                   + "% saved as " + destName);
@@ -629,20 +1103,35 @@ public class ImageController implements ControllerInterface {
   }
 
   /**
-   * Compresses the specified image using the Haar wavelet transform.
+   * Compresses the specified image using the Haar wavelet transform, setting the given
+   * percentage of its wavelet coefficients, the smallest ones, to zero. An optional
+   * {@code tile n} pair compresses independent n by n tiles in parallel instead, zeroing the
+   * percentage within each tile.
    *
-   * @param parts the command parts containing threshold percentage and image names
+   * @param parts the command parts containing the compression percentage and image names
    */
   public void handleCompress(String[] parts) {
-    if (parts.length == 4) {
+    boolean tiled = parts.length == 6 && "tile".equals(parts[4]);
+    if (parts.length == 4 || tiled) {
       double thresholdPercentage = Double.parseDouble(parts[1]);
       String imageName = parts[2];
       String destName = parts[3];
 
       if (images.containsKey(imageName)) {
-        Image compressedImage = imageOps.compress(images.get(imageName), thresholdPercentage);
-        images.put(destName, compressedImage);
-        view.displayMessage("Compressed image " + imageName + " saved as " + destName);
+        try {
+          Image compressedImage;
+          if (tiled) {
+            compressedImage = imageOps.compressPercentage(images.get(imageName),
+                thresholdPercentage, Integer.parseInt(parts[5]));
+          } else {
+            compressedImage = compressionSessionFor(images.get(imageName))
+                .compressPercentage(thresholdPercentage);
+          }
+          storeImage(destName, compressedImage);
+          view.displayMessage("Compressed image " + imageName + " saved as " + destName);
+        } catch (IllegalArgumentException e) {
+          view.displayError("Invalid compress command: " + e.getMessage());
+        }
       } else {
         view.displayError("Image not found: " + imageName);
       }
@@ -651,5 +1140,58 @@ public class ImageController implements ControllerInterface {
     }
   }
 
+  /**
+   * Compresses the specified image at the threshold that meets a quality target, either a peak
+   * signal-to-noise ratio in decibels ({@code psnr}) or a fraction of wavelet coefficients to
+   * keep ({@code nonzero}). The threshold is found from one forward transform of the image.
+   *
+   * @param parts the command parts containing the target kind and value and image names
+   */
+  public void handleCompressTo(String[] parts) {
+    if (parts.length == 5 && ("psnr".equals(parts[1]) || "nonzero".equals(parts[1]))) {
+      String imageName = parts[3];
+      String destName = parts[4];
+
+      if (images.containsKey(imageName)) {
+        try {
+          double target = Double.parseDouble(parts[2]);
+          CompressionSession session = compressionSessionFor(images.get(imageName));
+          double thresholdValue = "psnr".equals(parts[1])
+              ? session.thresholdForPsnr(target) : session.thresholdForNonzeroFraction(target);
+          storeImage(destName, session.compress(thresholdValue));
+          view.displayMessage("Compressed image " + imageName + " to " + parts[1] + " "
+              + parts[2] + " with threshold "
+              + String.format(Locale.ROOT, "%.3f", thresholdValue) + " saved as " + destName);
+        } catch (IllegalArgumentException e) {
+          view.displayError("Invalid compress-to command: " + e.getMessage());
+        }
+      } else {
+        view.displayError("Image not found: " + imageName);
+      }
+    } else {
+      view.displayError("Invalid compress-to command.");
+    }
+  }
+
+  /**
+   * Returns a compression session for the given image, reusing the session of the previous
+   * compress command if it compressed the same image, so that a script compressing one source at
+   * several thresholds transforms it only once. The session is released as soon as a command
+   * other than a compression runs or the source is replaced, so that it does not keep the
+   * transform of an image alive.
+   */
+  private CompressionSession compressionSessionFor(Image source) {
+    if (source != compressionSource) {
+      compressionSession = imageOps.createCompressionSession(source);
+      compressionSource = source;
+    }
+    return compressionSession;
+  }
+
+  private void releaseCompressionSession() {
+    compressionSession = null;
+    compressionSource = null;
+  }
+
 
 }
@@ -1,10 +1,14 @@
 package controller;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Scanner;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
 import javax.imageio.ImageIO;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -12,8 +16,12 @@ import java.io.File;
 import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import model.CompressionSession;
 import model.Image;
 import model.ImageOperations;
+import model.PPMCodec;
+import model.WaveletCodec;
 import view.ImageProcessingGUI;
 
 /**
@@ -24,6 +32,7 @@ public class ImageprocessingController {
   private final ImageProcessingGUI view;
   private final ImageOperations model;
   private Image currentImage;
+  private CompressionSession compressionSession;
 
   /**
    * Constructs the Image Processing controller.
@@ -51,10 +60,14 @@ public class ImageprocessingController {
         File file = fileChooser.getSelectedFile();
         try {
           String filePath = file.getAbsolutePath();
-          if (filePath.endsWith(".ppm")) {
-            currentImage = loadPPMImage(filePath);
+          if (filePath.endsWith(".ppm") || filePath.endsWith(".pgm")) {
+            setCurrentImage(loadPPMImage(filePath));
+          } else if (filePath.endsWith(WaveletCodec.EXTENSION)) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(filePath))) {
+              setCurrentImage(WaveletCodec.read(in));
+            }
           } else {
-            currentImage = loadStandardImage(filePath);
+            setCurrentImage(loadStandardImage(filePath));
           }
 
           // Display the loaded image
@@ -80,6 +93,10 @@ public class ImageprocessingController {
       // Open the file dialog for saving the image
       JFileChooser fileChooser = new JFileChooser();
       fileChooser.setDialogTitle("Save Image");
+      // PPM images are saved in the plain format unless the binary filter is chosen
+      FileNameExtensionFilter binaryFilter =
+          new FileNameExtensionFilter("Binary PPM (P6)", "ppm");
+      fileChooser.addChoosableFileFilter(binaryFilter);
       int userSelection = fileChooser.showSaveDialog(view);
 
       if (userSelection == JFileChooser.APPROVE_OPTION) {
@@ -90,7 +107,13 @@ public class ImageprocessingController {
 
           // Saving the image - Check for PPM or other formats
           if (filePath.endsWith(".ppm")) {
-            savePPMImage(filePath, currentImage);
+            savePPMImage(filePath, currentImage, fileChooser.getFileFilter() == binaryFilter);
+          } else if (filePath.endsWith(".pgm")) {
+            PPMCodec.writeGreyscale(currentImage, Paths.get(filePath));
+          } else if (filePath.endsWith(WaveletCodec.EXTENSION)) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath))) {
+              WaveletCodec.write(currentImage, out, 0);
+            }
           } else {
             saveStandardImage(filePath, currentImage);
           }
@@ -127,19 +150,19 @@ public class ImageprocessingController {
       try {
         switch (operation) {
           case "Blur":
-            currentImage = model.blur(currentImage, 0); // Default parameter
+            setCurrentImage(model.blur(currentImage, 0)); // Default parameter
             break;
           case "Sharpen":
-            currentImage = model.sharpen(currentImage, 0); // Default parameter
+            setCurrentImage(model.sharpen(currentImage, 0)); // Default parameter
             break;
           case "Greyscale":
-            currentImage = model.applyGreyscale(currentImage, 0); // Default parameter
+            setCurrentImage(model.applyGreyscale(currentImage, 0)); // Default parameter
             break;
           case "Sepia":
-            currentImage = model.applySepia(currentImage, 0); // Default parameter
+            setCurrentImage(model.applySepia(currentImage, 0)); // Default parameter
             break;
           case "Color Correct":
-            currentImage = model.colorCorrect(currentImage, 0); // Default parameter
+            setCurrentImage(model.colorCorrect(currentImage, 0)); // Default parameter
             break;
           case "Level Adjust":
             // Get the parameters for levels adjustment from the view
@@ -168,8 +191,8 @@ public class ImageprocessingController {
             }
 
             // Apply the levels adjustment
-            currentImage = model.levelsAdjust(currentImage, blackPoint, midPoint, whitePoint,
-                splitPercent);
+            setCurrentImage(model.levelsAdjust(currentImage, blackPoint, midPoint, whitePoint,
+                splitPercent));
             break;
           default:
             JOptionPane.showMessageDialog(view, "Unsupported operation.");
@@ -221,19 +244,19 @@ public class ImageprocessingController {
       try {
         switch (operation) {
           case "Blur":
-            currentImage = model.blur(currentImage, splitPercent);
+            setCurrentImage(model.blur(currentImage, splitPercent));
             break;
           case "Sharpen":
-            currentImage = model.sharpen(currentImage, splitPercent);
+            setCurrentImage(model.sharpen(currentImage, splitPercent));
             break;
           case "Greyscale":
-            currentImage = model.applyGreyscale(currentImage, splitPercent);
+            setCurrentImage(model.applyGreyscale(currentImage, splitPercent));
             break;
           case "Sepia":
-            currentImage = model.applySepia(currentImage, splitPercent);
+            setCurrentImage(model.applySepia(currentImage, splitPercent));
             break;
           case "Color Correct":
-            currentImage = model.colorCorrect(currentImage, splitPercent);
+            setCurrentImage(model.colorCorrect(currentImage, splitPercent));
             break;
           case "Level Adjust":
             // Get the levels adjustment parameters from the view
@@ -249,8 +272,8 @@ public class ImageprocessingController {
             }
 
             // Apply the levels adjustment with split percent
-            currentImage = model.levelsAdjust(currentImage, blackPoint, midPoint, whitePoint,
-                splitPercent);
+            setCurrentImage(model.levelsAdjust(currentImage, blackPoint, midPoint, whitePoint,
+                splitPercent));
             break;
           default:
             JOptionPane.showMessageDialog(view, "Unsupported operation.");
@@ -291,9 +314,9 @@ public class ImageprocessingController {
 
       try {
         if ("Flip Horizontal".equals(flipOperation)) {
-          currentImage = model.flipHorizontal(currentImage);
+          setCurrentImage(model.flipHorizontal(currentImage));
         } else if ("Flip Vertical".equals(flipOperation)) {
-          currentImage = model.flipVertical(currentImage);
+          setCurrentImage(model.flipVertical(currentImage));
         }
 
         // Update image display
@@ -342,7 +365,7 @@ public class ImageprocessingController {
 
       try {
         // Adjust the brightness using the ImageOperations' adjustBrightness method.
-        currentImage = model.adjustBrightness(currentImage, brightnessLevel);
+        setCurrentImage(model.adjustBrightness(currentImage, brightnessLevel));
 
         // Update the view with the adjusted image.
         view.setImageIcon(new ImageIcon(currentImage.toBufferedImage()));
@@ -375,8 +398,12 @@ public class ImageprocessingController {
           return;
         }
 
-        // Call the compress method with the threshold value
-        Image compressedImage = model.compress(currentImage, threshold);
+        // Transform the image only when it changed since the last compression, so trying
+        // another threshold costs one threshold pass and the inverse transform
+        if (compressionSession == null) {
+          compressionSession = model.createCompressionSession(currentImage);
+        }
+        Image compressedImage = compressionSession.compressPercentage(threshold);
 
         // Update the view with the compressed image
         view.setImageIcon(new ImageIcon(compressedImage.toBufferedImage()));
@@ -419,7 +446,7 @@ public class ImageprocessingController {
         }
 
         // Perform the downscaling operation
-        currentImage = model.downscale(currentImage, newWidth, newHeight);
+        setCurrentImage(model.downscale(currentImage, newWidth, newHeight));
 
         // Update the view with the new downscaled image
         view.setImageIcon(new ImageIcon(currentImage.toBufferedImage()));
@@ -436,76 +463,33 @@ public class ImageprocessingController {
     }
   }
 
+  /**
+   * Replaces the image being edited, releasing the compression session of the previous image so
+   * that its transform is not kept alive.
+   */
+  private void setCurrentImage(Image image) {
+    currentImage = image;
+    compressionSession = null;
+  }
 
   private Image loadPPMImage(String filePath) throws IOException {
-    Scanner sc = new Scanner(new FileInputStream(filePath));
-    StringBuilder builder = new StringBuilder();
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (!s.isEmpty() && s.charAt(0) != '#') {
-        builder.append(s).append(System.lineSeparator());
-      }
-    }
-    sc = new Scanner(builder.toString());
-    if (!sc.next().equals("P3")) {
-      throw new IllegalArgumentException("Invalid PPM file: plain RAW file should begin with P3");
-    }
-
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-    sc.nextInt(); // max color value (assumed to be 255)
-    int[][][] pixels = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        pixels[i][j][0] = sc.nextInt(); // Red
-        pixels[i][j][1] = sc.nextInt(); // Green
-        pixels[i][j][2] = sc.nextInt(); // Blue
-      }
-    }
-    return new Image(width, height, pixels);
+    return PPMCodec.read(Paths.get(filePath));
   }
 
-  private void savePPMImage(String filePath, Image image) throws IOException {
-    try (FileOutputStream fos = new FileOutputStream(filePath)) {
-      fos.write(("P3\n" + image.getWidth() + " " + image.getHeight() + "\n255\n").getBytes());
-      for (int i = 0; i < image.getHeight(); i++) {
-        for (int j = 0; j < image.getWidth(); j++) {
-          int[] pixel = image.getPixel(i, j);
-          fos.write((pixel[0] + " " + pixel[1] + " " + pixel[2] + "\n").getBytes());
-        }
-      }
+  private void savePPMImage(String filePath, Image image, boolean binary) throws IOException {
+    if (binary) {
+      PPMCodec.writeBinary(image, Paths.get(filePath));
+    } else {
+      PPMCodec.write(image, Paths.get(filePath));
     }
   }
 
   private Image loadStandardImage(String filePath) throws IOException {
-    BufferedImage bufferedImage = ImageIO.read(new File(filePath));
-    int width = bufferedImage.getWidth();
-    int height = bufferedImage.getHeight();
-
-    int[][][] pixels = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int rgb = bufferedImage.getRGB(j, i);
-        pixels[i][j][0] = (rgb >> 16) & 0xFF; // Red
-        pixels[i][j][1] = (rgb >> 8) & 0xFF;  // Green
-        pixels[i][j][2] = rgb & 0xFF;         // Blue
-      }
-    }
-
-    return new Image(width, height, pixels);
+    return Image.fromBufferedImage(ImageIO.read(new File(filePath)));
   }
 
   private void saveStandardImage(String filePath, Image image) throws IOException {
-    BufferedImage bufferedImage = new BufferedImage(image.getWidth(), image.getHeight(),
-        BufferedImage.TYPE_INT_RGB);
-
-    for (int i = 0; i < image.getHeight(); i++) {
-      for (int j = 0; j < image.getWidth(); j++) {
-        int[] pixel = image.getPixel(i, j);
-        int rgb = (pixel[0] << 16) | (pixel[1] << 8) | pixel[2];
-        bufferedImage.setRGB(j, i, rgb);
-      }
-    }
+    BufferedImage bufferedImage = image.toBufferedImage();
 
     ImageIO.write(bufferedImage, "png", new File(filePath));
   }
@@ -0,0 +1,207 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * The forward Haar coefficients of an image, computed once so that the image can be compressed
+ * at several thresholds or percentages. Each call to {@link #compress} costs one threshold pass
+ * and the inverse transform, and gives exactly the image that {@link ImageOperations#compress}
+ * would give for the same threshold. A session is created with
+ * {@link ImageOperationsInterface#createCompressionSession}. The session keeps a reference to
+ * its source image, so that its results are created like the results of other operations on that
+ * image, for example outside the heap; it does not read the pixels of the source again.
+ */
+public final class CompressionSession {
+
+  private final ImageOperations operations;
+  private final Image source;
+  private final int width;
+  private final int height;
+  private final double[][] coefficients;
+
+  CompressionSession(ImageOperations operations, Image source, double[][] coefficients) {
+    this.operations = operations;
+    this.source = source;
+    this.width = source.getWidth();
+    this.height = source.getHeight();
+    this.coefficients = coefficients;
+  }
+
+  /**
+   * Returns the width of the compressed images.
+   *
+   * @return the width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the compressed images.
+   *
+   * @return the height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Reconstructs the image with every coefficient below the threshold set to zero. The cached
+   * coefficients are not changed, so the session can be used again with another threshold.
+   *
+   * @param thresholdValue the threshold below which coefficients are set to zero
+   * @return a new Image with the compressed pixel values
+   */
+  public Image compress(double thresholdValue) {
+    return operations.reconstruct(source, coefficients, thresholdValue);
+  }
+
+  /**
+   * Reconstructs the image with the given percentage of its coefficients, the ones of smallest
+   * magnitude over all channels, set to zero. Coefficients of equal magnitude are either all kept
+   * or all zeroed, so slightly fewer coefficients may be zeroed when several share the cutoff.
+   *
+   * @param percentage the percentage of coefficients to set to zero, between 0 and 100
+   * @return a new Image with the compressed pixel values
+   * @throws IllegalArgumentException if the percentage is outside 0-100
+   */
+  public Image compressPercentage(double percentage) {
+    return compress(thresholdForPercentage(percentage));
+  }
+
+  /**
+   * Returns the threshold that sets the given percentage of the coefficients to zero when passed
+   * to {@link #compress}. The cutoff is found by selecting on a histogram of the bits of the
+   * magnitudes, which takes a fixed number of linear passes instead of a sort.
+   *
+   * @param percentage the percentage of coefficients to set to zero, between 0 and 100
+   * @return the magnitude of the smallest coefficient to keep
+   * @throws IllegalArgumentException if the percentage is outside 0-100
+   */
+  public double thresholdForPercentage(double percentage) {
+    return thresholdForPercentage(coefficients, width * height, percentage);
+  }
+
+  /**
+   * Returns the threshold that keeps the given fraction of the coefficients nonzero when passed
+   * to {@link #compress}.
+   *
+   * @param fraction the fraction of coefficients to keep, between 0 and 1
+   * @return the magnitude of the smallest coefficient to keep
+   * @throws IllegalArgumentException if the fraction is outside 0-1
+   */
+  public double thresholdForNonzeroFraction(double fraction) {
+    if (!(fraction >= 0 && fraction <= 1)) {
+      throw new IllegalArgumentException("Nonzero fraction must be between 0 and 1.");
+    }
+    return thresholdForPercentage(100 * (1 - fraction));
+  }
+
+  /**
+   * Returns the largest threshold at which the compressed image is estimated to keep the given
+   * peak signal-to-noise ratio to the original. The transform is orthonormal, so the squared
+   * error of the image equals the sum of the squares of the zeroed coefficients, and the
+   * threshold can be found from the coefficients alone. The estimate leaves out the rounding and
+   * clamping of the pixels, so the PSNR of the result may differ slightly.
+   *
+   * @param psnr the target peak signal-to-noise ratio in decibels
+   * @return the threshold to pass to {@link #compress}
+   * @throws IllegalArgumentException if the target is not positive
+   */
+  public double thresholdForPsnr(double psnr) {
+    if (!(psnr > 0)) {
+      throw new IllegalArgumentException("Target PSNR must be positive.");
+    }
+    double meanSquaredError = 255.0 * 255.0 / Math.pow(10, psnr / 10);
+    double budget = meanSquaredError * 3 * width * height;
+
+    // Like selectMagnitude, but the buckets are taken while their squared magnitudes fit in the
+    // budget, and the bucket where the budget runs out is refined by the next 16 bits
+    long prefix = 0;
+    long[] counts = new long[1 << 16];
+    double[] energies = new double[1 << 16];
+    for (int shift = 48; shift >= 0; shift -= 16) {
+      long mask = shift == 48 ? 0 : -1L << (shift + 16);
+      Arrays.fill(counts, 0);
+      Arrays.fill(energies, 0);
+      for (double[] values : coefficients) {
+        for (double value : values) {
+          long bits = Double.doubleToRawLongBits(Math.abs(value));
+          if ((bits & mask) == prefix) {
+            int bucket = (int) ((bits >>> shift) & 0xFFFF);
+            counts[bucket]++;
+            energies[bucket] += value * value;
+          }
+        }
+      }
+      int bucket = 0;
+      while (bucket < counts.length && (counts[bucket] == 0 || energies[bucket] <= budget)) {
+        budget -= energies[bucket];
+        bucket++;
+      }
+      if (bucket == counts.length) {
+        // Every remaining coefficient fits in the budget
+        return shift == 48 ? Double.POSITIVE_INFINITY : Math.nextUp(Double.longBitsToDouble(
+            prefix | ((1L << (shift + 16)) - 1)));
+      }
+      prefix |= (long) bucket << shift;
+    }
+    return Double.longBitsToDouble(prefix);
+  }
+
+  /**
+   * Returns the threshold that sets the given percentage of the first {@code length} values of
+   * each array to zero.
+   */
+  static double thresholdForPercentage(double[][] arrays, int length, double percentage) {
+    checkPercentage(percentage);
+    long total = (long) arrays.length * length;
+    long zeroed = (long) Math.floor(total * percentage / 100);
+    if (zeroed >= total) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return selectMagnitude(arrays, length, zeroed);
+  }
+
+  /**
+   * Checks that a compression percentage is between 0 and 100.
+   *
+   * @throws IllegalArgumentException if the percentage is outside 0-100
+   */
+  static void checkPercentage(double percentage) {
+    if (!(percentage >= 0 && percentage <= 100)) {
+      throw new IllegalArgumentException("Compression percentage must be between 0 and 100.");
+    }
+  }
+
+  /**
+   * Returns the magnitude with the given rank, counting from zero, in ascending order of the
+   * magnitudes of the first {@code length} values of each array. The bits of a non-negative
+   * double order the same way as the double itself, so the magnitude is selected 16 bits at a
+   * time: each pass counts the values that share the bits selected so far by their next 16 bits
+   * and picks the bucket that holds the rank.
+   */
+  private static double selectMagnitude(double[][] arrays, int length, long rank) {
+    long prefix = 0;
+    long[] histogram = new long[1 << 16];
+    for (int shift = 48; shift >= 0; shift -= 16) {
+      long mask = shift == 48 ? 0 : -1L << (shift + 16);
+      Arrays.fill(histogram, 0);
+      for (double[] values : arrays) {
+        for (int k = 0; k < length; k++) {
+          long bits = Double.doubleToRawLongBits(Math.abs(values[k]));
+          if ((bits & mask) == prefix) {
+            histogram[(int) ((bits >>> shift) & 0xFFFF)]++;
+          }
+        }
+      }
+      int bucket = 0;
+      while (rank >= histogram[bucket]) {
+        rank -= histogram[bucket];
+        bucket++;
+      }
+      prefix |= (long) bucket << shift;
+    }
+    return Double.longBitsToDouble(prefix);
+  }
+}
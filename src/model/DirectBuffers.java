@@ -0,0 +1,52 @@
+package model;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases the memory of direct and mapped buffers as soon as they are no longer needed, instead
+ * of when the garbage collector happens to collect them.
+ */
+final class DirectBuffers {
+
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    try {
+      Class<?> type = Class.forName("sun.misc.Unsafe");
+      Field field = type.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // The buffers are then freed when they are garbage collected
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  private DirectBuffers() {
+  }
+
+  /**
+   * Frees the memory of a direct buffer, or unmaps a mapped one, where the runtime allows it.
+   * The buffer, and every view of it, must not be used afterwards.
+   *
+   * @param buffer a direct buffer that is not a slice or duplicate of another
+   */
+  static void free(ByteBuffer buffer) {
+    if (INVOKE_CLEANER != null) {
+      try {
+        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+      } catch (ReflectiveOperationException e) {
+        // The buffer is then freed when it is garbage collected
+      }
+    }
+  }
+}
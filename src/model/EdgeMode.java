@@ -0,0 +1,57 @@
+package model;
+
+/**
+ * Describes how a convolution filter treats the pixels that its kernel reaches beyond the border
+ * of the image.
+ */
+public enum EdgeMode {
+
+  /**
+   * Pixels outside the image are black, so they add nothing to the weighted sum.
+   */
+  ZERO,
+
+  /**
+   * Pixels outside the image repeat the nearest edge pixel.
+   */
+  CLAMP,
+
+  /**
+   * Pixels outside the image mirror the image across its edge, without repeating the edge pixel.
+   */
+  MIRROR,
+
+  /**
+   * Pixels outside the image wrap around to the opposite edge.
+   */
+  WRAP;
+
+  /**
+   * Maps a row or column index that may lie outside the image to the index of the pixel it
+   * reads.
+   *
+   * @param index the index to map
+   * @param size  the number of rows or columns of the image, at least one
+   * @return the index of the pixel to read, or -1 if the pixel is black
+   */
+  public int map(int index, int size) {
+    if (index >= 0 && index < size) {
+      return index;
+    }
+    switch (this) {
+      case CLAMP:
+        return index < 0 ? 0 : size - 1;
+      case MIRROR:
+        if (size == 1) {
+          return 0;
+        }
+        int period = 2 * (size - 1);
+        int folded = Math.floorMod(index, period);
+        return folded < size ? folded : period - folded;
+      case WRAP:
+        return Math.floorMod(index, size);
+      default:
+        return -1;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package model;
+
+import java.util.Objects;
+
+/**
+ * Stores a greyscale image with a single byte per pixel, a quarter of the memory of
+ * {@link PackedPixelStorage}. Pixels are still exchanged in packed 0xRRGGBB form, with the level
+ * repeated in all three channels. Writing a pixel that is not grey converts the storage to one
+ * packed {@code int} per pixel, so that no color is ever lost; this conversion must not happen
+ * while other threads are writing the storage.
+ */
+public class GreyPixelStorage implements PixelStorageInterface {
+
+  private final int width;
+  private final int height;
+  private final byte[] levels;
+  private volatile int[] colors;
+
+  /**
+   * Constructs a black pixel grid of the specified size.
+   *
+   * @param width  the width of the grid
+   * @param height the height of the grid
+   * @throws IllegalArgumentException if a dimension is negative or the grid is too large
+   */
+  public GreyPixelStorage(int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative.");
+    }
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image is too large: " + width + "x" + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.levels = new byte[width * height];
+  }
+
+  /**
+   * Constructs a pixel grid that takes ownership of an existing row-major array of grey levels.
+   * The array is not copied, so the caller must not modify it afterwards.
+   *
+   * @param width  the width of the grid
+   * @param height the height of the grid
+   * @param levels the grey levels, {@code width * height} of them
+   * @throws IllegalArgumentException if the array length does not match the dimensions
+   */
+  public GreyPixelStorage(int width, int height, byte[] levels) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative.");
+    }
+    if (levels.length != (long) width * height) {
+      throw new IllegalArgumentException(
+          "Expected " + ((long) width * height) + " pixels but got " + levels.length);
+    }
+    this.width = width;
+    this.height = height;
+    this.levels = levels;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns whether every pixel is still held as a single grey level.
+   *
+   * @return false if a pixel that is not grey has been written
+   */
+  public boolean isGrey() {
+    return colors == null;
+  }
+
+  @Override
+  public int getRGB(int row, int col) {
+    int index = index(row, col);
+    int[] current = colors;
+    if (current != null) {
+      return current[index];
+    }
+    return (levels[index] & 0xFF) * 0x010101;
+  }
+
+  @Override
+  public void setRGB(int row, int col, int rgb) {
+    int index = index(row, col);
+    rgb &= 0xFFFFFF;
+    int[] current = colors;
+    if (current == null) {
+      if (isGrey(rgb)) {
+        levels[index] = (byte) rgb;
+        return;
+      }
+      current = convert();
+    }
+    current[index] = rgb;
+  }
+
+  @Override
+  public void readRow(int row, int col, int[] dst, int offset, int length) {
+    Objects.checkFromIndexSize(col, length, width);
+    int start = Objects.checkIndex(row, height) * width + col;
+    int[] current = colors;
+    if (current != null) {
+      System.arraycopy(current, start, dst, offset, length);
+      return;
+    }
+    for (int k = 0; k < length; k++) {
+      dst[offset + k] = (levels[start + k] & 0xFF) * 0x010101;
+    }
+  }
+
+  @Override
+  public void writeRow(int row, int col, int[] src, int offset, int length) {
+    Objects.checkFromIndexSize(col, length, width);
+    int start = Objects.checkIndex(row, height) * width + col;
+    int[] current = colors;
+    if (current == null) {
+      int k = 0;
+      while (k < length && isGrey(src[offset + k])) {
+        levels[start + k] = (byte) src[offset + k];
+        k++;
+      }
+      if (k == length) {
+        return;
+      }
+      current = convert();
+    }
+    for (int k = 0; k < length; k++) {
+      current[start + k] = src[offset + k] & 0xFFFFFF;
+    }
+  }
+
+  /**
+   * Copies a run of grey levels from one row of the storage into an array, one byte per pixel.
+   *
+   * @param row    the row to read from
+   * @param col    the first column to read
+   * @param dst    the array receiving the levels
+   * @param offset the position in {@code dst} of the first level
+   * @param length the number of pixels to copy
+   * @throws IllegalStateException if the storage no longer holds only grey pixels
+   */
+  void readLevels(int row, int col, byte[] dst, int offset, int length) {
+    if (colors != null) {
+      throw new IllegalStateException("The pixel storage no longer holds only grey pixels.");
+    }
+    Objects.checkFromIndexSize(col, length, width);
+    System.arraycopy(levels, Objects.checkIndex(row, height) * width + col, dst, offset, length);
+  }
+
+  /**
+   * Returns whether the levels of a storage can be read directly, which is the case for a grey
+   * storage that has only ever been given grey pixels.
+   */
+  static boolean holdsLevels(PixelStorageInterface storage) {
+    return storage instanceof GreyPixelStorage && ((GreyPixelStorage) storage).isGrey();
+  }
+
+  private static boolean isGrey(int rgb) {
+    int blue = rgb & 0xFF;
+    return ((rgb >> 16) & 0xFF) == blue && ((rgb >> 8) & 0xFF) == blue;
+  }
+
+  private synchronized int[] convert() {
+    int[] current = colors;
+    if (current == null) {
+      current = new int[levels.length];
+      for (int k = 0; k < levels.length; k++) {
+        current[k] = (levels[k] & 0xFF) * 0x010101;
+      }
+      colors = current;
+    }
+    return current;
+  }
+
+  private int index(int row, int col) {
+    Objects.checkIndex(col, width);
+    return Objects.checkIndex(row, height) * width + col;
+  }
+}
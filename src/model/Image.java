@@ -1,16 +1,32 @@
 package model;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.util.Arrays;
 
 /**
- * Represents an image with pixel data, width, and height.
+ * Represents an image with pixel data, width, and height. The pixel data is held by a
+ * {@link PixelStorageInterface}, which by default packs every pixel into a single {@code int}.
  */
 public class Image implements ImageInterface {
 
   private final int width;
   private final int height;
-  private final int[][][] pixels;
+  private final PixelStorageInterface storage;
+
+  /**
+   * Constructs a black Image with the specified width and height.
+   *
+   * @param width  the width of the image
+   * @param height the height of the image
+   */
+  public Image(int width, int height) {
+    this(new PackedPixelStorage(width, height));
+  }
 
   /**
    * Constructs an Image with the specified width, height, and pixel data.
@@ -20,16 +36,37 @@ public class Image implements ImageInterface {
    * @param pixels the pixel data in RGB format
    */
   public Image(int width, int height, int[][][] pixels) {
-    this.width = width;
-    this.height = height;
-    this.pixels = new int[height][width][3];
+    this(width, height);
     for (int i = 0; i < height; i++) {
       for (int j = 0; j < width; j++) {
-        this.pixels[i][j] = pixels[i][j].clone();
+        setPixel(i, j, pixels[i][j]);
       }
     }
   }
 
+  /**
+   * Constructs an Image that takes ownership of a row-major array of packed 0xRRGGBB values. The
+   * array is not copied, so the caller must not modify it afterwards.
+   *
+   * @param width  the width of the image
+   * @param height the height of the image
+   * @param rgb    the packed pixel values, {@code width * height} of them
+   */
+  public Image(int width, int height, int[] rgb) {
+    this(new PackedPixelStorage(width, height, rgb));
+  }
+
+  /**
+   * Constructs an Image over the given pixel storage. The storage is used directly, not copied.
+   *
+   * @param storage the storage holding the pixel data
+   */
+  public Image(PixelStorageInterface storage) {
+    this.width = storage.getWidth();
+    this.height = storage.getHeight();
+    this.storage = storage;
+  }
+
   /**
    * Returns the width of the image.
    *
@@ -48,6 +85,39 @@ public class Image implements ImageInterface {
     return height;
   }
 
+  /**
+   * Returns the storage that holds the pixels of this image.
+   *
+   * @return the pixel storage
+   */
+  public PixelStorageInterface getStorage() {
+    return storage;
+  }
+
+  /**
+   * Creates a black image of the given size whose pixels are held like those of this image, so
+   * that the result of an operation on an image held in a file is held in a file too.
+   *
+   * @param width  the width of the new image
+   * @param height the height of the new image
+   * @return the new image
+   */
+  public Image createCompatible(int width, int height) {
+    return new Image(storage.createCompatible(width, height));
+  }
+
+  /**
+   * Creates a black image of the given size for a result that holds only grey pixels, stored
+   * with a single byte per pixel unless this image is held in a file.
+   *
+   * @param width  the width of the new image
+   * @param height the height of the new image
+   * @return the new image
+   */
+  public Image createCompatibleGrey(int width, int height) {
+    return new Image(storage.createCompatibleGrey(width, height));
+  }
+
   /**
    * Retrieves the RGB pixel values at the specified row and column.
    *
@@ -56,7 +126,8 @@ public class Image implements ImageInterface {
    * @return an array containing the RGB values of the pixel
    */
   public int[] getPixel(int row, int col) {
-    return pixels[row][col];
+    int rgb = storage.getRGB(row, col);
+    return new int[]{(rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF};
   }
 
   /**
@@ -65,9 +136,93 @@ public class Image implements ImageInterface {
    * @param row the row index of the pixel
    * @param col the column index of the pixel
    * @param rgb an array containing the RGB values to set
+   * @throws IllegalArgumentException if a value is outside the range 0-255
    */
   public void setPixel(int row, int col, int[] rgb) {
-    pixels[row][col] = rgb;
+    if (rgb[0] < 0 || rgb[0] > 255 || rgb[1] < 0 || rgb[1] > 255 || rgb[2] < 0 || rgb[2] > 255) {
+      throw new IllegalArgumentException("RGB values must be in the range 0-255");
+    }
+    storage.setRGB(row, col, (rgb[0] << 16) | (rgb[1] << 8) | rgb[2]);
+  }
+
+  /**
+   * Retrieves the packed 0xRRGGBB value of the pixel at the specified row and column.
+   *
+   * @param row the row index of the pixel
+   * @param col the column index of the pixel
+   * @return the packed RGB value of the pixel
+   */
+  public int getRGB(int row, int col) {
+    return storage.getRGB(row, col);
+  }
+
+  /**
+   * Sets the packed 0xRRGGBB value of the pixel at the specified row and column.
+   *
+   * @param row the row index of the pixel
+   * @param col the column index of the pixel
+   * @param rgb the packed RGB value to set
+   */
+  public void setRGB(int row, int col, int rgb) {
+    storage.setRGB(row, col, rgb);
+  }
+
+  /**
+   * Copies one full row of packed 0xRRGGBB values into the given array.
+   *
+   * @param row    the row index to read
+   * @param dst    the array receiving the {@code getWidth()} packed values
+   * @param offset the position in {@code dst} of the first value
+   */
+  public void getRow(int row, int[] dst, int offset) {
+    storage.readRow(row, 0, dst, offset, width);
+  }
+
+  /**
+   * Copies part of one row of packed 0xRRGGBB values into the given array.
+   *
+   * @param row    the row index to read
+   * @param col    the first column to read
+   * @param dst    the array receiving the packed values
+   * @param offset the position in {@code dst} of the first value
+   * @param length the number of pixels to copy
+   */
+  public void getRow(int row, int col, int[] dst, int offset, int length) {
+    storage.readRow(row, col, dst, offset, length);
+  }
+
+  /**
+   * Replaces one full row of pixels with packed 0xRRGGBB values from the given array.
+   *
+   * @param row    the row index to write
+   * @param src    the array holding the {@code getWidth()} packed values
+   * @param offset the position in {@code src} of the first value
+   */
+  public void setRow(int row, int[] src, int offset) {
+    storage.writeRow(row, 0, src, offset, width);
+  }
+
+  /**
+   * Copies a rectangular region of pixels from another image into this image.
+   *
+   * @param source       the image to copy from
+   * @param srcRow       the top row of the region in the source image
+   * @param srcCol       the left column of the region in the source image
+   * @param dstRow       the top row of the region in this image
+   * @param dstCol       the left column of the region in this image
+   * @param regionWidth  the width of the region
+   * @param regionHeight the height of the region
+   */
+  public void copyRegion(ImageInterface source, int srcRow, int srcCol, int dstRow, int dstCol,
+      int regionWidth, int regionHeight) {
+    if (regionWidth <= 0 || regionHeight <= 0) {
+      return;
+    }
+    int[] line = new int[source.getWidth()];
+    for (int i = 0; i < regionHeight; i++) {
+      source.getRow(srcRow + i, line, 0);
+      storage.writeRow(dstRow + i, dstCol, line, srcCol, regionWidth);
+    }
   }
 
   /**
@@ -84,8 +239,19 @@ public class Image implements ImageInterface {
       return false;
     }
     Image image = (Image) o;
-    return width == image.width && height == image.height && Arrays.deepEquals(pixels,
-        image.pixels);
+    if (width != image.width || height != image.height) {
+      return false;
+    }
+    int[] line = new int[width];
+    int[] otherLine = new int[width];
+    for (int i = 0; i < height; i++) {
+      getRow(i, line, 0);
+      image.getRow(i, otherLine, 0);
+      if (!Arrays.equals(line, otherLine)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -95,23 +261,108 @@ public class Image implements ImageInterface {
   public int hashCode() {
     int result = Integer.hashCode(width);
     result = 31 * result + Integer.hashCode(height);
-    result = 31 * result + Arrays.deepHashCode(pixels);
+    int[] line = new int[width];
+    for (int i = 0; i < height; i++) {
+      getRow(i, line, 0);
+      result = 31 * result + Arrays.hashCode(line);
+    }
     return result;
   }
 
   /**
-   * Converts to Buffered Image.
+   * Converts to Buffered Image. The rows are copied straight into the pixel array of the new
+   * image instead of setting each pixel through its color model.
+   *
+   * @return a new image of type {@code TYPE_INT_RGB} with the same pixels
    */
   public BufferedImage toBufferedImage() {
     BufferedImage bufferedImage = new BufferedImage(this.width, this.height,
         BufferedImage.TYPE_INT_RGB);
+    int[] data = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
     for (int i = 0; i < this.height; i++) {
-      for (int j = 0; j < this.width; j++) {
-        int[] pixel = this.getPixel(i, j);
-        int rgb = (pixel[0] << 16) | (pixel[1] << 8) | pixel[2];
-        bufferedImage.setRGB(j, i, rgb);
-      }
+      getRow(i, data, i * this.width);
     }
     return bufferedImage;
   }
+
+  /**
+   * Creates an image with the RGB values of a buffered image, dropping any alpha. Images of type
+   * {@code TYPE_INT_RGB}, {@code TYPE_INT_ARGB}, {@code TYPE_3BYTE_BGR} and
+   * {@code TYPE_4BYTE_ABGR} are read straight from their data buffers, and any other type a
+   * scanline at a time through its color model.
+   *
+   * @param bufferedImage the image to convert
+   * @return a new image with the same pixels
+   */
+  public static Image fromBufferedImage(BufferedImage bufferedImage) {
+    int width = bufferedImage.getWidth();
+    int height = bufferedImage.getHeight();
+    int[] rgb = new int[width * height];
+    switch (bufferedImage.getType()) {
+      case BufferedImage.TYPE_INT_RGB:
+      case BufferedImage.TYPE_INT_ARGB:
+        readIntRaster(bufferedImage.getRaster(), width, height, rgb);
+        break;
+      case BufferedImage.TYPE_3BYTE_BGR:
+      case BufferedImage.TYPE_4BYTE_ABGR:
+        readByteRaster(bufferedImage.getRaster(), width, height, rgb);
+        break;
+      default:
+        for (int i = 0; i < height; i++) {
+          bufferedImage.getRGB(0, i, width, 1, rgb, i * width, width);
+        }
+        for (int k = 0; k < rgb.length; k++) {
+          rgb[k] &= 0xFFFFFF;
+        }
+        break;
+    }
+    return new Image(width, height, rgb);
+  }
+
+  /**
+   * Copies the pixels of a raster that packs each pixel into one {@code int}, with red, green and
+   * blue in the low 24 bits.
+   */
+  private static void readIntRaster(WritableRaster raster, int width, int height, int[] rgb) {
+    DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+    int[] data = buffer.getData();
+    int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+    // The raster of a subimage starts inside the data buffer of its parent
+    int start = buffer.getOffset() - raster.getSampleModelTranslateY() * stride
+        - raster.getSampleModelTranslateX();
+    for (int i = 0; i < height; i++) {
+      int from = start + i * stride;
+      int to = i * width;
+      for (int j = 0; j < width; j++) {
+        rgb[to + j] = data[from + j] & 0xFFFFFF;
+      }
+    }
+  }
+
+  /**
+   * Copies the pixels of a raster that interleaves the samples of each pixel as bytes, with the
+   * offsets of the red, green and blue samples given by its first three bands.
+   */
+  private static void readByteRaster(WritableRaster raster, int width, int height, int[] rgb) {
+    DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+    byte[] data = buffer.getData();
+    ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+    int stride = model.getScanlineStride();
+    int pixelStride = model.getPixelStride();
+    int[] bandOffsets = model.getBandOffsets();
+    int red = bandOffsets[0];
+    int green = bandOffsets[1];
+    int blue = bandOffsets[2];
+    int start = buffer.getOffset() - raster.getSampleModelTranslateY() * stride
+        - raster.getSampleModelTranslateX() * pixelStride;
+    for (int i = 0; i < height; i++) {
+      int position = start + i * stride;
+      int to = i * width;
+      for (int j = 0; j < width; j++) {
+        rgb[to + j] = ((data[position + red] & 0xFF) << 16)
+            | ((data[position + green] & 0xFF) << 8) | (data[position + blue] & 0xFF);
+        position += pixelStride;
+      }
+    }
+  }
 }
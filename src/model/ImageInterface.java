@@ -39,6 +39,67 @@ public interface ImageInterface {
    */
   void setPixel(int row, int col, int[] rgb);
 
+  /**
+   * Retrieves the packed 0xRRGGBB value of the pixel at the specified row and column.
+   *
+   * @param row the row index of the pixel
+   * @param col the column index of the pixel
+   * @return the packed RGB value of the pixel
+   */
+  int getRGB(int row, int col);
+
+  /**
+   * Sets the packed 0xRRGGBB value of the pixel at the specified row and column.
+   *
+   * @param row the row index of the pixel
+   * @param col the column index of the pixel
+   * @param rgb the packed RGB value to set
+   */
+  void setRGB(int row, int col, int rgb);
+
+  /**
+   * Copies one full row of packed 0xRRGGBB values into the given array.
+   *
+   * @param row    the row index to read
+   * @param dst    the array receiving the {@code getWidth()} packed values
+   * @param offset the position in {@code dst} of the first value
+   */
+  void getRow(int row, int[] dst, int offset);
+
+  /**
+   * Copies part of one row of packed 0xRRGGBB values into the given array.
+   *
+   * @param row    the row index to read
+   * @param col    the first column to read
+   * @param dst    the array receiving the packed values
+   * @param offset the position in {@code dst} of the first value
+   * @param length the number of pixels to copy
+   */
+  void getRow(int row, int col, int[] dst, int offset, int length);
+
+  /**
+   * Replaces one full row of pixels with packed 0xRRGGBB values from the given array.
+   *
+   * @param row    the row index to write
+   * @param src    the array holding the {@code getWidth()} packed values
+   * @param offset the position in {@code src} of the first value
+   */
+  void setRow(int row, int[] src, int offset);
+
+  /**
+   * Copies a rectangular region of pixels from another image into this image.
+   *
+   * @param source       the image to copy from
+   * @param srcRow       the top row of the region in the source image
+   * @param srcCol       the left column of the region in the source image
+   * @param dstRow       the top row of the region in this image
+   * @param dstCol       the left column of the region in this image
+   * @param regionWidth  the width of the region
+   * @param regionHeight the height of the region
+   */
+  void copyRegion(ImageInterface source, int srcRow, int srcCol, int dstRow, int dstCol,
+      int regionWidth, int regionHeight);
+
   /**
    * Compares this Image to another object for equality based on width, height, and pixel data.
    *
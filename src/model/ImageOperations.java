@@ -3,13 +3,80 @@ package model;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * This class provides various image processing operations for the {@link Image} class.
  */
 public class ImageOperations implements ImageOperationsInterface {
 
+  private static final double SQRT_2 = Math.sqrt(2);
+
+  // The largest number of pixels of the horizontal pass of a Gaussian blur held at once
+  private static final long BLUR_BLOCK_PIXELS = 1 << 22;
+
+  // The largest sigma a Gaussian kernel is built for, and the largest number of taps beyond its
+  // radius whose weights are added up one by one
+  private static final double MAX_SIGMA = 1e20;
+  private static final int DIRECT_TAIL_TAPS = 1 << 16;
+
+  private boolean views;
+
+  /**
+   * Work performed over a contiguous band of rows of an image.
+   */
+  protected interface RowTask {
+
+    /**
+     * Processes the rows from {@code fromRow} (inclusive) to {@code toRow} (exclusive).
+     *
+     * @param fromRow the first row of the band
+     * @param toRow   the row after the last row of the band
+     */
+    void process(int fromRow, int toRow);
+  }
+
+  /**
+   * Runs the given task over the rows {@code [0, rows)}. Every row is processed independently of
+   * the others, so the order in which bands run never changes the result. This implementation runs
+   * the whole range on the calling thread; subclasses may split it into bands and run them
+   * concurrently.
+   *
+   * @param rows     the number of rows to process
+   * @param rowWidth the number of pixels in each row, used to estimate the cost of the work
+   * @param task     the work to perform on each band of rows
+   */
+  protected void forEachRowBand(int rows, int rowWidth, RowTask task) {
+    task.process(0, rows);
+  }
+
+  /**
+   * Creates the image for the result of an operation that moves pixels or treats every channel
+   * the same way. The result of such an operation on a grey image is grey, so it is then stored
+   * with a single byte per pixel.
+   */
+  private static Image createResult(Image image, int width, int height) {
+    if (GreyPixelStorage.holdsLevels(image.getStorage())) {
+      return image.createCompatibleGrey(width, height);
+    }
+    return image.createCompatible(width, height);
+  }
+
+  /**
+   * Enables or disables views. When enabled, the flips, the red, green and blue components and
+   * {@link #crop} return images that read the pixels of the source image as they are needed
+   * instead of copying them, and copy them only when they are first written. The source image
+   * must then not be changed while such an image is in use. Views are disabled by default.
+   *
+   * @param views true to return views instead of copies
+   */
+  public void setViews(boolean views) {
+    this.views = views;
+  }
+
   /**
    * Flips the given image horizontally.
    *
@@ -17,15 +84,24 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image that is the horizontal flip of the original
    */
   public Image flipHorizontal(Image image) {
+    if (views) {
+      return new Image(ViewPixelStorage.flippedHorizontally(image.getStorage()));
+    }
     int height = image.getHeight();
     int width = image.getWidth();
-    int[][][] flipped = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        flipped[i][j] = image.getPixel(i, width - 1 - j);
+    Image flipped = createResult(image, width, height);
+    forEachRowBand(height, width, (fromRow, toRow) -> {
+      int[] row = new int[width];
+      int[] flippedRow = new int[width];
+      for (int i = fromRow; i < toRow; i++) {
+        image.getRow(i, row, 0);
+        for (int j = 0; j < width; j++) {
+          flippedRow[j] = row[width - 1 - j];
+        }
+        flipped.setRow(i, flippedRow, 0);
       }
-    }
-    return new Image(width, height, flipped);
+    });
+    return flipped;
   }
 
   /**
@@ -35,15 +111,20 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image that is the vertical flip of the original
    */
   public Image flipVertical(Image image) {
+    if (views) {
+      return new Image(ViewPixelStorage.flippedVertically(image.getStorage()));
+    }
     int height = image.getHeight();
     int width = image.getWidth();
-    int[][][] flipped = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        flipped[height - 1 - i][j] = image.getPixel(i, j);
+    Image flipped = createResult(image, width, height);
+    forEachRowBand(height, width, (fromRow, toRow) -> {
+      int[] row = new int[width];
+      for (int i = fromRow; i < toRow; i++) {
+        image.getRow(i, row, 0);
+        flipped.setRow(height - 1 - i, row, 0);
       }
-    }
-    return new Image(width, height, flipped);
+    });
+    return flipped;
   }
 
   /**
@@ -53,16 +134,10 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image with only the red component displayed
    */
   public Image visualizeRedComponent(Image image) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int[][][] result = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int red = image.getPixel(i, j)[0];
-        result[i][j] = new int[]{red, red, red};
-      }
+    if (views) {
+      return new Image(ViewPixelStorage.component(image.getStorage(), 16));
     }
-    return new Image(width, height, result);
+    return applyPointOperations(image, Collections.singletonList(PointOperation.redComponent()));
   }
 
   /**
@@ -72,16 +147,10 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image with only the green component displayed
    */
   public Image visualizeGreenComponent(Image image) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int[][][] result = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int green = image.getPixel(i, j)[1];
-        result[i][j] = new int[]{green, green, green};
-      }
+    if (views) {
+      return new Image(ViewPixelStorage.component(image.getStorage(), 8));
     }
-    return new Image(width, height, result);
+    return applyPointOperations(image, Collections.singletonList(PointOperation.greenComponent()));
   }
 
   /**
@@ -91,18 +160,10 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image with only the blue component displayed
    */
   public Image visualizeBlueComponent(Image image) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int[][][] result = new int[height][width][3];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int blue = image.getPixel(i, j)[2];
-        result[i][j] = new int[]{blue, blue, blue};
-      }
+    if (views) {
+      return new Image(ViewPixelStorage.component(image.getStorage(), 0));
     }
-
-    return new Image(width, height, result);
+    return applyPointOperations(image, Collections.singletonList(PointOperation.blueComponent()));
   }
 
 
@@ -124,17 +185,45 @@ public class ImageOperations implements ImageOperationsInterface {
 
     int height = redImage.getHeight();
     int width = redImage.getWidth();
-    int[][][] combinedPixels = new int[height][width][3];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        combinedPixels[i][j][0] = redImage.getPixel(i, j)[0];
-        combinedPixels[i][j][1] = greenImage.getPixel(i, j)[1];
-        combinedPixels[i][j][2] = blueImage.getPixel(i, j)[2];
+    Image combined = redImage.createCompatible(width, height);
+
+    forEachRowBand(height, width, (fromRow, toRow) -> {
+      int[] row = new int[width];
+      int[] greenRow = new int[width];
+      int[] blueRow = new int[width];
+      for (int i = fromRow; i < toRow; i++) {
+        redImage.getRow(i, row, 0);
+        greenImage.getRow(i, greenRow, 0);
+        blueImage.getRow(i, blueRow, 0);
+        for (int j = 0; j < width; j++) {
+          row[j] = (row[j] & 0xFF0000) | (greenRow[j] & 0x00FF00) | (blueRow[j] & 0x0000FF);
+        }
+        combined.setRow(i, row, 0);
       }
-    }
+    });
+
+    return combined;
+  }
 
-    return new Image(width, height, combinedPixels);
+  /**
+   * Crops the given image to a rectangular region.
+   *
+   * @param image  the image to crop
+   * @param x      the left column of the region
+   * @param y      the top row of the region
+   * @param width  the width of the region
+   * @param height the height of the region
+   * @return a new image holding the region
+   * @throws IllegalArgumentException if the region is empty or does not lie inside the image
+   */
+  public Image crop(Image image, int x, int y, int width, int height) {
+    Image region = new Image(ViewPixelStorage.region(image.getStorage(), x, y, width, height));
+    if (views) {
+      return region;
+    }
+    Image cropped = createResult(image, width, height);
+    cropped.copyRegion(region, 0, 0, 0, 0, width, height);
+    return cropped;
   }
 
   /**
@@ -144,19 +233,7 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image where each pixel is the maximum RGB value
    */
   public Image getValue(Image image) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int[][][] result = new int[height][width][3];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] rgb = image.getPixel(i, j);
-        int maxComponent = Math.max(rgb[0], Math.max(rgb[1], rgb[2]));
-        result[i][j] = new int[]{maxComponent, maxComponent, maxComponent};
-      }
-    }
-
-    return new Image(width, height, result);
+    return applyPointOperations(image, Collections.singletonList(PointOperation.value()));
   }
 
   /**
@@ -167,19 +244,7 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return A new image where each pixel's RGB values represent its intensity.
    */
   public Image getIntensity(Image image) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int[][][] result = new int[height][width][3];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] rgb = image.getPixel(i, j);
-        int intensity = (rgb[0] + rgb[1] + rgb[2]) / 3;
-        result[i][j] = new int[]{intensity, intensity, intensity};
-      }
-    }
-
-    return new Image(width, height, result);
+    return applyPointOperations(image, Collections.singletonList(PointOperation.intensity()));
   }
 
   /**
@@ -190,19 +255,7 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return A new image where each pixel's RGB values represent its luma.
    */
   public Image getLuma(Image image) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int[][][] result = new int[height][width][3];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] rgb = image.getPixel(i, j);
-        int luma = (int) (0.2126 * rgb[0] + 0.7152 * rgb[1] + 0.0722 * rgb[2]);
-        result[i][j] = new int[]{luma, luma, luma};
-      }
-    }
-
-    return new Image(width, height, result);
+    return applyPointOperations(image, Collections.singletonList(PointOperation.luma()));
   }
 
   /**
@@ -212,28 +265,8 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image with the sepia filter applied
    */
   public Image applySepia(Image image, int splitPercent) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int splitColumn = (width * splitPercent) / 100;
-    int[][][] sepia = new int[height][width][3];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] rgb = image.getPixel(i, j);
-        if (j >= splitColumn) {
-          int red = rgb[0];
-          int green = rgb[1];
-          int blue = rgb[2];
-
-          sepia[i][j][0] = (int) Math.min(255, 0.393 * red + 0.769 * green + 0.189 * blue);
-          sepia[i][j][1] = (int) Math.min(255, 0.349 * red + 0.686 * green + 0.168 * blue);
-          sepia[i][j][2] = (int) Math.min(255, 0.272 * red + 0.534 * green + 0.131 * blue);
-        } else {
-          sepia[i][j] = rgb.clone();
-        }
-      }
-    }
-    return new Image(width, height, sepia);
+    return applyPointOperations(image,
+        Collections.singletonList(PointOperation.sepia(splitPercent)));
   }
 
 
@@ -244,23 +277,8 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image in greyscale
    */
   public Image applyGreyscale(Image image, int splitPercent) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int splitColumn = (width * splitPercent) / 100;
-    int[][][] greyscale = new int[height][width][3];
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] rgb = image.getPixel(i, j);
-        if (j >= splitColumn) {
-          int grey = (int) Math.min(255, 0.2126 * rgb[0] + 0.7152 * rgb[1] + 0.0722 * rgb[2]);
-          greyscale[i][j] = new int[]{grey, grey, grey};
-        } else {
-          greyscale[i][j] = rgb.clone();
-        }
-      }
-    }
-    return new Image(width, height, greyscale);
+    return applyPointOperations(image,
+        Collections.singletonList(PointOperation.greyscale(splitPercent)));
   }
 
 
@@ -272,20 +290,8 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return a new image with adjusted brightness
    */
   public Image adjustBrightness(Image image, int increment) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int[][][] adjusted = new int[height][width][3];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] rgb = image.getPixel(i, j);
-        adjusted[i][j] = new int[]{
-            Math.max(0, Math.min(255, rgb[0] + increment)),
-            Math.max(0, Math.min(255, rgb[1] + increment)),
-            Math.max(0, Math.min(255, rgb[2] + increment))
-        };
-      }
-    }
-    return new Image(width, height, adjusted);
+    return applyPointOperations(image,
+        Collections.singletonList(PointOperation.brightness(increment)));
   }
 
   /**
@@ -296,12 +302,204 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return A new image that has been blurred.
    */
   public Image blur(Image image, int splitPercent) {
+    return blur(image, splitPercent, EdgeMode.ZERO);
+  }
+
+
+  /**
+   * Applies a Gaussian blur to the specified image with a 3x3 kernel, reading the pixels beyond
+   * the border as the edge mode specifies.
+   *
+   * @param image        The input image to blur.
+   * @param splitPercent The percentage of the width to leave unchanged on the left.
+   * @param edgeMode     How pixels beyond the border of the image are read.
+   * @return A new image that has been blurred.
+   */
+  public Image blur(Image image, int splitPercent, EdgeMode edgeMode) {
     double[][] kernel = {
         {0.0625, 0.125, 0.0625},
         {0.125, 0.25, 0.125},
         {0.0625, 0.125, 0.0625}
     };
-    return applySplitFilter(image, kernel, splitPercent);
+    return applySplitFilter(image, kernel, splitPercent, edgeMode);
+  }
+
+
+  /**
+   * Applies a Gaussian blur of arbitrary strength to the image. The two-dimensional Gaussian is
+   * separable, so it is applied as a horizontal pass followed by a vertical pass of a
+   * one-dimensional kernel, which costs time proportional to the radius instead of its square.
+   * The kernel extends three standard deviations on each side, and pixels beyond the image
+   * border repeat the nearest edge pixel so that the edges do not darken.
+   *
+   * @param image        The input image to blur.
+   * @param sigma        The standard deviation of the Gaussian, in pixels.
+   * @param splitPercent The percentage of the width to leave unchanged on the left.
+   * @return A new image that has been blurred.
+   * @throws IllegalArgumentException if sigma is not a positive number.
+   */
+  public Image blur(Image image, double sigma, int splitPercent) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    float[] weights = gaussianKernel(sigma, Math.max(1, Math.max(width, height)));
+    int radius = weights.length / 2;
+    int splitColumn = Math.max(0, Math.min(width, (width * splitPercent) / 100));
+    if (width == 0 || height == 0) {
+      return new Image(width, height);
+    }
+    int span = width - splitColumn;
+    Image blurred = createResult(image, width, height);
+    if (span == 0) {
+      blurred.copyRegion(image, 0, 0, 0, 0, width, height);
+      return blurred;
+    }
+
+    // The rows are blurred a block at a time, so that the horizontal pass of a large image is
+    // never held whole; each block also needs the horizontal pass of the rows in its halo
+    int blockRows = (int) Math.max(1, Math.min(height, BLUR_BLOCK_PIXELS / span));
+    int[] horizontal = new int[Math.min(height, blockRows + 2 * radius) * span];
+    for (int blockStart = 0; blockStart < height; blockStart += blockRows) {
+      int blockEnd = Math.min(height, blockStart + blockRows);
+      int top = Math.max(0, blockStart - radius);
+      int bottom = Math.min(height, blockEnd + radius);
+      int start = blockStart;
+
+      // Horizontal pass: only the columns right of the split and their halo are read
+      forEachRowBand(bottom - top, span * weights.length, (fromRow, toRow) -> {
+        int first = Math.max(0, splitColumn - radius);
+        int[] row = new int[width - first];
+        float[][] padded = new float[3][span + 2 * radius];
+        for (int i = top + fromRow; i < top + toRow; i++) {
+          image.getRow(i, first, row, 0, row.length);
+          for (int p = 0; p < span + 2 * radius; p++) {
+            int rgb = row[Math.max(0, Math.min(width - 1, splitColumn - radius + p)) - first];
+            padded[0][p] = (rgb >> 16) & 0xFF;
+            padded[1][p] = (rgb >> 8) & 0xFF;
+            padded[2][p] = rgb & 0xFF;
+          }
+          int base = (i - top) * span;
+          for (int j = 0; j < span; j++) {
+            float red = 0;
+            float green = 0;
+            float blue = 0;
+            for (int k = 0; k < weights.length; k++) {
+              red += padded[0][j + k] * weights[k];
+              green += padded[1][j + k] * weights[k];
+              blue += padded[2][j + k] * weights[k];
+            }
+            horizontal[base + j] = packChannels(red, green, blue);
+          }
+        }
+      });
+
+      // Vertical pass: accumulate whole rows at a time so that memory is read sequentially
+      forEachRowBand(blockEnd - blockStart, span * weights.length, (fromRow, toRow) -> {
+        float[][] sums = new float[3][span];
+        int[] blurredRow = new int[width];
+        for (int i = start + fromRow; i < start + toRow; i++) {
+          for (int c = 0; c < 3; c++) {
+            Arrays.fill(sums[c], 0);
+          }
+          for (int k = 0; k < weights.length; k++) {
+            int source = (Math.max(0, Math.min(height - 1, i + k - radius)) - top) * span;
+            float weight = weights[k];
+            for (int j = 0; j < span; j++) {
+              int rgb = horizontal[source + j];
+              sums[0][j] += ((rgb >> 16) & 0xFF) * weight;
+              sums[1][j] += ((rgb >> 8) & 0xFF) * weight;
+              sums[2][j] += (rgb & 0xFF) * weight;
+            }
+          }
+          image.getRow(i, 0, blurredRow, 0, splitColumn);  // Unchanged part, copied in bulk
+          for (int j = 0; j < span; j++) {
+            blurredRow[splitColumn + j] = packChannels(sums[0][j], sums[1][j], sums[2][j]);
+          }
+          blurred.setRow(i, blurredRow, 0);
+        }
+      });
+    }
+    return blurred;
+  }
+
+
+  /**
+   * Builds a normalized one-dimensional Gaussian kernel that extends three standard deviations on
+   * each side of its center, but has no more than the given number of taps on each side. When the
+   * radius is no smaller than the larger dimension of the image, every tap beyond it would read
+   * the same clamped edge pixel as the outermost tap on its side, so the weight of those taps is
+   * added to the outermost taps instead. The blur is then the same as with the full kernel, and
+   * the size of the kernel stays bounded for any sigma.
+   *
+   * @param sigma     The standard deviation of the Gaussian, in pixels.
+   * @param maxRadius The largest number of taps on each side of the center.
+   * @return The kernel weights, which sum to one.
+   * @throws IllegalArgumentException if sigma is not a positive number.
+   */
+  private float[] gaussianKernel(double sigma, int maxRadius) {
+    if (!(sigma > 0) || Double.isInfinite(sigma)) {
+      throw new IllegalArgumentException("Sigma must be a positive number.");
+    }
+    // Beyond this, the weight of the taps inside any image is negligible next to their tails
+    sigma = Math.min(sigma, MAX_SIGMA);
+    double fullRadius = Math.ceil(3 * sigma);
+    int radius = (int) Math.min(fullRadius, maxRadius);
+    double[] values = new double[2 * radius + 1];
+    double sum = 0;
+    for (int k = -radius; k <= radius; k++) {
+      values[k + radius] = Math.exp(-((double) k * k) / (2 * sigma * sigma));
+      sum += values[k + radius];
+    }
+    double tail = gaussianTail(sigma, radius, fullRadius);
+    values[0] += tail;
+    values[2 * radius] += tail;
+    sum += 2 * tail;
+    float[] weights = new float[values.length];
+    for (int k = 0; k < values.length; k++) {
+      weights[k] = (float) (values[k] / sum);
+    }
+    return weights;
+  }
+
+  /**
+   * Returns the sum of the unnormalized Gaussian weights of the taps {@code from + 1} to
+   * {@code to} on one side of the center. When there are too many taps to add up, the sum is
+   * taken as the integral of the Gaussian from half a tap before the first to half a tap after
+   * the last, which only happens for a sigma so large that the two differ by far less than the
+   * precision of the weights.
+   */
+  private static double gaussianTail(double sigma, int from, double to) {
+    if (to - from <= DIRECT_TAIL_TAPS) {
+      double sum = 0;
+      for (long k = from + 1L; k <= to; k++) {
+        sum += Math.exp(-((double) k * k) / (2 * sigma * sigma));
+      }
+      return sum;
+    }
+    double scale = sigma * Math.sqrt(2);
+    return scale * Math.sqrt(Math.PI) / 2 * (erf((to + 0.5) / scale) - erf((from + 0.5) / scale));
+  }
+
+  /**
+   * Approximates the error function of a non-negative argument to within 1.5e-7, by formula
+   * 7.1.26 of Abramowitz and Stegun.
+   */
+  private static double erf(double x) {
+    double t = 1 / (1 + 0.3275911 * x);
+    double polynomial = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741
+        + t * (-1.453152027 + t * 1.061405429))));
+    return 1 - polynomial * Math.exp(-x * x);
+  }
+
+
+  /**
+   * Rounds three channel values to the nearest integer, clamps them to [0, 255] and packs them
+   * into a 0xRRGGBB value.
+   */
+  private static int packChannels(float red, float green, float blue) {
+    int r = Math.max(0, Math.min(255, Math.round(red)));
+    int g = Math.max(0, Math.min(255, Math.round(green)));
+    int b = Math.max(0, Math.min(255, Math.round(blue)));
+    return (r << 16) | (g << 8) | b;
   }
 
 
@@ -313,6 +511,20 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return A new image with enhanced sharpness.
    */
   public Image sharpen(Image image, int splitPercent) {
+    return sharpen(image, splitPercent, EdgeMode.ZERO);
+  }
+
+
+  /**
+   * Enhances the sharpness of the given image with a 5x5 kernel, reading the pixels beyond the
+   * border as the edge mode specifies.
+   *
+   * @param image        The input image to sharpen.
+   * @param splitPercent The percentage of the width to leave unchanged on the left.
+   * @param edgeMode     How pixels beyond the border of the image are read.
+   * @return A new image with enhanced sharpness.
+   */
+  public Image sharpen(Image image, int splitPercent, EdgeMode edgeMode) {
     double[][] kernel = {
         {-1.0 / 8.0, -1.0 / 8.0, -1.0 / 8.0, -1.0 / 8.0, -1.0 / 8.0},
         {-1.0 / 8.0, 1.0 / 4.0, 1.0 / 4.0, 1.0 / 4.0, -1.0 / 8.0},
@@ -320,7 +532,7 @@ public class ImageOperations implements ImageOperationsInterface {
         {-1.0 / 8.0, 1.0 / 4.0, 1.0 / 4.0, 1.0 / 4.0, -1.0 / 8.0},
         {-1.0 / 8.0, -1.0 / 8.0, -1.0 / 8.0, -1.0 / 8.0, -1.0 / 8.0}
     };
-    return applySplitFilter(image, kernel, splitPercent);
+    return applySplitFilter(image, kernel, splitPercent, edgeMode);
   }
 
 
@@ -333,36 +545,7 @@ public class ImageOperations implements ImageOperationsInterface {
    * @return A new image after applying the filter.
    */
   public Image applyFilter(Image image, double[][] kernel) {
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int[][][] filtered = new int[height][width][3];
-
-    int kernelHeight = kernel.length;
-    int kernelWidth = kernel[0].length;
-    int offset = kernelHeight / 2;
-
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        for (int c = 0; c < 3; c++) {
-          double newValue = 0.0;
-
-          for (int ki = 0; ki < kernelHeight; ki++) {
-            for (int kj = 0; kj < kernelWidth; kj++) {
-              int pixelRow = i + ki - offset;
-              int pixelCol = j + kj - offset;
-
-              if (pixelRow >= 0 && pixelRow < height && pixelCol >= 0 && pixelCol < width) {
-                newValue += image.getPixel(pixelRow, pixelCol)[c] * kernel[ki][kj];
-              }
-            }
-          }
-
-          filtered[i][j][c] = Math.max(0, Math.min(255, (int) Math.round(newValue)));
-        }
-      }
-    }
-
-    return new Image(width, height, filtered);
+    return applySplitFilter(image, kernel, 0);
   }
 
 
@@ -382,29 +565,7 @@ public class ImageOperations implements ImageOperationsInterface {
       throw new IllegalArgumentException("Input image cannot be null");
     }
 
-    int[][] histogram = new int[3][256];  // Arrays for R, G, B channel histograms
-
-    try {
-      // Process each pixel of the image
-      for (int i = 0; i < image.getHeight(); i++) {
-        for (int j = 0; j < image.getWidth(); j++) {
-          int[] rgb = image.getPixel(i, j);
-
-          // Check if RGB values are within valid range
-          if (rgb[0] < 0 || rgb[0] > 255 || rgb[1] < 0 || rgb[1] > 255 || rgb[2] < 0
-              || rgb[2] > 255) {
-            throw new IllegalArgumentException("RGB values must be in the range 0-255");
-          }
-
-          // Update histogram for each channel
-          histogram[0][rgb[0]]++;  // Red
-          histogram[1][rgb[1]]++;  // Green
-          histogram[2][rgb[2]]++;  // Blue
-        }
-      }
-    } catch (ArrayIndexOutOfBoundsException e) {
-      throw new IllegalArgumentException("Pixel values out of bounds", e);
-    }
+    int[][] histogram = calculateHistogram(image);  // Arrays for R, G, B channel histograms
 
     // Create 256x256 BufferedImage for histogram visualization
     BufferedImage histogramImage = new BufferedImage(256, 256,
@@ -462,24 +623,12 @@ public class ImageOperations implements ImageOperationsInterface {
       throw new IllegalArgumentException("Invalid image dimensions");
     }
 
-    int[][][] pixels = new int[height][width][3];  // Array to store pixel data
-
     try {
-      // Convert BufferedImage to custom pixel array
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          int rgb = bufferedImage.getRGB(j, i);
-          pixels[i][j][0] = (rgb >> 16) & 0xFF; // Red
-          pixels[i][j][1] = (rgb >> 8) & 0xFF;  // Green
-          pixels[i][j][2] = rgb & 0xFF;         // Blue
-        }
-      }
+      // Copy the BufferedImage pixels into the packed pixel storage
+      return Image.fromBufferedImage(bufferedImage);
     } catch (ArrayIndexOutOfBoundsException e) {
       throw new IllegalStateException("Error processing BufferedImage", e);
     }
-
-    // Return new Image with the pixel data
-    return new Image(width, height, pixels);
   }
 
 
@@ -510,37 +659,15 @@ public class ImageOperations implements ImageOperationsInterface {
     int[] peaks = findPeaks(histogram);
     int averagePeak = Arrays.stream(peaks).sum() / peaks.length;
 
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int splitColumn =
-        (width * splitPercent) / 100; // Determine the column to start color correction
-    int[][][] correctedPixels = new int[height][width][3];  // Array to store corrected pixels
-
-    // Process each pixel for color correction
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        try {
-          int[] rgb = image.getPixel(i, j);  // Get RGB values of the current pixel
-
-          // Apply color correction only to pixels after the splitColumn
-          if (j >= splitColumn) {
-            for (int k = 0; k < 3; k++) {
-              int offset = averagePeak - peaks[k];  // Calculate offset based on peak difference
-              correctedPixels[i][j][k] = Math.max(0,
-                  Math.min(255, rgb[k] + offset));  // Apply offset and clamp to valid range
-            }
-          } else {
-            correctedPixels[i][j] = rgb.clone();  // Copy original pixel if not affected
-          }
-        } catch (IndexOutOfBoundsException e) {
-          throw new IllegalArgumentException(
-              "Error accessing pixel data at (" + i + ", " + j + ").", e);
-        }
+    // Shift each channel so that its peak moves to the average peak
+    int[][] tables = new int[3][256];
+    for (int k = 0; k < 3; k++) {
+      int offset = averagePeak - peaks[k];  // Calculate offset based on peak difference
+      for (int v = 0; v < 256; v++) {
+        tables[k][v] = Math.max(0, Math.min(255, v + offset));  // Apply offset and clamp
       }
     }
-
-    // Return the new Image with corrected pixels
-    return new Image(width, height, correctedPixels);
+    return applyLookupTable(image, tables[0], tables[1], tables[2], splitPercent);
   }
 
 
@@ -559,20 +686,49 @@ public class ImageOperations implements ImageOperationsInterface {
 
     int[][] histogram = new int[3][256];  // Initialize histogram arrays for R, G, B channels
 
-    // Iterate over all pixels to compute histogram
-    for (int i = 0; i < image.getHeight(); i++) {
-      for (int j = 0; j < image.getWidth(); j++) {
-        try {
-          int[] rgb = image.getPixel(i, j);  // Get RGB values of the current pixel
-          histogram[0][rgb[0]]++;  // Increment count for red channel
-          histogram[1][rgb[1]]++;  // Increment count for green channel
-          histogram[2][rgb[2]]++;  // Increment count for blue channel
-        } catch (IndexOutOfBoundsException e) {
-          throw new IllegalArgumentException(
-              "Error accessing pixel data at (" + i + ", " + j + ").", e);
+    // The three channels of a grey image have the same histogram, counted from its levels
+    if (GreyPixelStorage.holdsLevels(image.getStorage())) {
+      GreyPixelStorage levels = (GreyPixelStorage) image.getStorage();
+      forEachRowBand(image.getHeight(), image.getWidth(), (fromRow, toRow) -> {
+        int[] bandHistogram = new int[256];
+        byte[] row = new byte[image.getWidth()];
+        for (int i = fromRow; i < toRow; i++) {
+          levels.readLevels(i, 0, row, 0, row.length);
+          for (byte level : row) {
+            bandHistogram[level & 0xFF]++;
+          }
+        }
+        synchronized (histogram) {
+          for (int v = 0; v < 256; v++) {
+            histogram[0][v] += bandHistogram[v];
+          }
+        }
+      });
+      System.arraycopy(histogram[0], 0, histogram[1], 0, 256);
+      System.arraycopy(histogram[0], 0, histogram[2], 0, 256);
+      return histogram;
+    }
+
+    // Count each band of rows separately, then merge the band counts into the histogram
+    forEachRowBand(image.getHeight(), image.getWidth(), (fromRow, toRow) -> {
+      int[][] bandHistogram = new int[3][256];
+      int[] row = new int[image.getWidth()];
+      for (int i = fromRow; i < toRow; i++) {
+        image.getRow(i, row, 0);
+        for (int rgb : row) {
+          bandHistogram[0][(rgb >> 16) & 0xFF]++;  // Increment count for red channel
+          bandHistogram[1][(rgb >> 8) & 0xFF]++;   // Increment count for green channel
+          bandHistogram[2][rgb & 0xFF]++;          // Increment count for blue channel
         }
       }
-    }
+      synchronized (histogram) {
+        for (int c = 0; c < 3; c++) {
+          for (int v = 0; v < 256; v++) {
+            histogram[c][v] += bandHistogram[c][v];
+          }
+        }
+      }
+    });
 
     // Return the computed histogram
     return histogram;
@@ -622,78 +778,77 @@ public class ImageOperations implements ImageOperationsInterface {
    */
 
   public Image levelsAdjust(Image image, int b, int m, int w, int splitPercent) {
-    // Validate input parameters
-    if (splitPercent < 0) {
-      throw new IllegalArgumentException("Split percent cannot be negative.");
-    }
-    if (splitPercent > 100) {
-      throw new IllegalArgumentException("Split percent cannot be greater than 100.");
-    }
-    if (b > w) {
-      throw new IllegalArgumentException("Black point cannot be greater than white point.");
-    }
+    return applyPointOperations(image,
+        Collections.singletonList(PointOperation.levels(b, m, w, splitPercent)));
+  }
 
-    int height = image.getHeight();
-    int width = image.getWidth();
-    int splitColumn =
-        (width * splitPercent) / 100;  // Determine column to start applying adjustment
-    int[][][] adjustedPixels = new int[height][width][3];  // Array to store adjusted pixel values
-
-    // Process each pixel and adjust levels if within the specified split range
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int[] rgb = image.getPixel(i, j);  // Get RGB values of the current pixel
-
-        if (j >= splitColumn) {
-          // Apply levels adjustment only to the specified portion of the image
-          for (int k = 0; k < 3; k++) {
-            adjustedPixels[i][j][k] = adjustLevel(rgb[k], b, m, w);  // Adjust each color channel
-          }
-        } else {
-          // Keep original pixels in the unadjusted part
-          adjustedPixels[i][j] = rgb.clone();
-        }
-      }
-    }
 
-    // Return the new Image with adjusted pixel values
-    return new Image(width, height, adjustedPixels);
+  /**
+   * Maps every channel value of the image through a 256-entry lookup table, one table per
+   * channel. Any tone operation that transforms each channel value independently (brightness,
+   * levels, color correction, curves, gamma) can be expressed this way, which replaces the
+   * per-pixel arithmetic with one array lookup per channel.
+   *
+   * @param image        The image to transform.
+   * @param redTable     The new value for each red value 0-255.
+   * @param greenTable   The new value for each green value 0-255.
+   * @param blueTable    The new value for each blue value 0-255.
+   * @param splitPercent The percentage of the width to leave unchanged on the left.
+   * @return A new Image with every channel value mapped through its table.
+   * @throws IllegalArgumentException if a table does not have 256 entries in the range 0-255.
+   */
+  public Image applyLookupTable(Image image, int[] redTable, int[] greenTable, int[] blueTable,
+                                int splitPercent) {
+    return applyPointOperations(image, Collections.singletonList(
+        PointOperation.lookupTable(redTable, greenTable, blueTable, splitPercent)));
   }
 
+
   /**
-   * Adjusts a single pixel's value based on the black, middle, and white points.
+   * Applies a sequence of point operations to the image in a single pass. Each row is copied once
+   * from the source and every operation is applied to it while it is still in cache, so none of
+   * the intermediate images is ever materialized. Consecutive lookup table operations with the
+   * same split are first combined into a single table.
    *
-   * @param value The original pixel value.
-   * @param b     The black point for the levels adjustment.
-   * @param m     The middle point for the levels adjustment.
-   * @param w     The white point for the levels adjustment.
-   * @return The adjusted pixel value.
+   * @param image      The image to transform.
+   * @param operations The operations to apply, in order.
+   * @return A new Image equal to applying each operation to the result of the previous one.
    */
-  private int adjustLevel(int value, int b, int m, int w) {
-    // Special case: if b, m, and w are all set to 255, return 255 (white) for all adjusted pixels
-    if (b == 255 && m == 255 && w == 255) {
-      return 255;
-    }
-
-    // Special case: if all levels are set to 0, return 0 for all adjusted pixels
-    if (b == 0 && m == 0 && w == 0) {
-      return 0;
+  public Image applyPointOperations(Image image, List<PointOperation> operations) {
+    List<PointOperation> stages = new ArrayList<>();
+    for (PointOperation operation : operations) {
+      PointOperation combined =
+          stages.isEmpty() ? null : stages.get(stages.size() - 1).combineWith(operation);
+      if (combined != null) {
+        stages.set(stages.size() - 1, combined);
+      } else {
+        stages.add(operation);
+      }
     }
 
-    // Calculate scaling factors based on black, middle, and white points
-    double a = (128.0 - 0) / (m - b);  // Scaling factor for the region between b and m
-    double b_coeff = (255.0 - 128) / (w - m);  // Scaling factor for the region between m and w
-
-    // Adjust the pixel value based on the defined thresholds (b, m, w)
-    if (value <= b) {
-      return 0;  // Below black point, set to 0
-    } else if (value <= m) {
-      return (int) (a * (value - b));  // Between black and middle, scale linearly
-    } else if (value <= w) {
-      return (int) (128 + b_coeff * (value - m));  // Between middle and white, scale linearly
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int[] splitColumns = new int[stages.size()];
+    // A result that can only hold grey pixels is stored with one byte per pixel
+    boolean grey = GreyPixelStorage.holdsLevels(image.getStorage());
+    for (int s = 0; s < stages.size(); s++) {
+      splitColumns[s] = stages.get(s).getSplitColumn(width);
+      grey = stages.get(s).producesGrey(width) || (grey && stages.get(s).preservesGrey());
     }
-
-    return 255;  // Above white point, set to 255
+    Image result = grey ? image.createCompatibleGrey(width, height)
+        : image.createCompatible(width, height);
+
+    forEachRowBand(height, width * Math.max(1, stages.size()), (fromRow, toRow) -> {
+      int[] row = new int[width];
+      for (int i = fromRow; i < toRow; i++) {
+        image.getRow(i, row, 0);
+        for (int s = 0; s < splitColumns.length; s++) {
+          stages.get(s).apply(row, splitColumns[s], width);
+        }
+        result.setRow(i, row, 0);
+      }
+    });
+    return result;
   }
 
 
@@ -708,66 +863,131 @@ public class ImageOperations implements ImageOperationsInterface {
    */
 
   public Image applySplitFilter(Image image, double[][] kernel, int splitPercent) {
+    return applySplitFilter(image, kernel, splitPercent, EdgeMode.ZERO);
+  }
+
+
+  /**
+   * Applies a filter to an image using a specified kernel, affecting only the portion of the image
+   * beyond the split point, and treating the pixels beyond the border as the edge mode specifies.
+   * Every source row is unpacked once into a padded row per channel whose padding already holds
+   * the border pixels, so the kernel loop runs over contiguous data without any bounds checks.
+   *
+   * @param image        The image to be processed.
+   * @param kernel       The filter kernel to be applied.
+   * @param splitPercent The percentage of the width to leave unchanged on the left.
+   * @param edgeMode     How pixels beyond the border of the image are read.
+   * @return A new Image with the filter applied.
+   */
+  public Image applySplitFilter(Image image, double[][] kernel, int splitPercent,
+                                EdgeMode edgeMode) {
     int height = image.getHeight();
     int width = image.getWidth();
-    int splitColumn = (width * splitPercent) / 100;  // Column to start applying filter
-    int[][][] filtered = new int[height][width][3];  // Array to store filtered pixel values
+    if (width == 0 || height == 0) {
+      return new Image(width, height);
+    }
+    int splitColumn =
+        Math.max(0, Math.min(width, (width * splitPercent) / 100));  // Column to start filtering
+    Image filtered = createResult(image, width, height);
 
     int kernelHeight = kernel.length;
     int kernelWidth = kernel[0].length;
-    int offset = kernelHeight / 2;  // Offset to handle kernel center position
-
-    // Iterate over each pixel in the image
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        if (j < splitColumn) {
-          // Keep original pixel values for the unfiltered portion
-          filtered[i][j] = image.getPixel(i, j);
-        } else {
-          // Apply filter to the pixels after the split point
-          for (int c = 0; c < 3; c++) {
-            double newValue = 0.0;
-
-            // Apply kernel to each pixel's RGB channel
-            for (int ki = 0; ki < kernelHeight; ki++) {
-              for (int kj = 0; kj < kernelWidth; kj++) {
-                int pixelRow = i + ki - offset;
-                int pixelCol = j + kj - offset;
-
-                // Check if the neighboring pixel is within bounds
-                if (pixelRow >= 0 && pixelRow < height && pixelCol >= 0 && pixelCol < width) {
-                  newValue += image.getPixel(pixelRow, pixelCol)[c] * kernel[ki][kj];
-                }
+    int rowOffset = kernelHeight / 2;  // Offsets to handle kernel center position
+    int colOffset = kernelWidth / 2;
+    int span = width - splitColumn;
+    int paddedWidth = span + kernelWidth - 1;  // Affected columns plus the kernel halo
+
+    // Iterate over each row in the image
+    forEachRowBand(height, width * kernelHeight * kernelWidth, (fromRow, toRow) -> {
+      // Ring of padded source rows covered by the kernel, indexed by virtual row
+      double[][][] window = new double[kernelHeight][3][paddedWidth];
+      int[] windowRows = new int[kernelHeight];
+      Arrays.fill(windowRows, Integer.MIN_VALUE);
+      int[] row = new int[width];
+      int[] filteredRow = new int[width];  // Packed filtered pixel values
+      double[][] sums = new double[3][span];
+
+      for (int i = fromRow; i < toRow; i++) {
+        // Keep original pixel values for the unfiltered portion, copied in bulk
+        image.getRow(i, 0, filteredRow, 0, splitColumn);
+
+        for (int ki = 0; ki < kernelHeight; ki++) {
+          int virtualRow = i + ki - rowOffset;
+          int slot = Math.floorMod(virtualRow, kernelHeight);
+          if (windowRows[slot] != virtualRow) {
+            loadPaddedRow(image, edgeMode.map(virtualRow, height), row, window[slot],
+                splitColumn - colOffset, edgeMode);
+            windowRows[slot] = virtualRow;
+          }
+        }
+
+        // Accumulate the taps in kernel order, a whole run of columns per tap
+        for (int c = 0; c < 3; c++) {
+          double[] sum = sums[c];
+          Arrays.fill(sum, 0.0);
+          for (int ki = 0; ki < kernelHeight; ki++) {
+            double[] source = window[Math.floorMod(i + ki - rowOffset, kernelHeight)][c];
+            for (int kj = 0; kj < kernelWidth; kj++) {
+              double weight = kernel[ki][kj];
+              for (int j = 0; j < span; j++) {
+                sum[j] += source[kj + j] * weight;
               }
             }
+          }
+        }
 
-            // Store the filtered value after clamping it to the valid range [0, 255]
-            filtered[i][j][c] = Math.max(0, Math.min(255, (int) Math.round(newValue)));
+        // Store the filtered values after clamping them to the valid range [0, 255]
+        for (int j = 0; j < span; j++) {
+          int packed = 0;
+          for (int c = 0; c < 3; c++) {
+            packed |= Math.max(0, Math.min(255, (int) Math.round(sums[c][j]))) << (16 - 8 * c);
           }
+          filteredRow[splitColumn + j] = packed;
         }
+        filtered.setRow(i, filteredRow, 0);
       }
-    }
+    });
 
     // Return the new Image with applied filter
-    return new Image(width, height, filtered);
+    return filtered;
   }
 
 
   /**
-   * Calculates the next power of two that is greater than or equal to the provided number.
+   * Unpacks the columns of one source row that a filter reads into a padded row per channel.
+   * Columns beyond the left and right borders hold the pixels that the edge mode reads there.
    *
-   * @param n The number to be processed.
-   * @return The smallest power of two greater than or equal to n.
+   * @param image     The source image.
+   * @param sourceRow The row to unpack, or -1 for a black row.
+   * @param row       A buffer of the width of the image.
+   * @param padded    The padded row of each channel to fill.
+   * @param firstCol  The column of the image, possibly negative, held by the first padded entry.
+   * @param edgeMode  How pixels beyond the border of the image are read.
    */
-
-  private int nextPowerOfTwo(int n) {
-    int power = 1;
-    while (power < n) {
-      power *= 2;
+  private void loadPaddedRow(Image image, int sourceRow, int[] row, double[][] padded,
+                             int firstCol, EdgeMode edgeMode) {
+    if (sourceRow < 0) {
+      for (double[] channel : padded) {
+        Arrays.fill(channel, 0.0);
+      }
+      return;
+    }
+    int width = row.length;
+    int loaded = Math.max(0, firstCol);  // Only the columns from here on are copied
+    image.getRow(sourceRow, loaded, row, loaded, width - loaded);
+    for (int p = 0; p < padded[0].length; p++) {
+      int col = firstCol + p;
+      if (col < 0 || col >= width) {
+        col = edgeMode.map(col, width);
+      }
+      int rgb = col < 0 ? 0 : col >= loaded ? row[col] : image.getRGB(sourceRow, col);
+      padded[0][p] = (rgb >> 16) & 0xFF;
+      padded[1][p] = (rgb >> 8) & 0xFF;
+      padded[2][p] = rgb & 0xFF;
     }
-    return power;
   }
 
+
   /**
    * Compresses an image using the Haar wavelet transform and applies a threshold to eliminate small
    * values.
@@ -778,176 +998,483 @@ public class ImageOperations implements ImageOperationsInterface {
    */
 
   public Image compress(Image image, double thresholdValue) {
-    int originalHeight = image.getHeight();
-    int originalWidth = image.getWidth();
-
-    // Pad the image dimensions to the next power of two for efficient Haar transform
-    int paddedHeight = nextPowerOfTwo(originalHeight);
-    int paddedWidth = nextPowerOfTwo(originalWidth);
+    int height = image.getHeight();
+    int width = image.getWidth();
+    if (width == 0 || height == 0) {
+      return createResult(image, width, height);
+    }
 
-    int[][][] compressedPixels = new int[originalHeight][originalWidth][3];
+    // One coefficient array and one scratch array of the same layout, reused for every channel
+    // and every level of the transform. Odd lengths are handled by the transform itself, so no
+    // padding is needed and the memory tracks the real pixel count.
+    double[] transformed = new double[width * height];
+    double[] scratch = new double[width * height];
+    byte[][] planes = new byte[3][width * height];
 
     // Process each color channel (R, G, B)
     for (int channel = 0; channel < 3; channel++) {
-      double[][] channelData = new double[paddedHeight][paddedWidth];
+      forwardTransformChannel(image, 16 - 8 * channel, transformed, scratch);
+      threshold(transformed, transformed, width, height, thresholdValue);
+      inverseTransformChannel(transformed, width, height, scratch, planes[channel]);
+    }
 
-      // Step 1: Copy pixel data to a padded double array for the transform
-      for (int i = 0; i < originalHeight; i++) {
-        for (int j = 0; j < originalWidth; j++) {
-          channelData[i][j] = image.getPixel(i, j)[channel];
+    return packPlanes(image, planes);
+  }
+
+  /**
+   * Compresses an image using the Haar wavelet transform, setting the given percentage of the
+   * coefficients, the ones of smallest magnitude over all channels, to zero.
+   *
+   * @param image      The image to be compressed.
+   * @param percentage The percentage of coefficients to set to zero, between 0 and 100.
+   * @return A new Image with the compressed pixel values.
+   * @throws IllegalArgumentException if the percentage is outside 0-100
+   */
+  public Image compressPercentage(Image image, double percentage) {
+    return createCompressionSession(image).compressPercentage(percentage);
+  }
+
+  /**
+   * Compresses an image like {@link #compress(Image, double)}, but transforms square tiles of the
+   * image independently instead of the whole image. The tiles and their channels are processed
+   * concurrently when the operations run in parallel, and the working memory grows with the
+   * number of tiles in flight rather than with the size of the image. An image that fits in a
+   * single tile gives exactly the result of {@link #compress(Image, double)}.
+   *
+   * @param image          The image to be compressed.
+   * @param thresholdValue The threshold below which coefficients are set to zero.
+   * @param tileSize       The width and height of the tiles.
+   * @return A new Image with the compressed pixel values.
+   * @throws IllegalArgumentException if the tile size is not positive
+   */
+  public Image compress(Image image, double thresholdValue, int tileSize) {
+    return compressTiles(image, tileSize, (coefficients, length) -> thresholdValue);
+  }
+
+  /**
+   * Compresses an image in independent square tiles, setting the given percentage of the
+   * coefficients of each channel of each tile, the ones of smallest magnitude, to zero. Since
+   * every tile selects its own cutoff, no coefficients of other tiles need to be held, see
+   * {@link #compress(Image, double, int)}.
+   *
+   * @param image      The image to be compressed.
+   * @param percentage The percentage of coefficients to set to zero, between 0 and 100.
+   * @param tileSize   The width and height of the tiles.
+   * @return A new Image with the compressed pixel values.
+   * @throws IllegalArgumentException if the percentage is outside 0-100 or the tile size is not
+   *                                  positive
+   */
+  public Image compressPercentage(Image image, double percentage, int tileSize) {
+    CompressionSession.checkPercentage(percentage);
+    return compressTiles(image, tileSize, (coefficients, length) ->
+        CompressionSession.thresholdForPercentage(new double[][]{coefficients}, length,
+            percentage));
+  }
+
+  /**
+   * Chooses the threshold for the coefficients of one channel of one tile.
+   */
+  private interface TileThreshold {
+
+    double choose(double[] coefficients, int length);
+  }
+
+  /**
+   * Compresses every channel of every tile of an image on its own. The channels of a tile are
+   * separate tasks, so each task writes its results to a plane of its own channel and the planes
+   * are packed into pixels at the end.
+   */
+  private Image compressTiles(Image image, int tileSize, TileThreshold tileThreshold) {
+    if (tileSize <= 0) {
+      throw new IllegalArgumentException("Tile size must be positive.");
+    }
+    int height = image.getHeight();
+    int width = image.getWidth();
+    int tilesAcross = (width + tileSize - 1) / tileSize;
+    int tilesDown = (height + tileSize - 1) / tileSize;
+    int tileWidth = Math.min(tileSize, width);
+    int tileArea = tileWidth * Math.min(tileSize, height);
+    byte[][] planes = new byte[3][width * height];
+
+    forEachRowBand(tilesAcross * tilesDown * 3, tileArea, (fromTask, toTask) -> {
+      // Every band reuses one set of tile buffers for all of its tasks
+      double[] data = new double[tileArea];
+      double[] scratch = new double[tileArea];
+      int[] row = new int[tileWidth];
+      for (int task = fromTask; task < toTask; task++) {
+        int tile = task / 3;
+        int channel = task % 3;
+        int shift = 16 - 8 * channel;
+        int top = (tile / tilesAcross) * tileSize;
+        int left = (tile % tilesAcross) * tileSize;
+        int rows = Math.min(tileSize, height - top);
+        int cols = Math.min(tileSize, width - left);
+
+        for (int i = 0; i < rows; i++) {
+          image.getRow(top + i, left, row, 0, cols);
+          for (int j = 0; j < cols; j++) {
+            data[i * cols + j] = (row[j] >> shift) & 0xFF;
+          }
+        }
+        for (int level = 0; level < 3; level++) {
+          haarTransformTile(data, rows, cols, scratch);
+        }
+        double thresholdValue = tileThreshold.choose(data, rows * cols);
+        for (int k = 0; k < rows * cols; k++) {
+          if (Math.abs(data[k]) < thresholdValue) {
+            data[k] = 0;
+          }
+        }
+        for (int level = 0; level < 3; level++) {
+          inverseHaarTransformTile(data, rows, cols, scratch);
         }
-      }
 
-      // Step 2: Apply multiple levels of Haar transform (compression step)
-      for (int level = 0; level < 3; level++) {  // Increase for more visible compression
-        channelData = haarTransform2D(channelData);
+        byte[] plane = planes[channel];
+        for (int i = 0; i < rows; i++) {
+          int base = (top + i) * width + left;
+          for (int j = 0; j < cols; j++) {
+            plane[base + j] = (byte) Math.max(0, Math.min(255,
+                (int) Math.round(data[i * cols + j])));
+          }
+        }
       }
+    });
 
-      // Step 3: Zero out values below the threshold
-      for (int i = 0; i < paddedHeight; i++) {
-        for (int j = 0; j < paddedWidth; j++) {
-          if (Math.abs(channelData[i][j]) < thresholdValue) {
-            channelData[i][j] = 0;
-          }
+    return packPlanes(image, planes);
+  }
+
+  /**
+   * Packs planes of red, green and blue values, one byte per pixel each, into the pixels of a
+   * result created like the results of other operations on the image, so that the result of
+   * compressing an image held outside the heap or in a file is held there too.
+   */
+  private Image packPlanes(Image image, byte[][] planes) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    Image result = createResult(image, width, height);
+    forEachRowBand(height, width, (fromRow, toRow) -> {
+      int[] row = new int[width];
+      for (int i = fromRow; i < toRow; i++) {
+        for (int j = 0, k = i * width; j < width; j++, k++) {
+          row[j] = ((planes[0][k] & 0xFF) << 16) | ((planes[1][k] & 0xFF) << 8)
+              | (planes[2][k] & 0xFF);
         }
+        result.setRow(i, row, 0);
       }
+    });
+    return result;
+  }
 
-      // Step 4: Apply inverse Haar transform to reconstruct the image
-      for (int level = 0; level < 3; level++) {
-        channelData = inverseHaarTransform2D(channelData);
+  /**
+   * Computes the forward Haar coefficients of every channel of an image once, so that the image
+   * can be compressed at any number of thresholds for the cost of a threshold pass and the
+   * inverse transform each.
+   *
+   * @param image The image to be compressed.
+   * @return A compression session holding the coefficients of the image.
+   */
+  public CompressionSession createCompressionSession(Image image) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    double[][] coefficients = new double[3][width * height];
+    double[] scratch = new double[width * height];
+    if (width > 0 && height > 0) {
+      for (int channel = 0; channel < 3; channel++) {
+        forwardTransformChannel(image, 16 - 8 * channel, coefficients[channel], scratch);
       }
+    }
+    return new CompressionSession(this, image, coefficients);
+  }
 
-      // Copy the processed pixel data back to the compressed image array
-      for (int i = 0; i < originalHeight; i++) {
-        for (int j = 0; j < originalWidth; j++) {
-          compressedPixels[i][j][channel] = Math.max(0,
-              Math.min(255, (int) Math.round(channelData[i][j])));
+  /**
+   * Reconstructs an image from the forward Haar coefficients of the channels of the given image
+   * after zeroing the coefficients below the threshold. The coefficients are left unchanged.
+   */
+  Image reconstruct(Image image, double[][] coefficients, double thresholdValue) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+    if (width == 0 || height == 0) {
+      return createResult(image, width, height);
+    }
+
+    double[] transformed = new double[width * height];
+    double[] scratch = new double[width * height];
+    byte[][] planes = new byte[3][width * height];
+    for (int channel = 0; channel < 3; channel++) {
+      threshold(coefficients[channel], transformed, width, height, thresholdValue);
+      inverseTransformChannel(transformed, width, height, scratch, planes[channel]);
+    }
+    return packPlanes(image, planes);
+  }
+
+  /**
+   * Copies one channel of an image into a coefficient array and applies the levels of the
+   * forward Haar transform to it.
+   */
+  private void forwardTransformChannel(Image image, int shift, double[] transformed,
+                                       double[] scratch) {
+    int height = image.getHeight();
+    int width = image.getWidth();
+
+    // Step 1: Copy pixel data to the coefficient array for the transform
+    forEachRowBand(height, width, (fromRow, toRow) -> {
+      int[] row = new int[width];
+      for (int i = fromRow; i < toRow; i++) {
+        image.getRow(i, row, 0);
+        int base = i * width;
+        for (int j = 0; j < width; j++) {
+          transformed[base + j] = (row[j] >> shift) & 0xFF;
         }
       }
-    }
+    });
 
-    return new Image(originalWidth, originalHeight, compressedPixels);
+    // Step 2: Apply multiple levels of Haar transform (compression step)
+    for (int level = 0; level < 3; level++) {  // Increase for more visible compression
+      haarTransform2D(transformed, height, width, scratch);
+    }
   }
 
   /**
-   * Performs a 2D Haar wavelet transform on the input 2D array.
-   *
-   * @param input The 2D array representing the image data to be transformed.
-   * @return A new 2D array with the Haar transform applied.
+   * Copies the coefficients into the target array, zeroing the values below the threshold. The
+   * source and target may be the same array.
    */
-  private double[][] haarTransform2D(double[][] input) {
-    int rows = input.length;
-    int cols = input[0].length;
-    double[][] temp = new double[rows][cols];
+  private void threshold(double[] source, double[] target, int width, int height,
+                         double thresholdValue) {
+    forEachRowBand(height, width, (fromRow, toRow) -> {
+      for (int k = fromRow * width; k < toRow * width; k++) {
+        double value = source[k];
+        target[k] = Math.abs(value) < thresholdValue ? 0 : value;
+      }
+    });
+  }
 
-    // Step 1: Apply Haar transform on rows
-    for (int i = 0; i < rows; i++) {
-      temp[i] = haarTransform1D(input[i]);
+  /**
+   * Applies the levels of the inverse Haar transform to the coefficients of one channel and
+   * stores the rounded and clamped values in the plane of that channel.
+   */
+  private void inverseTransformChannel(double[] transformed, int width, int height,
+                                       double[] scratch, byte[] plane) {
+    // Apply inverse Haar transform to reconstruct the image
+    for (int level = 0; level < 3; level++) {
+      inverseHaarTransform2D(transformed, height, width, scratch);
     }
 
+    // Copy the processed pixel data back to the plane of the channel
+    forEachRowBand(height, width, (fromRow, toRow) -> {
+      for (int k = fromRow * width; k < toRow * width; k++) {
+        plane[k] = (byte) Math.max(0, Math.min(255, (int) Math.round(transformed[k])));
+      }
+    });
+  }
+
+  /**
+   * Performs a 2D Haar wavelet transform in place: a full 1D transform of every row followed by a
+   * full 1D transform of every column. The column pass runs along rows over bands of columns, so
+   * it reads memory sequentially instead of striding down each column.
+   *
+   * @param data    The row-major coefficients to transform.
+   * @param rows    The number of rows.
+   * @param cols    The number of columns.
+   * @param scratch A scratch array with at least {@code rows * cols} entries.
+   */
+  private void haarTransform2D(double[] data, int rows, int cols, double[] scratch) {
+    // Step 1: Apply Haar transform on rows, each row using its own part of the scratch array
+    forEachRowBand(rows, cols, (fromRow, toRow) -> {
+      for (int i = fromRow; i < toRow; i++) {
+        haarTransform1D(data, i * cols, cols, scratch);
+      }
+    });
+
     // Step 2: Apply Haar transform on columns
-    for (int j = 0; j < cols; j++) {
-      double[] column = new double[rows];
-      for (int i = 0; i < rows; i++) {
-        column[i] = temp[i][j];
+    forEachRowBand(cols, rows, (fromCol, toCol) ->
+        haarTransformColumns(data, rows, cols, fromCol, toCol, scratch));
+  }
+
+  /**
+   * Performs a full 1D Haar wavelet transform of the columns {@code [fromCol, toCol)} in place,
+   * using the same part of the scratch array.
+   */
+  private static void haarTransformColumns(double[] data, int rows, int cols, int fromCol,
+                                           int toCol, double[] scratch) {
+    int width = toCol - fromCol;
+    for (int n = rows; n > 1; n = (n + 1) / 2) {
+      int half = n / 2;
+      int approximations = n - half;
+      for (int i = 0; i < half; i++) {
+        int even = 2 * i * cols;
+        int odd = even + cols;
+        int average = i * cols;
+        int difference = (approximations + i) * cols;
+        for (int j = fromCol; j < toCol; j++) {
+          scratch[average + j] = (data[even + j] + data[odd + j]) / SQRT_2;
+          scratch[difference + j] = (data[even + j] - data[odd + j]) / SQRT_2;
+        }
       }
-      column = haarTransform1D(column);
-      for (int i = 0; i < rows; i++) {
-        temp[i][j] = column[i];
+      if (n % 2 == 1) {
+        // The unpaired last row passes through unchanged as the last approximation
+        System.arraycopy(data, (n - 1) * cols + fromCol, scratch, half * cols + fromCol, width);
+      }
+      for (int i = 0; i < n; i++) {
+        System.arraycopy(scratch, i * cols + fromCol, data, i * cols + fromCol, width);
       }
     }
-
-    return temp;
   }
 
   /**
-   * Performs the inverse of a 2D Haar wavelet transform on the input 2D array.
+   * Performs the inverse of a 2D Haar wavelet transform in place: a full inverse 1D transform of
+   * every column followed by one of every row.
    *
-   * @param input The 2D array representing the image data to be inverse-transformed.
-   * @return A new 2D array with the inverse Haar transform applied.
+   * @param data    The row-major coefficients to inverse-transform.
+   * @param rows    The number of rows.
+   * @param cols    The number of columns.
+   * @param scratch A scratch array with at least {@code rows * cols} entries.
    */
-  private double[][] inverseHaarTransform2D(double[][] input) {
-    int rows = input.length;
-    int cols = input[0].length;
-    double[][] temp = new double[rows][cols];
+  private void inverseHaarTransform2D(double[] data, int rows, int cols, double[] scratch) {
+    int[] rowLevels = haarLevels(rows);
 
     // Step 1: Inverse Haar transform on columns
-    for (int j = 0; j < cols; j++) {
-      double[] column = new double[rows];
-      for (int i = 0; i < rows; i++) {
-        column[i] = input[i][j];
+    forEachRowBand(cols, rows, (fromCol, toCol) ->
+        inverseHaarTransformColumns(data, cols, rowLevels, fromCol, toCol, scratch));
+
+    // Step 2: Inverse Haar transform on rows
+    int[] colLevels = haarLevels(cols);
+    forEachRowBand(rows, cols, (fromRow, toRow) -> {
+      for (int i = fromRow; i < toRow; i++) {
+        inverseHaarTransform1D(data, i * cols, colLevels, scratch);
+      }
+    });
+  }
+
+  /**
+   * Performs the inverse of a full 1D Haar wavelet transform of the columns
+   * {@code [fromCol, toCol)} in place, using the same part of the scratch array.
+   */
+  private static void inverseHaarTransformColumns(double[] data, int cols, int[] rowLevels,
+                                                  int fromCol, int toCol, double[] scratch) {
+    int width = toCol - fromCol;
+    for (int level = rowLevels.length - 1; level >= 0; level--) {
+      int n = rowLevels[level];
+      int half = n / 2;
+      int approximations = n - half;
+      for (int i = 0; i < half; i++) {
+        int average = i * cols;
+        int difference = (approximations + i) * cols;
+        int even = 2 * i * cols;
+        int odd = even + cols;
+        for (int j = fromCol; j < toCol; j++) {
+          scratch[even + j] = (data[average + j] + data[difference + j]) / SQRT_2;
+          scratch[odd + j] = (data[average + j] - data[difference + j]) / SQRT_2;
+        }
+      }
+      if (n % 2 == 1) {
+        System.arraycopy(data, half * cols + fromCol, scratch, (n - 1) * cols + fromCol, width);
       }
-      column = inverseHaarTransform1D(column);
-      for (int i = 0; i < rows; i++) {
-        temp[i][j] = column[i];
+      for (int i = 0; i < n; i++) {
+        System.arraycopy(scratch, i * cols + fromCol, data, i * cols + fromCol, width);
       }
     }
+  }
 
-    // Step 2: Inverse Haar transform on rows
+  /**
+   * Performs the same transform as {@link #haarTransform2D} on a single tile, on the calling
+   * thread.
+   */
+  private static void haarTransformTile(double[] data, int rows, int cols, double[] scratch) {
     for (int i = 0; i < rows; i++) {
-      temp[i] = inverseHaarTransform1D(temp[i]);
+      haarTransform1D(data, i * cols, cols, scratch);
     }
+    haarTransformColumns(data, rows, cols, 0, cols, scratch);
+  }
 
-    return temp;
+  /**
+   * Performs the same transform as {@link #inverseHaarTransform2D} on a single tile, on the
+   * calling thread.
+   */
+  private static void inverseHaarTransformTile(double[] data, int rows, int cols,
+                                               double[] scratch) {
+    inverseHaarTransformColumns(data, cols, haarLevels(rows), 0, cols, scratch);
+    int[] colLevels = haarLevels(cols);
+    for (int i = 0; i < rows; i++) {
+      inverseHaarTransform1D(data, i * cols, colLevels, scratch);
+    }
   }
 
   /**
-   * Performs the 1D Haar wavelet transform on an input array.
+   * Returns the lengths that successive levels of a full Haar decomposition of the given length
+   * operate on, from the longest down to the last length greater than one. Each level halves the
+   * length, rounding up when it is odd.
    *
-   * @param input The 1D array representing pixel data for a row or column.
-   * @return A new 1D array with the Haar transform applied.
+   * @param length The number of values to decompose.
+   * @return The length of each level, in the order the forward transform applies them.
    */
-  private double[] haarTransform1D(double[] input) {
-    int n = input.length;  // Get the length of the input array
-    double[] output = new double[n];  // Create an output array of the same size as the input
-    System.arraycopy(input, 0, output, 0, n);
+  private static int[] haarLevels(int length) {
+    int count = 0;
+    for (int n = length; n > 1; n = (n + 1) / 2) {
+      count++;
+    }
+    int[] levels = new int[count];
+    int n = length;
+    for (int level = 0; level < count; level++) {
+      levels[level] = n;
+      n = (n + 1) / 2;
+    }
+    return levels;
+  }
 
+  /**
+   * Performs the full 1D Haar wavelet transform of a row in place. Each level stores the scaled
+   * sums of the pairs first, followed by an unpaired last value if the length is odd, and then the
+   * scaled differences. The part of the scratch array at the same offset holds intermediate
+   * values.
+   *
+   * @param data    The array holding the row.
+   * @param offset  The position of the first value of the row.
+   * @param length  The number of values in the row.
+   * @param scratch A scratch array of the same layout as {@code data}.
+   */
+  private static void haarTransform1D(double[] data, int offset, int length, double[] scratch) {
     // Perform the Haar wavelet transform until the array is reduced to a single element
-    while (n > 1) {
-      double[] temp = new double[n];  // Temporary array to hold the transformed values
-
-      // Perform the Haar transformation on pairs of elements
-      for (int i = 0; i < n / 2; i++) {
-        // Calculate the average (sum) of the pair of elements
-        // store in the first half of temp array
-        temp[i] = (output[2 * i] + output[2 * i + 1]) / Math.sqrt(2);
-
-        // Calculate the difference (subtraction) of the pair of elements
-        // store in the second half of the temporary array
-        temp[n / 2 + i] = (output[2 * i] - output[2 * i + 1]) / Math.sqrt(2);
+    for (int n = length; n > 1; n = (n + 1) / 2) {
+      int half = n / 2;
+      int approximations = n - half;
+      for (int i = 0; i < half; i++) {
+        double even = data[offset + 2 * i];
+        double odd = data[offset + 2 * i + 1];
+        scratch[offset + i] = (even + odd) / SQRT_2;
+        scratch[offset + approximations + i] = (even - odd) / SQRT_2;
       }
-
-      // Copy the transformed temporary array back to the output array for the next iteration
-      System.arraycopy(temp, 0, output, 0, n);
-      n /= 2;
+      if (n % 2 == 1) {
+        scratch[offset + half] = data[offset + n - 1];
+      }
+      System.arraycopy(scratch, offset, data, offset, n);
     }
-
-    // Return the transformed array after reducing it to the final state
-    return output;
   }
 
   /**
-   * Performs the inverse of the 1D Haar wavelet transform on an input array.
+   * Performs the inverse of the full 1D Haar wavelet transform of a row in place.
    *
-   * @param input The 1D array representing transformed pixel data for a row or column.
-   * @return A new 1D array with the inverse Haar transform applied.
+   * @param data    The array holding the transformed row.
+   * @param offset  The position of the first value of the row.
+   * @param levels  The level lengths of the row, as returned by {@link #haarLevels}.
+   * @param scratch A scratch array of the same layout as {@code data}.
    */
-  private double[] inverseHaarTransform1D(double[] input) {
-    int n = 1;
-    double[] output = new double[input.length];
-    System.arraycopy(input, 0, output, 0, input.length);
-
-    while (n < output.length) {
-      double[] temp = new double[2 * n];
-      for (int i = 0; i < n; i++) {
-        temp[2 * i] = (output[i] + output[n + i]) / Math.sqrt(2);
-        temp[2 * i + 1] = (output[i] - output[n + i]) / Math.sqrt(2);
+  private static void inverseHaarTransform1D(double[] data, int offset, int[] levels,
+                                             double[] scratch) {
+    for (int level = levels.length - 1; level >= 0; level--) {
+      int n = levels[level];
+      int half = n / 2;
+      int approximations = n - half;
+      for (int i = 0; i < half; i++) {
+        double average = data[offset + i];
+        double difference = data[offset + approximations + i];
+        scratch[offset + 2 * i] = (average + difference) / SQRT_2;
+        scratch[offset + 2 * i + 1] = (average - difference) / SQRT_2;
+      }
+      if (n % 2 == 1) {
+        scratch[offset + n - 1] = data[offset + half];
       }
-      System.arraycopy(temp, 0, output, 0, 2 * n);
-      n *= 2;
+      System.arraycopy(scratch, offset, data, offset, n);
     }
-
-    return output;
   }
 
   /**
@@ -956,36 +1483,52 @@ public class ImageOperations implements ImageOperationsInterface {
   public Image downscale(Image image, int newWidth, int newHeight) {
     int oldWidth = image.getWidth();
     int oldHeight = image.getHeight();
-    int[][][] newPixels = new int[newHeight][newWidth][3];
+    Image scaled = createResult(image, newWidth, newHeight);
 
-    for (int y = 0; y < newHeight; y++) {
-      for (int x = 0; x < newWidth; x++) {
-        double xPrime = x * (double) oldWidth / newWidth;
+    forEachRowBand(newHeight, newWidth, (fromRow, toRow) -> {
+      int[] topRow = new int[oldWidth];
+      int[] bottomRow = new int[oldWidth];
+      int[] scaledRow = new int[newWidth];
+      for (int y = fromRow; y < toRow; y++) {
         double yPrime = y * (double) oldHeight / newHeight;
-
-        int x1 = (int) Math.floor(xPrime);
-        int x2 = (int) Math.ceil(xPrime);
         int y1 = (int) Math.floor(yPrime);
         int y2 = (int) Math.ceil(yPrime);
-
-        if (x2 >= oldWidth) {
-          x2 = oldWidth - 1;
-        }
         if (y2 >= oldHeight) {
           y2 = oldHeight - 1;
         }
+        image.getRow(y1, topRow, 0);
+        image.getRow(y2, bottomRow, 0);
 
-        for (int c = 0; c < 3; c++) {
-          double fQ1 =
-              (x2 - xPrime) * image.getPixel(y1, x1)[c] + (xPrime - x1) * image.getPixel(y1, x2)[c];
-          double fQ2 =
-              (x2 - xPrime) * image.getPixel(y2, x1)[c] + (xPrime - x1) * image.getPixel(y2, x2)[c];
-          newPixels[y][x][c] = (int) ((y2 - yPrime) * fQ1 + (yPrime - y1) * fQ2);
+        for (int x = 0; x < newWidth; x++) {
+          double xPrime = x * (double) oldWidth / newWidth;
+
+          int x1 = (int) Math.floor(xPrime);
+          int x2 = (int) Math.ceil(xPrime);
+
+          if (x2 >= oldWidth) {
+            x2 = oldWidth - 1;
+          }
+
+          int q11 = topRow[x1];
+          int q12 = topRow[x2];
+          int q21 = bottomRow[x1];
+          int q22 = bottomRow[x2];
+          int packed = 0;
+          for (int c = 0; c < 3; c++) {
+            int shift = 16 - 8 * c;
+            double fQ1 = (x2 - xPrime) * ((q11 >> shift) & 0xFF)
+                + (xPrime - x1) * ((q12 >> shift) & 0xFF);
+            double fQ2 = (x2 - xPrime) * ((q21 >> shift) & 0xFF)
+                + (xPrime - x1) * ((q22 >> shift) & 0xFF);
+            packed |= (int) ((y2 - yPrime) * fQ1 + (yPrime - y1) * fQ2) << shift;
+          }
+          scaledRow[x] = packed;
         }
+        scaled.setRow(y, scaledRow, 0);
       }
-    }
+    });
 
-    return new Image(newWidth, newHeight, newPixels);
+    return scaled;
   }
 
 
@@ -1,5 +1,7 @@
 package model;
 
+import java.util.List;
+
 /**
  * This interface provides various image processing operations for the {@link Image} class.
  */
@@ -55,6 +57,19 @@ public interface ImageOperationsInterface {
    */
   Image combineRGB(Image redImage, Image greenImage, Image blueImage);
 
+  /**
+   * Crops the given image to a rectangular region.
+   *
+   * @param image  the image to crop
+   * @param x      the left column of the region
+   * @param y      the top row of the region
+   * @param width  the width of the region
+   * @param height the height of the region
+   * @return a new image holding the region
+   * @throws IllegalArgumentException if the region is empty or does not lie inside the image
+   */
+  Image crop(Image image, int x, int y, int width, int height);
+
   /**
    * Gets the maximum value from each pixel's RGB components.
    *
@@ -115,6 +130,18 @@ public interface ImageOperationsInterface {
    */
   Image blur(Image image, int splitPercent);
 
+  /**
+   * Applies a Gaussian blur with the given standard deviation to the specified image, as a
+   * horizontal pass followed by a vertical pass.
+   *
+   * @param image        The input image to blur.
+   * @param sigma        the standard deviation of the Gaussian, in pixels
+   * @param splitPercent the percentage of the width to leave unchanged on the left
+   * @return A new image that has been blurred.
+   * @throws IllegalArgumentException if sigma is not a positive number
+   */
+  Image blur(Image image, double sigma, int splitPercent);
+
   /**
    * Enhances the sharpness of the given image.
    *
@@ -124,6 +151,28 @@ public interface ImageOperationsInterface {
    */
   Image sharpen(Image image, int splitPercent);
 
+  /**
+   * Applies a 3x3 Gaussian blur to the specified image, reading the pixels beyond the border as
+   * the edge mode specifies.
+   *
+   * @param image        The input image to blur.
+   * @param splitPercent the percentage of the width to leave unchanged on the left
+   * @param edgeMode     how pixels beyond the border of the image are read
+   * @return A new image that has been blurred.
+   */
+  Image blur(Image image, int splitPercent, EdgeMode edgeMode);
+
+  /**
+   * Enhances the sharpness of the given image, reading the pixels beyond the border as the edge
+   * mode specifies.
+   *
+   * @param image        The input image to sharpen.
+   * @param splitPercent the percentage of the width to leave unchanged on the left
+   * @param edgeMode     how pixels beyond the border of the image are read
+   * @return A new image with enhanced sharpness.
+   */
+  Image sharpen(Image image, int splitPercent, EdgeMode edgeMode);
+
   /**
    * Applies a convolution filter to the input image using the specified kernel.
    *
@@ -165,6 +214,31 @@ public interface ImageOperationsInterface {
    */
   Image levelsAdjust(Image image, int b, int m, int w, int splitPercent);
 
+  /**
+   * Maps every channel value of the image through a 256-entry lookup table, one table per
+   * channel.
+   *
+   * @param image        The image to transform.
+   * @param redTable     The new value for each red value 0-255.
+   * @param greenTable   The new value for each green value 0-255.
+   * @param blueTable    The new value for each blue value 0-255.
+   * @param splitPercent The percentage of the width to leave unchanged on the left.
+   * @return A new Image with every channel value mapped through its table.
+   * @throws IllegalArgumentException if a table does not have 256 entries in the range 0-255.
+   */
+  Image applyLookupTable(Image image, int[] redTable, int[] greenTable, int[] blueTable,
+                         int splitPercent);
+
+  /**
+   * Applies a sequence of point operations to the image in a single pass, without materializing
+   * any of the intermediate images.
+   *
+   * @param image      The image to transform.
+   * @param operations The operations to apply, in order.
+   * @return A new Image equal to applying each operation to the result of the previous one.
+   */
+  Image applyPointOperations(Image image, List<PointOperation> operations);
+
   /**
    * Applies a filter to an image using a specified kernel, affecting only the portion of the image
    * beyond the split point.
@@ -176,6 +250,18 @@ public interface ImageOperationsInterface {
    */
   Image applySplitFilter(Image image, double[][] kernel, int splitPercent);
 
+  /**
+   * Applies a filter to an image using a specified kernel, affecting only the portion of the image
+   * beyond the split point, and treating the pixels beyond the border as the edge mode specifies.
+   *
+   * @param image        The image to be processed.
+   * @param kernel       The filter kernel to be applied.
+   * @param splitPercent The percentage of the width to leave unchanged on the left.
+   * @param edgeMode     How pixels beyond the border of the image are read.
+   * @return A new Image with the filter applied.
+   */
+  Image applySplitFilter(Image image, double[][] kernel, int splitPercent, EdgeMode edgeMode);
+
   /**
    * Compresses an image using the Haar wavelet transform and applies a threshold to eliminate small
    * values.
@@ -185,4 +271,50 @@ public interface ImageOperationsInterface {
    * @return A new Image with the compressed pixel values.
    */
   Image compress(Image image, double thresholdValue);
+
+  /**
+   * Compresses an image using the Haar wavelet transform, setting the given percentage of the
+   * coefficients, the ones of smallest magnitude, to zero.
+   *
+   * @param image      The image to be compressed.
+   * @param percentage The percentage of coefficients to set to zero, between 0 and 100.
+   * @return A new Image with the compressed pixel values.
+   * @throws IllegalArgumentException if the percentage is outside 0-100
+   */
+  Image compressPercentage(Image image, double percentage);
+
+  /**
+   * Compresses an image using the Haar wavelet transform like {@link #compress(Image, double)},
+   * but transforms square tiles of the image independently, so that tiles and channels can be
+   * processed concurrently with working memory bounded by the tiles in flight.
+   *
+   * @param image          The image to be compressed.
+   * @param thresholdValue The threshold below which coefficients are set to zero.
+   * @param tileSize       The width and height of the tiles.
+   * @return A new Image with the compressed pixel values.
+   * @throws IllegalArgumentException if the tile size is not positive
+   */
+  Image compress(Image image, double thresholdValue, int tileSize);
+
+  /**
+   * Compresses an image in independent square tiles, setting the given percentage of the
+   * coefficients of each channel of each tile, the ones of smallest magnitude, to zero.
+   *
+   * @param image      The image to be compressed.
+   * @param percentage The percentage of coefficients to set to zero, between 0 and 100.
+   * @param tileSize   The width and height of the tiles.
+   * @return A new Image with the compressed pixel values.
+   * @throws IllegalArgumentException if the percentage is outside 0-100 or the tile size is not
+   *                                  positive
+   */
+  Image compressPercentage(Image image, double percentage, int tileSize);
+
+  /**
+   * Computes the forward Haar coefficients of an image once, so that it can be compressed at
+   * several thresholds without transforming it again.
+   *
+   * @param image The image to be compressed.
+   * @return A compression session holding the coefficients of the image.
+   */
+  CompressionSession createCompressionSession(Image image);
 }
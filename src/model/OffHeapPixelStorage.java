@@ -0,0 +1,171 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Objects;
+
+/**
+ * Stores pixels outside the Java heap, in direct buffers of whole rows with one packed 0xRRGGBB
+ * value per pixel. The pixel data therefore adds nothing to the heap that the garbage collector
+ * has to scan or copy, and a large image is not a single huge array. The memory is released by
+ * {@link #close()}, after which the storage must no longer be used; it must not be closed while
+ * another thread is still reading or writing it.
+ */
+public class OffHeapPixelStorage implements PixelStorageInterface, AutoCloseable {
+
+  /**
+   * The number of pixels from which the results of operations on an image held outside the heap
+   * are held outside the heap too. Smaller results are held on the heap, where they are cheaper to
+   * create and need not be released.
+   */
+  public static final long MIN_PIXELS = 1 << 22;
+
+  // The largest number of bytes held in one direct buffer
+  private static final int CHUNK_BYTES = 1 << 30;
+
+  private final int width;
+  private final int height;
+  private final int rowsPerChunk;
+  private ByteBuffer[] buffers;
+  private IntBuffer[] chunks;
+
+  /**
+   * Constructs a black pixel grid of the specified size outside the heap.
+   *
+   * @param width  the width of the grid
+   * @param height the height of the grid
+   * @throws IllegalArgumentException if a dimension is negative or the grid is too large
+   */
+  public OffHeapPixelStorage(int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative.");
+    }
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image is too large: " + width + "x" + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.rowsPerChunk = Math.max(1, CHUNK_BYTES / 4 / Math.max(1, width));
+    int count = (height + rowsPerChunk - 1) / rowsPerChunk;
+    this.buffers = new ByteBuffer[count];
+    this.chunks = new IntBuffer[count];
+    for (int k = 0; k < count; k++) {
+      int rows = Math.min(rowsPerChunk, height - k * rowsPerChunk);
+      buffers[k] = ByteBuffer.allocateDirect(rows * width * 4).order(ByteOrder.nativeOrder());
+      chunks[k] = buffers[k].asIntBuffer();
+    }
+  }
+
+  /**
+   * Creates a storage outside the heap that holds a copy of the pixels of an image.
+   *
+   * @param image the image to copy
+   * @return the new storage
+   */
+  public static OffHeapPixelStorage copyOf(ImageInterface image) {
+    OffHeapPixelStorage storage = new OffHeapPixelStorage(image.getWidth(), image.getHeight());
+    int[] row = new int[image.getWidth()];
+    for (int i = 0; i < image.getHeight(); i++) {
+      image.getRow(i, row, 0);
+      storage.writeRow(i, 0, row, 0, row.length);
+    }
+    return storage;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getRGB(int row, int col) {
+    Objects.checkIndex(col, width);
+    return chunk(row).get((row % rowsPerChunk) * width + col);
+  }
+
+  @Override
+  public void setRGB(int row, int col, int rgb) {
+    Objects.checkIndex(col, width);
+    chunk(row).put((row % rowsPerChunk) * width + col, rgb & 0xFFFFFF);
+  }
+
+  @Override
+  public void readRow(int row, int col, int[] dst, int offset, int length) {
+    Objects.checkFromIndexSize(col, length, width);
+    // A duplicate has its own position, so that rows can be read from several threads at once
+    IntBuffer view = chunk(row).duplicate();
+    view.position((row % rowsPerChunk) * width + col);
+    view.get(dst, offset, length);
+  }
+
+  @Override
+  public void writeRow(int row, int col, int[] src, int offset, int length) {
+    Objects.checkFromIndexSize(col, length, width);
+    IntBuffer view = chunk(row).duplicate();
+    view.position((row % rowsPerChunk) * width + col);
+    view.put(src, offset, length);
+  }
+
+  /**
+   * Creates a storage outside the heap for a result of at least {@link #MIN_PIXELS} pixels, so
+   * that operations on a large image held outside the heap write their results there directly.
+   */
+  @Override
+  public PixelStorageInterface createCompatible(int width, int height) {
+    if ((long) width * height < MIN_PIXELS) {
+      return new PackedPixelStorage(width, height);
+    }
+    return new OffHeapPixelStorage(width, height);
+  }
+
+  /**
+   * Creates a storage outside the heap for a large grey result like {@link #createCompatible},
+   * trading the single byte per pixel of a grey storage for keeping the result off the heap.
+   */
+  @Override
+  public PixelStorageInterface createCompatibleGrey(int width, int height) {
+    if ((long) width * height < MIN_PIXELS) {
+      return new GreyPixelStorage(width, height);
+    }
+    return new OffHeapPixelStorage(width, height);
+  }
+
+  /**
+   * Releases the memory of the pixels. Closing the storage again has no effect.
+   */
+  @Override
+  public void close() {
+    if (buffers == null) {
+      return;
+    }
+    ByteBuffer[] released = buffers;
+    buffers = null;
+    chunks = null;
+    for (ByteBuffer buffer : released) {
+      DirectBuffers.free(buffer);
+    }
+  }
+
+  /**
+   * Returns whether the memory of the pixels has been released.
+   *
+   * @return true if the storage has been closed
+   */
+  public boolean isClosed() {
+    return buffers == null;
+  }
+
+  private IntBuffer chunk(int row) {
+    IntBuffer[] current = chunks;
+    if (current == null) {
+      throw new IllegalStateException("The pixel storage has been closed.");
+    }
+    return current[Objects.checkIndex(row, height) / rowsPerChunk];
+  }
+}
@@ -0,0 +1,570 @@
+package model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes images in the plain PPM format (P3), the binary PPM format (P6) and the
+ * binary greyscale format (P5). The header and plain samples are parsed byte by byte from a
+ * buffered channel, without tokenizing them into strings, and the samples are packed straight
+ * into the pixel array of the new image. Comments may appear wherever whitespace may in the
+ * header and in plain samples. The binary raster of a file is mapped into memory instead of being
+ * copied through a stream. Written samples are copied from precomputed digit strings or as bytes
+ * into a large buffer that is written in blocks.
+ */
+public final class PPMCodec {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // The number of pixels of a binary raster that are mapped into memory at once
+  private static final int MAP_PIXELS = 1 << 24;
+
+  // The decimal digits of every sample value, so that writing a sample is a short array copy
+  private static final byte[][] DIGITS = new byte[256][];
+
+  static {
+    for (int v = 0; v < 256; v++) {
+      DIGITS[v] = Integer.toString(v).getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  private PPMCodec() {
+  }
+
+  /**
+   * Reads a plain, binary or greyscale PPM image from a file.
+   *
+   * @param path the file to read
+   * @return the image
+   * @throws IOException              if reading fails or the file is not a valid PPM image
+   * @throws IllegalArgumentException if the file does not begin with P3, P5 or P6
+   */
+  public static Image read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return read(channel);
+    }
+  }
+
+  /**
+   * Reads a plain, binary or greyscale PPM image from a stream. The stream is not closed.
+   *
+   * @param in the stream to read from
+   * @return the image
+   * @throws IOException              if reading fails or the data is not a valid PPM image
+   * @throws IllegalArgumentException if the data does not begin with P3, P5 or P6
+   */
+  public static Image read(InputStream in) throws IOException {
+    return read(Channels.newChannel(in));
+  }
+
+  /**
+   * Writes an image to a file in the plain PPM format, with one pixel per line.
+   *
+   * @param image the image to write
+   * @param path  the file to write
+   * @throws IOException if writing fails
+   */
+  public static void write(Image image, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      write(image, channel);
+    }
+  }
+
+  /**
+   * Writes an image to a stream in the plain PPM format, with one pixel per line. The stream is
+   * not closed.
+   *
+   * @param image the image to write
+   * @param out   the stream to write to
+   * @throws IOException if writing fails
+   */
+  public static void write(Image image, OutputStream out) throws IOException {
+    write(image, Channels.newChannel(out));
+  }
+
+  /**
+   * Writes an image to a file in the binary PPM format (P6), with one byte per sample.
+   *
+   * @param image the image to write
+   * @param path  the file to write
+   * @throws IOException if writing fails
+   */
+  public static void writeBinary(Image image, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeRaster(image, channel, false);
+    }
+  }
+
+  /**
+   * Writes an image to a stream in the binary PPM format (P6), with one byte per sample. The
+   * stream is not closed.
+   *
+   * @param image the image to write
+   * @param out   the stream to write to
+   * @throws IOException if writing fails
+   */
+  public static void writeBinary(Image image, OutputStream out) throws IOException {
+    writeRaster(image, Channels.newChannel(out), false);
+  }
+
+  /**
+   * Writes an image to a file in the binary greyscale format (P5). A grey pixel keeps its level
+   * and any other pixel is written as its luma.
+   *
+   * @param image the image to write
+   * @param path  the file to write
+   * @throws IOException if writing fails
+   */
+  public static void writeGreyscale(Image image, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeRaster(image, channel, true);
+    }
+  }
+
+  /**
+   * Writes an image to a stream in the binary greyscale format (P5). A grey pixel keeps its level
+   * and any other pixel is written as its luma. The stream is not closed.
+   *
+   * @param image the image to write
+   * @param out   the stream to write to
+   * @throws IOException if writing fails
+   */
+  public static void writeGreyscale(Image image, OutputStream out) throws IOException {
+    writeRaster(image, Channels.newChannel(out), true);
+  }
+
+  private static void writeRaster(Image image, WritableByteChannel channel, boolean greyscale)
+      throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    byte[] bytes = buffer.array();
+    buffer.put(((greyscale ? "P5\n" : "P6\n") + width + " " + height + "\n255\n")
+        .getBytes(StandardCharsets.US_ASCII));
+    int position = buffer.position();
+
+    if (GreyPixelStorage.holdsLevels(image.getStorage())) {
+      writeLevels((GreyPixelStorage) image.getStorage(), channel, buffer, position, greyscale);
+      return;
+    }
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      image.getRow(i, row, 0);
+      for (int j = 0; j < width; j++) {
+        if (position > BUFFER_SIZE - 3) {
+          flush(channel, buffer, position);
+          position = 0;
+        }
+        int rgb = row[j];
+        int red = (rgb >> 16) & 0xFF;
+        int green = (rgb >> 8) & 0xFF;
+        int blue = rgb & 0xFF;
+        if (!greyscale) {
+          bytes[position++] = (byte) red;
+          bytes[position++] = (byte) green;
+          bytes[position++] = (byte) blue;
+        } else if (red == green && green == blue) {
+          bytes[position++] = (byte) red;
+        } else {
+          bytes[position++] = (byte) (0.2126 * red + 0.7152 * green + 0.0722 * blue);
+        }
+      }
+    }
+    flush(channel, buffer, position);
+  }
+
+  /**
+   * Writes the raster of a grey image straight from its levels, once per pixel in the greyscale
+   * format and three times otherwise.
+   */
+  private static void writeLevels(GreyPixelStorage storage, WritableByteChannel channel,
+      ByteBuffer buffer, int position, boolean greyscale) throws IOException {
+    int width = storage.getWidth();
+    byte[] bytes = buffer.array();
+    byte[] row = new byte[width];
+    for (int i = 0; i < storage.getHeight(); i++) {
+      storage.readLevels(i, 0, row, 0, width);
+      for (int j = 0; j < width; ) {
+        if (position > BUFFER_SIZE - 3) {
+          flush(channel, buffer, position);
+          position = 0;
+        }
+        if (greyscale) {
+          int length = Math.min(width - j, BUFFER_SIZE - position);
+          System.arraycopy(row, j, bytes, position, length);
+          position += length;
+          j += length;
+        } else {
+          bytes[position++] = row[j];
+          bytes[position++] = row[j];
+          bytes[position++] = row[j];
+          j++;
+        }
+      }
+    }
+    flush(channel, buffer, position);
+  }
+
+  private static void write(Image image, WritableByteChannel channel) throws IOException {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    byte[] bytes = buffer.array();
+    buffer.put(("P3\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+    int position = buffer.position();
+
+    int[] row = new int[width];
+    for (int i = 0; i < height; i++) {
+      image.getRow(i, row, 0);
+      for (int j = 0; j < width; j++) {
+        // A pixel takes at most 12 bytes: three samples of three digits and three separators
+        if (position > BUFFER_SIZE - 12) {
+          flush(channel, buffer, position);
+          position = 0;
+        }
+        int rgb = row[j];
+        position = append(bytes, position, DIGITS[(rgb >> 16) & 0xFF]);
+        bytes[position++] = ' ';
+        position = append(bytes, position, DIGITS[(rgb >> 8) & 0xFF]);
+        bytes[position++] = ' ';
+        position = append(bytes, position, DIGITS[rgb & 0xFF]);
+        bytes[position++] = '\n';
+      }
+    }
+    flush(channel, buffer, position);
+  }
+
+  private static int append(byte[] bytes, int position, byte[] digits) {
+    for (byte digit : digits) {
+      bytes[position++] = digit;
+    }
+    return position;
+  }
+
+  /**
+   * Writes the first {@code length} bytes of the buffer to the channel.
+   */
+  private static void flush(WritableByteChannel channel, ByteBuffer buffer, int length)
+      throws IOException {
+    buffer.clear();
+    buffer.limit(length);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static Image read(ReadableByteChannel channel) throws IOException {
+    Tokenizer tokenizer = new Tokenizer(channel);
+    String magic = tokenizer.nextToken();
+    int channels;
+    if ("P3".equals(magic) || "P6".equals(magic)) {
+      channels = 3;
+    } else if ("P5".equals(magic)) {
+      channels = 1;
+    } else {
+      throw new IllegalArgumentException(
+          "Invalid PPM file: file should begin with P3, P5 or P6");
+    }
+    int width = tokenizer.nextInt();
+    int height = tokenizer.nextInt();
+    int maxValue = tokenizer.nextInt();
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IOException("Invalid PPM file: image is too large");
+    }
+    if (maxValue < 1 || maxValue > 65535) {
+      throw new IOException("Invalid PPM file: maximum value must be between 1 and 65535");
+    }
+
+    // Samples of any other maximum value are scaled to 0-255
+    int[] scale = null;
+    if (maxValue != 255) {
+      scale = new int[maxValue + 1];
+      for (int v = 0; v <= maxValue; v++) {
+        scale[v] = (v * 255 + maxValue / 2) / maxValue;
+      }
+    }
+
+    if ("P3".equals(magic)) {
+      int[] pixels = new int[width * height];
+      readPlain(tokenizer, pixels, maxValue, scale);
+      return new Image(width, height, pixels);
+    }
+    // A greyscale image keeps a single byte per pixel
+    int[] pixels = channels == 3 ? new int[width * height] : null;
+    byte[] levels = channels == 1 ? new byte[width * height] : null;
+    Raster raster = new Raster(pixels, levels, width * height, channels, maxValue, scale);
+    if (channel instanceof FileChannel) {
+      raster.map((FileChannel) channel, tokenizer.offset((FileChannel) channel));
+    } else {
+      raster.read(channel, tokenizer.remaining());
+    }
+    return levels != null ? new Image(new GreyPixelStorage(width, height, levels))
+        : new Image(width, height, pixels);
+  }
+
+  private static void readPlain(Tokenizer tokenizer, int[] pixels, int maxValue, int[] scale)
+      throws IOException {
+    for (int k = 0; k < pixels.length; k++) {
+      int red = tokenizer.nextSample(maxValue);
+      int green = tokenizer.nextSample(maxValue);
+      int blue = tokenizer.nextSample(maxValue);
+      if (scale != null) {
+        red = scale[red];
+        green = scale[green];
+        blue = scale[blue];
+      }
+      pixels[k] = (red << 16) | (green << 8) | blue;
+    }
+  }
+
+  /**
+   * Unpacks the binary samples of a P6 image into packed pixels, or those of a P5 image into grey
+   * levels. Samples are one byte, or two bytes with the most significant first when the maximum
+   * value exceeds 255.
+   */
+  private static final class Raster {
+
+    private final int[] pixels;
+    private final byte[] levels;
+    private final int count;
+    private final int sampleBytes;
+    private final int pixelBytes;
+    private final int maxValue;
+    private final int[] scale;
+    private int next;
+
+    Raster(int[] pixels, byte[] levels, int count, int channels, int maxValue, int[] scale) {
+      this.pixels = pixels;
+      this.levels = levels;
+      this.count = count;
+      this.sampleBytes = maxValue > 255 ? 2 : 1;
+      this.pixelBytes = channels * sampleBytes;
+      this.maxValue = maxValue;
+      this.scale = scale;
+    }
+
+    /**
+     * Maps the raster that starts at the given offset of the file into memory, a block of pixels
+     * at a time, and unpacks it.
+     */
+    void map(FileChannel channel, long offset) throws IOException {
+      long size = (long) count * pixelBytes;
+      if (offset + size > channel.size()) {
+        throw new IOException("Invalid PPM file: unexpected end of file");
+      }
+      byte[] block = new byte[BUFFER_SIZE / pixelBytes * pixelBytes];
+      long position = offset;
+      while (next < count) {
+        int mappedPixels = Math.min(count - next, MAP_PIXELS);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            (long) mappedPixels * pixelBytes);
+        while (mapped.hasRemaining()) {
+          int length = Math.min(block.length, mapped.remaining());
+          mapped.get(block, 0, length);
+          unpack(block, 0, length / pixelBytes);
+        }
+        position += (long) mappedPixels * pixelBytes;
+      }
+    }
+
+    /**
+     * Unpacks the raster from the bytes left in the buffer and then from the rest of the
+     * channel.
+     */
+    void read(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+      while (true) {
+        int available = Math.min(count - next, buffer.remaining() / pixelBytes);
+        unpack(buffer.array(), buffer.position(), available);
+        buffer.position(buffer.position() + available * pixelBytes);
+        if (next == count) {
+          return;
+        }
+        buffer.compact();
+        int read;
+        do {
+          read = channel.read(buffer);
+        } while (read == 0);
+        buffer.flip();
+        if (read < 0) {
+          throw new IOException("Invalid PPM file: unexpected end of file");
+        }
+      }
+    }
+
+    private void unpack(byte[] bytes, int offset, int length) throws IOException {
+      int end = next + length;
+      int position = offset;
+      if (levels != null) {
+        if (pixelBytes == 1 && scale == null) {
+          System.arraycopy(bytes, position, levels, next, length);
+        } else {
+          for (int k = next; k < end; k++) {
+            levels[k] = (byte) sample(bytes, position);
+            position += pixelBytes;
+          }
+        }
+        next = end;
+        return;
+      }
+      if (pixelBytes == 3 && scale == null) {
+        // The common case of one byte per sample and a maximum value of 255
+        for (int k = next; k < end; k++) {
+          pixels[k] = ((bytes[position] & 0xFF) << 16) | ((bytes[position + 1] & 0xFF) << 8)
+              | (bytes[position + 2] & 0xFF);
+          position += 3;
+        }
+        next = end;
+        return;
+      }
+      for (int k = next; k < end; k++) {
+        int red = sample(bytes, position);
+        int green = sample(bytes, position + sampleBytes);
+        int blue = sample(bytes, position + 2 * sampleBytes);
+        pixels[k] = (red << 16) | (green << 8) | blue;
+        position += pixelBytes;
+      }
+      next = end;
+    }
+
+    private int sample(byte[] bytes, int position) throws IOException {
+      int value = bytes[position] & 0xFF;
+      if (sampleBytes == 2) {
+        value = (value << 8) | (bytes[position + 1] & 0xFF);
+      }
+      if (scale == null) {
+        return value;
+      }
+      if (value > maxValue) {
+        throw new IOException("Invalid PPM file: value exceeds " + maxValue);
+      }
+      return scale[value];
+    }
+  }
+
+  /**
+   * Splits the bytes of a channel into whitespace-separated tokens, skipping comments that run
+   * from a '#' to the end of the line.
+   */
+  private static final class Tokenizer {
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] bytes = buffer.array();
+    private int position;
+    private int limit;
+
+    Tokenizer(ReadableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    /**
+     * Returns the next byte, or -1 at the end of the channel.
+     */
+    private int read() throws IOException {
+      if (position == limit) {
+        buffer.clear();
+        int count;
+        do {
+          count = channel.read(buffer);
+        } while (count == 0);
+        if (count < 0) {
+          return -1;
+        }
+        position = 0;
+        limit = count;
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    /**
+     * Skips whitespace and comments and returns the first byte of the next token, or -1 at the
+     * end of the channel.
+     */
+    private int skipToToken() throws IOException {
+      int b = read();
+      while (true) {
+        if (b == '#') {
+          do {
+            b = read();
+          } while (b != '\n' && b != '\r' && b != -1);
+        } else if (b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B) {
+          b = read();
+        } else {
+          return b;
+        }
+      }
+    }
+
+    /**
+     * Returns the offset in the file of the first byte that has not been consumed yet.
+     */
+    long offset(FileChannel file) throws IOException {
+      return file.position() - (limit - position);
+    }
+
+    /**
+     * Returns the buffer with the bytes that have been read but not consumed yet between its
+     * position and limit.
+     */
+    ByteBuffer remaining() {
+      buffer.limit(limit);
+      buffer.position(position);
+      return buffer;
+    }
+
+    String nextToken() throws IOException {
+      int b = skipToToken();
+      StringBuilder token = new StringBuilder();
+      while (b != -1 && b > ' ' && b != '#' && token.length() < 16) {
+        token.append((char) b);
+        b = read();
+      }
+      return token.toString();
+    }
+
+    int nextInt() throws IOException {
+      return nextSample(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the next token as a non-negative decimal number no greater than the given maximum.
+     */
+    int nextSample(int max) throws IOException {
+      int b = skipToToken();
+      if (b < '0' || b > '9') {
+        throw new IOException(b == -1 ? "Invalid PPM file: unexpected end of file"
+            : "Invalid PPM file: expected a number but found '" + (char) b + "'");
+      }
+      long value = 0;
+      do {
+        value = value * 10 + (b - '0');
+        if (value > max) {
+          throw new IOException("Invalid PPM file: value exceeds " + max);
+        }
+        b = read();
+      } while (b >= '0' && b <= '9');
+      if (b == '#') {
+        // A comment directly after a number still ends the number
+        do {
+          b = read();
+        } while (b != '\n' && b != '\r' && b != -1);
+      } else if (b > ' ') {
+        throw new IOException("Invalid PPM file: expected a number but found '" + (char) b + "'");
+      }
+      return (int) value;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package model;
+
+import java.util.Objects;
+
+/**
+ * Stores pixels row by row in a single contiguous {@code int[]}, one packed 0xRRGGBB value per
+ * pixel. This costs four bytes per pixel, with no per-row or per-pixel objects.
+ */
+public class PackedPixelStorage implements PixelStorageInterface {
+
+  private final int width;
+  private final int height;
+  private final int[] data;
+
+  /**
+   * Constructs a black pixel grid of the specified size.
+   *
+   * @param width  the width of the grid
+   * @param height the height of the grid
+   * @throws IllegalArgumentException if a dimension is negative or the grid is too large
+   */
+  public PackedPixelStorage(int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative.");
+    }
+    if ((long) width * height > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Image is too large: " + width + "x" + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.data = new int[width * height];
+  }
+
+  /**
+   * Constructs a pixel grid that takes ownership of an existing row-major array of packed
+   * 0xRRGGBB values. The array is not copied, so the caller must not modify it afterwards.
+   *
+   * @param width  the width of the grid
+   * @param height the height of the grid
+   * @param data   the packed pixel values, {@code width * height} of them
+   * @throws IllegalArgumentException if the array length does not match the dimensions
+   */
+  public PackedPixelStorage(int width, int height, int[] data) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative.");
+    }
+    if (data.length != (long) width * height) {
+      throw new IllegalArgumentException(
+          "Expected " + ((long) width * height) + " pixels but got " + data.length);
+    }
+    this.width = width;
+    this.height = height;
+    this.data = data;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getRGB(int row, int col) {
+    return data[index(row, col)];
+  }
+
+  @Override
+  public void setRGB(int row, int col, int rgb) {
+    data[index(row, col)] = rgb & 0xFFFFFF;
+  }
+
+  @Override
+  public void readRow(int row, int col, int[] dst, int offset, int length) {
+    Objects.checkFromIndexSize(col, length, width);
+    System.arraycopy(data, Objects.checkIndex(row, height) * width + col, dst, offset, length);
+  }
+
+  @Override
+  public void writeRow(int row, int col, int[] src, int offset, int length) {
+    Objects.checkFromIndexSize(col, length, width);
+    System.arraycopy(src, offset, data, Objects.checkIndex(row, height) * width + col, length);
+  }
+
+  private int index(int row, int col) {
+    Objects.checkIndex(col, width);
+    return Objects.checkIndex(row, height) * width + col;
+  }
+}
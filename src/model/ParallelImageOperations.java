@@ -0,0 +1,137 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class runs the image processing operations of {@link ImageOperations} on a fork/join pool.
+ * Each operation is split into bands of rows that are processed concurrently. Every row is computed
+ * exactly as in the sequential implementation, so the results are identical.
+ */
+public class ParallelImageOperations extends ImageOperations implements AutoCloseable {
+
+  /**
+   * The default number of pixels below which an operation runs on the calling thread.
+   */
+  public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 1 << 16;
+
+  private final ForkJoinPool pool;
+  private final boolean ownsPool;
+  private final int parallelism;
+  private final int sequentialThreshold;
+
+  /**
+   * Constructs a ParallelImageOperations that runs on the common fork/join pool, splitting work
+   * for every available processor, with the default sequential threshold. The common pool is
+   * shared with the rest of the program, so there is nothing to shut down.
+   */
+  public ParallelImageOperations() {
+    this.pool = ForkJoinPool.commonPool();
+    this.ownsPool = false;
+    this.parallelism = Runtime.getRuntime().availableProcessors();
+    this.sequentialThreshold = DEFAULT_SEQUENTIAL_THRESHOLD;
+  }
+
+  /**
+   * Constructs a ParallelImageOperations with the given parallelism level and sequential
+   * threshold. It runs on a pool of its own, which {@link #close()} shuts down.
+   *
+   * @param parallelism         the number of worker threads to use
+   * @param sequentialThreshold the number of pixels below which work is not split any further
+   * @throws IllegalArgumentException if parallelism is not positive or the threshold is negative
+   */
+  public ParallelImageOperations(int parallelism, int sequentialThreshold) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("Parallelism must be positive.");
+    }
+    if (sequentialThreshold < 0) {
+      throw new IllegalArgumentException("Sequential threshold cannot be negative.");
+    }
+    this.pool = new ForkJoinPool(parallelism);
+    this.ownsPool = true;
+    this.parallelism = parallelism;
+    this.sequentialThreshold = sequentialThreshold;
+  }
+
+  /**
+   * Returns the number of worker threads used by this instance.
+   *
+   * @return the parallelism level
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Returns the number of pixels below which work is not split any further.
+   *
+   * @return the sequential threshold
+   */
+  public int getSequentialThreshold() {
+    return sequentialThreshold;
+  }
+
+  /**
+   * Shuts down the pool of worker threads, if this instance created its own. Operations that
+   * would split their work must not be run afterwards. Closing again has no effect.
+   */
+  @Override
+  public void close() {
+    if (ownsPool) {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Splits the rows into bands and processes them on the fork/join pool. Work smaller than the
+   * sequential threshold runs on the calling thread.
+   *
+   * @param rows     the number of rows to process
+   * @param rowWidth the number of pixels in each row, used to estimate the cost of the work
+   * @param task     the work to perform on each band of rows
+   */
+  @Override
+  protected void forEachRowBand(int rows, int rowWidth, RowTask task) {
+    long pixels = (long) rows * Math.max(1, rowWidth);
+    if (parallelism == 1 || rows < 2 || pixels <= sequentialThreshold) {
+      task.process(0, rows);
+      return;
+    }
+    // Aim for a few bands per worker so that uneven bands still balance out
+    int bandRows = Math.max(1, rows / (parallelism * 4));
+    bandRows = (int) Math.max(bandRows,
+        Math.min(rows, (long) sequentialThreshold / Math.max(1, rowWidth)));
+    pool.invoke(new RowBandAction(task, 0, rows, bandRows));
+  }
+
+  /**
+   * Recursively halves a range of rows until each band is small enough to process directly.
+   */
+  private static final class RowBandAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final RowTask task;
+    private final int fromRow;
+    private final int toRow;
+    private final int bandRows;
+
+    RowBandAction(RowTask task, int fromRow, int toRow, int bandRows) {
+      this.task = task;
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+      this.bandRows = bandRows;
+    }
+
+    @Override
+    protected void compute() {
+      if (toRow - fromRow <= bandRows) {
+        task.process(fromRow, toRow);
+        return;
+      }
+      int middle = (fromRow + toRow) >>> 1;
+      invokeAll(new RowBandAction(task, fromRow, middle, bandRows),
+          new RowBandAction(task, middle, toRow, bandRows));
+    }
+  }
+}
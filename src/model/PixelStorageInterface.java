@@ -0,0 +1,98 @@
+package model;
+
+/**
+ * Represents the memory that backs the pixel data of an {@link Image}. Pixels are exchanged in
+ * packed 0xRRGGBB form, so an implementation is free to choose its own layout in memory.
+ */
+public interface PixelStorageInterface {
+
+  /**
+   * Returns the width of the stored pixel grid.
+   *
+   * @return the width in pixels
+   */
+  int getWidth();
+
+  /**
+   * Returns the height of the stored pixel grid.
+   *
+   * @return the height in pixels
+   */
+  int getHeight();
+
+  /**
+   * Retrieves the packed 0xRRGGBB value of the pixel at the specified row and column.
+   *
+   * @param row the row index of the pixel
+   * @param col the column index of the pixel
+   * @return the packed RGB value of the pixel
+   */
+  int getRGB(int row, int col);
+
+  /**
+   * Stores the packed 0xRRGGBB value of the pixel at the specified row and column.
+   *
+   * @param row the row index of the pixel
+   * @param col the column index of the pixel
+   * @param rgb the packed RGB value to store
+   */
+  void setRGB(int row, int col, int rgb);
+
+  /**
+   * Copies a run of packed pixels from one row of the storage into an array.
+   *
+   * @param row    the row to read from
+   * @param col    the first column to read
+   * @param dst    the array receiving the packed values
+   * @param offset the position in {@code dst} of the first value
+   * @param length the number of pixels to copy
+   */
+  void readRow(int row, int col, int[] dst, int offset, int length);
+
+  /**
+   * Copies a run of packed pixels from an array into one row of the storage.
+   *
+   * @param row    the row to write to
+   * @param col    the first column to write
+   * @param src    the array holding the packed values
+   * @param offset the position in {@code src} of the first value
+   * @param length the number of pixels to copy
+   */
+  void writeRow(int row, int col, int[] src, int offset, int length);
+
+  /**
+   * Creates a black storage of the given size of the kind that operations should write their
+   * results to when this storage is their input. By default the result is held on the heap.
+   *
+   * @param width  the width of the new storage
+   * @param height the height of the new storage
+   * @return the new storage
+   */
+  default PixelStorageInterface createCompatible(int width, int height) {
+    return new PackedPixelStorage(width, height);
+  }
+
+  /**
+   * Creates a black storage of the given size for the result of an operation on this storage
+   * that is known to produce only grey pixels. By default the result holds a single byte per
+   * pixel on the heap.
+   *
+   * @param width  the width of the new storage
+   * @param height the height of the new storage
+   * @return the new storage
+   */
+  default PixelStorageInterface createCompatibleGrey(int width, int height) {
+    return new GreyPixelStorage(width, height);
+  }
+
+  /**
+   * Returns whether this storage reads the pixels of the given storage, so that the given storage
+   * must stay open while this one is in use. By default a storage only depends on itself.
+   *
+   * @param storage the storage to look for
+   * @return true if this storage is, or reads the pixels of, the given storage
+   */
+  default boolean dependsOn(PixelStorageInterface storage) {
+    return storage == this;
+  }
+}
@@ -0,0 +1,341 @@
+package model;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * An image operation that maps every pixel independently of its neighbors, such as a tone curve
+ * or a color conversion. Pixels left of the split column are left unchanged. Since no pixel
+ * depends on any other, a sequence of point operations can be applied in a single pass over an
+ * image without materializing the intermediate results, see
+ * {@link ImageOperations#applyPointOperations}.
+ */
+public final class PointOperation {
+
+  private final IntUnaryOperator mapping;
+  private final int[][] tables;
+  private final int splitPercent;
+  private final boolean greyOutput;
+
+  private PointOperation(IntUnaryOperator mapping, int[][] tables, int splitPercent) {
+    this(mapping, tables, splitPercent, false);
+  }
+
+  private PointOperation(IntUnaryOperator mapping, int[][] tables, int splitPercent,
+      boolean greyOutput) {
+    this.mapping = mapping;
+    this.tables = tables;
+    this.splitPercent = splitPercent;
+    this.greyOutput = greyOutput;
+  }
+
+  /**
+   * Creates an operation that maps every channel value through a 256-entry lookup table, one
+   * table per channel. The tables are copied.
+   *
+   * @param redTable     the new value for each red value 0-255
+   * @param greenTable   the new value for each green value 0-255
+   * @param blueTable    the new value for each blue value 0-255
+   * @param splitPercent the percentage of the width to leave unchanged on the left
+   * @return the lookup table operation
+   * @throws IllegalArgumentException if a table does not have 256 entries in the range 0-255
+   */
+  public static PointOperation lookupTable(int[] redTable, int[] greenTable, int[] blueTable,
+                                           int splitPercent) {
+    // Pre-shift the tables so that a pixel is assembled with lookups and ORs only
+    int[][] tables = {
+        shiftedTable(redTable, 16), shiftedTable(greenTable, 8), shiftedTable(blueTable, 0)
+    };
+    return new PointOperation(null, tables, splitPercent);
+  }
+
+  /**
+   * Creates an operation that adds the given increment to every channel of every pixel.
+   *
+   * @param increment the amount to adjust brightness (can be negative)
+   * @return the brightness operation
+   */
+  public static PointOperation brightness(int increment) {
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = Math.max(0, Math.min(255, v + increment));
+    }
+    return lookupTable(table, table, table, 0);
+  }
+
+  /**
+   * Creates an operation that adjusts the levels of every channel based on the specified black,
+   * middle, and white points.
+   *
+   * @param b            the black point
+   * @param m            the middle point
+   * @param w            the white point
+   * @param splitPercent the percentage of the width to leave unchanged on the left
+   * @return the levels operation
+   * @throws IllegalArgumentException if the split is outside 0-100 or b is greater than w
+   */
+  public static PointOperation levels(int b, int m, int w, int splitPercent) {
+    if (splitPercent < 0) {
+      throw new IllegalArgumentException("Split percent cannot be negative.");
+    }
+    if (splitPercent > 100) {
+      throw new IllegalArgumentException("Split percent cannot be greater than 100.");
+    }
+    if (b > w) {
+      throw new IllegalArgumentException("Black point cannot be greater than white point.");
+    }
+
+    // The same curve is used for every channel, so it is evaluated once per channel value
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      table[v] = adjustLevel(v, b, m, w);
+    }
+    return lookupTable(table, table, table, splitPercent);
+  }
+
+  /**
+   * Creates an operation that applies a sepia tone.
+   *
+   * @param splitPercent the percentage of the width to leave unchanged on the left
+   * @return the sepia operation
+   */
+  public static PointOperation sepia(int splitPercent) {
+    return new PointOperation(rgb -> {
+      int red = (rgb >> 16) & 0xFF;
+      int green = (rgb >> 8) & 0xFF;
+      int blue = rgb & 0xFF;
+
+      int newRed = (int) Math.min(255, 0.393 * red + 0.769 * green + 0.189 * blue);
+      int newGreen = (int) Math.min(255, 0.349 * red + 0.686 * green + 0.168 * blue);
+      int newBlue = (int) Math.min(255, 0.272 * red + 0.534 * green + 0.131 * blue);
+      return (newRed << 16) | (newGreen << 8) | newBlue;
+    }, null, splitPercent);
+  }
+
+  /**
+   * Creates an operation that converts pixels to greyscale using the luma weights.
+   *
+   * @param splitPercent the percentage of the width to leave unchanged on the left
+   * @return the greyscale operation
+   */
+  public static PointOperation greyscale(int splitPercent) {
+    return new PointOperation(rgb -> {
+      int grey = (int) Math.min(255, 0.2126 * ((rgb >> 16) & 0xFF)
+          + 0.7152 * ((rgb >> 8) & 0xFF) + 0.0722 * (rgb & 0xFF));
+      return (grey << 16) | (grey << 8) | grey;
+    }, null, splitPercent, true);
+  }
+
+  /**
+   * Creates an operation that shows the red component of every pixel as a grey level.
+   *
+   * @return the red component operation
+   */
+  public static PointOperation redComponent() {
+    return grey(rgb -> (rgb >> 16) & 0xFF);
+  }
+
+  /**
+   * Creates an operation that shows the green component of every pixel as a grey level.
+   *
+   * @return the green component operation
+   */
+  public static PointOperation greenComponent() {
+    return grey(rgb -> (rgb >> 8) & 0xFF);
+  }
+
+  /**
+   * Creates an operation that shows the blue component of every pixel as a grey level.
+   *
+   * @return the blue component operation
+   */
+  public static PointOperation blueComponent() {
+    return grey(rgb -> rgb & 0xFF);
+  }
+
+  /**
+   * Creates an operation that shows the maximum of the components of every pixel as a grey level.
+   *
+   * @return the value operation
+   */
+  public static PointOperation value() {
+    return grey(rgb -> Math.max((rgb >> 16) & 0xFF, Math.max((rgb >> 8) & 0xFF, rgb & 0xFF)));
+  }
+
+  /**
+   * Creates an operation that shows the average of the components of every pixel as a grey level.
+   *
+   * @return the intensity operation
+   */
+  public static PointOperation intensity() {
+    return grey(rgb -> (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3);
+  }
+
+  /**
+   * Creates an operation that shows the luma of every pixel as a grey level.
+   *
+   * @return the luma operation
+   */
+  public static PointOperation luma() {
+    return grey(rgb -> (int) (0.2126 * ((rgb >> 16) & 0xFF) + 0.7152 * ((rgb >> 8) & 0xFF)
+        + 0.0722 * (rgb & 0xFF)));
+  }
+
+  /**
+   * Returns the percentage of the width that this operation leaves unchanged on the left.
+   *
+   * @return the split percentage
+   */
+  public int getSplitPercent() {
+    return splitPercent;
+  }
+
+  /**
+   * Returns the first column of an image of the given width that this operation changes.
+   *
+   * @param width the width of the image
+   * @return the split column, between 0 and width
+   */
+  public int getSplitColumn(int width) {
+    return Math.max(0, Math.min(width, (width * splitPercent) / 100));
+  }
+
+  /**
+   * Returns whether every pixel of an image of the given width is grey after this operation,
+   * whatever the pixels were before.
+   */
+  boolean producesGrey(int width) {
+    return greyOutput && getSplitColumn(width) == 0;
+  }
+
+  /**
+   * Returns whether this operation maps grey pixels to grey pixels, so that it keeps a grey image
+   * grey.
+   */
+  boolean preservesGrey() {
+    if (greyOutput) {
+      return true;
+    }
+    if (tables == null) {
+      return false;
+    }
+    for (int v = 0; v < 256; v++) {
+      int red = tables[0][v] >> 16;
+      if (red != tables[1][v] >> 8 || red != tables[2][v]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Maps a single packed 0xRRGGBB pixel.
+   *
+   * @param rgb the packed pixel
+   * @return the mapped packed pixel
+   */
+  public int apply(int rgb) {
+    if (tables != null) {
+      return tables[0][(rgb >> 16) & 0xFF] | tables[1][(rgb >> 8) & 0xFF] | tables[2][rgb & 0xFF];
+    }
+    return mapping.applyAsInt(rgb);
+  }
+
+  /**
+   * Maps the packed pixels {@code [from, to)} of the array in place.
+   */
+  void apply(int[] pixels, int from, int to) {
+    if (tables != null) {
+      int[] red = tables[0];
+      int[] green = tables[1];
+      int[] blue = tables[2];
+      for (int k = from; k < to; k++) {
+        int rgb = pixels[k];
+        pixels[k] = red[(rgb >> 16) & 0xFF] | green[(rgb >> 8) & 0xFF] | blue[rgb & 0xFF];
+      }
+    } else {
+      for (int k = from; k < to; k++) {
+        pixels[k] = mapping.applyAsInt(pixels[k]);
+      }
+    }
+  }
+
+  /**
+   * Returns a single lookup table operation equivalent to applying this operation and then the
+   * next one, or null if the two cannot be combined. Only lookup table operations with the same
+   * split can be combined.
+   */
+  PointOperation combineWith(PointOperation next) {
+    if (tables == null || next.tables == null || splitPercent != next.splitPercent) {
+      return null;
+    }
+    int[][] combined = new int[3][256];
+    for (int c = 0; c < 3; c++) {
+      int shift = 16 - 8 * c;
+      for (int v = 0; v < 256; v++) {
+        combined[c][v] = next.tables[c][tables[c][v] >> shift];
+      }
+    }
+    return new PointOperation(null, combined, splitPercent);
+  }
+
+  private static PointOperation grey(IntUnaryOperator level) {
+    return new PointOperation(rgb -> {
+      int grey = level.applyAsInt(rgb);
+      return (grey << 16) | (grey << 8) | grey;
+    }, null, 0, true);
+  }
+
+  /**
+   * Validates a channel lookup table and returns a copy with every entry shifted into the
+   * position of its channel in a packed 0xRRGGBB value.
+   */
+  private static int[] shiftedTable(int[] table, int shift) {
+    if (table == null || table.length != 256) {
+      throw new IllegalArgumentException("A lookup table must have 256 entries.");
+    }
+    int[] shifted = new int[256];
+    for (int v = 0; v < 256; v++) {
+      if (table[v] < 0 || table[v] > 255) {
+        throw new IllegalArgumentException("Lookup table values must be in the range 0-255.");
+      }
+      shifted[v] = table[v] << shift;
+    }
+    return shifted;
+  }
+
+  /**
+   * Adjusts a single pixel's value based on the black, middle, and white points.
+   *
+   * @param value The original pixel value.
+   * @param b     The black point for the levels adjustment.
+   * @param m     The middle point for the levels adjustment.
+   * @param w     The white point for the levels adjustment.
+   * @return The adjusted pixel value.
+   */
+  private static int adjustLevel(int value, int b, int m, int w) {
+    // Special case: if b, m, and w are all set to 255, return 255 (white) for all adjusted pixels
+    if (b == 255 && m == 255 && w == 255) {
+      return 255;
+    }
+
+    // Special case: if all levels are set to 0, return 0 for all adjusted pixels
+    if (b == 0 && m == 0 && w == 0) {
+      return 0;
+    }
+
+    // Calculate scaling factors based on black, middle, and white points
+    double a = (128.0 - 0) / (m - b);  // Scaling factor for the region between b and m
+    double b_coeff = (255.0 - 128) / (w - m);  // Scaling factor for the region between m and w
+
+    // Adjust the pixel value based on the defined thresholds (b, m, w)
+    if (value <= b) {
+      return 0;  // Below black point, set to 0
+    } else if (value <= m) {
+      return (int) (a * (value - b));  // Between black and middle, scale linearly
+    } else if (value <= w) {
+      return (int) (128 + b_coeff * (value - m));  // Between middle and white, scale linearly
+    }
+
+    return 255;  // Above white point, set to 255
+  }
+}
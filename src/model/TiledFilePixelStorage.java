@@ -0,0 +1,452 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Stores pixels in a tiled raw image file that is mapped into memory a tile at a time, so that
+ * images far larger than the memory of the machine can be processed. Only the most recently used
+ * tiles stay mapped, up to a fixed number, and the operating system writes changed tiles back to
+ * the file. Operations on an image held in such a file write their results to temporary files
+ * next to it, which are deleted when their storage is closed.
+ *
+ * <p>A file starts with the bytes {@code HTI1}, followed by the width, height and tile size as
+ * big-endian ints, padded to 4096 bytes. The tiles follow in row-major order, each holding its
+ * rows of packed 0xRRGGBB values as big-endian ints. Every tile has the full tile size, including
+ * those on the right and bottom edges, so that the position of a tile is a simple product and
+ * every tile starts on a page boundary.
+ *
+ * <p>The storage may be read and written from several threads. They take turns only to look up
+ * and map tiles, and copy runs of pixels at the same time; a tile that is being copied is not
+ * unmapped until every copy from it has ended. The storage must not be used after it has been
+ * closed.
+ */
+public class TiledFilePixelStorage implements PixelStorageInterface, AutoCloseable {
+
+  /**
+   * The file extension of the tiled raw image format.
+   */
+  public static final String EXTENSION = ".hti";
+
+  /**
+   * The width and height of the tiles of files written by {@link #write}.
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  /**
+   * The number of tiles kept mapped by default, 256 MB of tiles of the default size.
+   */
+  public static final int DEFAULT_CACHE_TILES = 1024;
+
+  private static final byte[] MAGIC = {'H', 'T', 'I', '1'};
+  private static final int HEADER_SIZE = 4096;
+  private static final int MAX_TILE_SIZE = 1 << 12;
+
+  private final Path path;
+  private final boolean temporary;
+  private final FileChannel channel;
+  private final FileChannel.MapMode mode;
+  private final int width;
+  private final int height;
+  private final int tileSize;
+  private final int tilesAcross;
+  private final int cacheTiles;
+  private final Map<Long, Tile> cache;
+  private int mappedTiles;
+  private boolean closed;
+
+  /**
+   * A mapped tile together with the view of its pixels. The number of copies in progress and
+   * whether the tile has left the cache are guarded by the lock of the storage, which unmaps the
+   * tile once it has left the cache and no copy from it is in progress.
+   */
+  private static final class Tile {
+
+    private final MappedByteBuffer mapped;
+    private final IntBuffer pixels;
+    private int users;
+    private boolean evicted;
+
+    Tile(MappedByteBuffer mapped) {
+      this.mapped = mapped;
+      this.pixels = mapped.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+    }
+  }
+
+  private TiledFilePixelStorage(Path path, boolean temporary, FileChannel channel,
+      FileChannel.MapMode mode, int width, int height, int tileSize, int cacheTiles) {
+    this.path = path;
+    this.temporary = temporary;
+    this.channel = channel;
+    this.mode = mode;
+    this.width = width;
+    this.height = height;
+    this.tileSize = tileSize;
+    this.tilesAcross = (width + tileSize - 1) / tileSize;
+    this.cacheTiles = cacheTiles;
+    this.cache = new LinkedHashMap<Long, Tile>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+        if (size() > TiledFilePixelStorage.this.cacheTiles) {
+          eldest.getValue().evicted = true;
+          unmapIfUnused(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Creates a tiled raw image file of black pixels, replacing any file at the path, and opens it
+   * for reading and writing.
+   *
+   * @param path       the file to create
+   * @param width      the width of the image
+   * @param height     the height of the image
+   * @param tileSize   the width and height of the tiles, between 1 and 4096
+   * @param cacheTiles the number of tiles to keep mapped, at least one
+   * @return the storage of the new file
+   * @throws IOException              if the file cannot be created
+   * @throws IllegalArgumentException if a dimension is negative or the tile or cache size is out
+   *                                  of range
+   */
+  public static TiledFilePixelStorage create(Path path, int width, int height, int tileSize,
+      int cacheTiles) throws IOException {
+    return create(path, false, width, height, tileSize, cacheTiles);
+  }
+
+  private static TiledFilePixelStorage create(Path path, boolean temporary, int width,
+      int height, int tileSize, int cacheTiles) throws IOException {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Image dimensions cannot be negative.");
+    }
+    checkSizes(tileSize, cacheTiles);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.put(MAGIC).putInt(width).putInt(height).putInt(tileSize);
+      header.clear();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      // Writing the last byte sizes the file, which most file systems store sparsely
+      long size = fileSize(width, height, tileSize);
+      if (size > HEADER_SIZE) {
+        channel.write(ByteBuffer.allocate(1), size - 1);
+      }
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    return new TiledFilePixelStorage(path, temporary, channel, FileChannel.MapMode.READ_WRITE,
+        width, height, tileSize, cacheTiles);
+  }
+
+  /**
+   * Opens a tiled raw image file for reading, keeping the default number of tiles mapped.
+   *
+   * @param path the file to open
+   * @return the storage of the file
+   * @throws IOException if the file cannot be read or is not a valid tiled raw image file
+   */
+  public static TiledFilePixelStorage open(Path path) throws IOException {
+    return open(path, DEFAULT_CACHE_TILES);
+  }
+
+  /**
+   * Opens a tiled raw image file for reading. The file is never modified, so an attempt to write
+   * to the storage fails with an {@link UnsupportedOperationException}.
+   *
+   * @param path       the file to open
+   * @param cacheTiles the number of tiles to keep mapped, at least one
+   * @return the storage of the file
+   * @throws IOException              if the file cannot be read or is not a valid tiled raw image
+   *                                  file
+   * @throws IllegalArgumentException if the cache size is out of range
+   */
+  public static TiledFilePixelStorage open(Path path, int cacheTiles) throws IOException {
+    if (cacheTiles < 1) {
+      throw new IllegalArgumentException("The tile cache must hold at least one tile.");
+    }
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(4 + 3 * Integer.BYTES);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // Keep reading until the header is complete or the file ends
+      }
+      if (header.hasRemaining()) {
+        throw new IOException("Invalid HTI file: missing header");
+      }
+      header.flip();
+      byte[] magic = new byte[MAGIC.length];
+      header.get(magic);
+      if (!Arrays.equals(MAGIC, magic)) {
+        throw new IOException("Invalid HTI file: missing header");
+      }
+      int width = header.getInt();
+      int height = header.getInt();
+      int tileSize = header.getInt();
+      if (width < 0 || height < 0 || tileSize < 1 || tileSize > MAX_TILE_SIZE) {
+        throw new IOException("Invalid HTI file: invalid dimensions");
+      }
+      if (channel.size() < fileSize(width, height, tileSize)) {
+        throw new IOException("Invalid HTI file: unexpected end of file");
+      }
+      return new TiledFilePixelStorage(path, false, channel, FileChannel.MapMode.READ_ONLY,
+          width, height, tileSize, cacheTiles);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Writes an image to a tiled raw image file with tiles of the default size, a row at a time.
+   * The file is written next to its destination and then moved there, so the image may be held
+   * in the file it replaces.
+   *
+   * @param image the image to write
+   * @param path  the file to write
+   * @throws IOException if writing fails
+   */
+  public static void write(ImageInterface image, Path path) throws IOException {
+    int width = image.getWidth();
+    Path file = Files.createTempFile(path.toAbsolutePath().getParent(), "image", EXTENSION);
+    try {
+      try (TiledFilePixelStorage storage = create(file, width, image.getHeight(),
+          DEFAULT_TILE_SIZE, DEFAULT_CACHE_TILES)) {
+        int[] row = new int[width];
+        for (int i = 0; i < image.getHeight(); i++) {
+          image.getRow(i, row, 0);
+          storage.writeRow(i, 0, row, 0, width);
+        }
+      }
+      Files.move(file, path, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static void checkSizes(int tileSize, int cacheTiles) {
+    if (tileSize < 1 || tileSize > MAX_TILE_SIZE) {
+      throw new IllegalArgumentException("Tile size must be between 1 and " + MAX_TILE_SIZE
+          + ".");
+    }
+    if (cacheTiles < 1) {
+      throw new IllegalArgumentException("The tile cache must hold at least one tile.");
+    }
+  }
+
+  private static long fileSize(int width, int height, int tileSize) {
+    long tiles = (long) ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+    return HEADER_SIZE + tiles * tileSize * tileSize * Integer.BYTES;
+  }
+
+  /**
+   * Returns the number of tiles that are mapped into memory, those in the cache and those that
+   * have left it but are still being copied from.
+   *
+   * @return the number of mapped tiles
+   */
+  public synchronized int getMappedTiles() {
+    return mappedTiles;
+  }
+
+  /**
+   * Returns the width and height of the tiles of the file.
+   *
+   * @return the tile size in pixels
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public synchronized int getRGB(int row, int col) {
+    Objects.checkIndex(row, height);
+    Objects.checkIndex(col, width);
+    return tile(row, col).pixels.get((row % tileSize) * tileSize + col % tileSize);
+  }
+
+  @Override
+  public synchronized void setRGB(int row, int col, int rgb) {
+    Objects.checkIndex(row, height);
+    Objects.checkIndex(col, width);
+    tile(row, col).pixels.put((row % tileSize) * tileSize + col % tileSize, rgb & 0xFFFFFF);
+  }
+
+  @Override
+  public void readRow(int row, int col, int[] dst, int offset, int length) {
+    Objects.checkIndex(row, height);
+    Objects.checkFromIndexSize(col, length, width);
+    Tile tile = null;
+    try {
+      while (length > 0) {
+        int count = Math.min(length, tileSize - col % tileSize);
+        tile = acquire(tile, row, col);
+        // A duplicate has its own position, so that several threads can copy from one tile
+        IntBuffer pixels = tile.pixels.duplicate();
+        pixels.position((row % tileSize) * tileSize + col % tileSize);
+        pixels.get(dst, offset, count);
+        col += count;
+        offset += count;
+        length -= count;
+      }
+    } finally {
+      if (tile != null) {
+        release(tile);
+      }
+    }
+  }
+
+  @Override
+  public void writeRow(int row, int col, int[] src, int offset, int length) {
+    Objects.checkIndex(row, height);
+    Objects.checkFromIndexSize(col, length, width);
+    Tile tile = null;
+    try {
+      while (length > 0) {
+        int count = Math.min(length, tileSize - col % tileSize);
+        tile = acquire(tile, row, col);
+        // A duplicate has its own position, so that several threads can copy from one tile
+        IntBuffer pixels = tile.pixels.duplicate();
+        pixels.position((row % tileSize) * tileSize + col % tileSize);
+        pixels.put(src, offset, count);
+        col += count;
+        offset += count;
+        length -= count;
+      }
+    } finally {
+      if (tile != null) {
+        release(tile);
+      }
+    }
+  }
+
+  /**
+   * Creates a temporary tiled raw image file next to this one, with the same tile and cache
+   * sizes, which is deleted when its storage is closed.
+   *
+   * @throws UncheckedIOException if the file cannot be created
+   */
+  @Override
+  public PixelStorageInterface createCompatible(int width, int height) {
+    try {
+      Path directory = path.toAbsolutePath().getParent();
+      Path file = Files.createTempFile(directory, "image", EXTENSION);
+      file.toFile().deleteOnExit();
+      return create(file, true, width, height, tileSize, cacheTiles);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Creates a temporary tiled raw image file like {@link #createCompatible}, since a grey result
+   * of an image held in a file may be as large as the image.
+   *
+   * @throws UncheckedIOException if the file cannot be created
+   */
+  @Override
+  public PixelStorageInterface createCompatibleGrey(int width, int height) {
+    return createCompatible(width, height);
+  }
+
+  /**
+   * Unmaps the tiles and closes the file, deleting it if it is a temporary result. A tile that
+   * another thread is still copying from stays mapped until that copy ends. Closing the storage
+   * again has no effect.
+   *
+   * @throws IOException if the file cannot be closed or deleted
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    // A tile that is still being copied from is unmapped when its last copy releases it
+    for (Tile tile : cache.values()) {
+      tile.evicted = true;
+      unmapIfUnused(tile);
+    }
+    cache.clear();
+    channel.close();
+    if (temporary) {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  /**
+   * Returns the tile that holds the given pixel, keeping it mapped until it is released, and then
+   * releases the tile of the previous run of a copy, if any. The new tile is found first, so that
+   * the previous tile is still held by the caller, and released by it, if that fails.
+   */
+  private synchronized Tile acquire(Tile previous, int row, int col) {
+    Tile tile = tile(row, col);
+    tile.users++;
+    if (previous != null) {
+      release(previous);
+    }
+    return tile;
+  }
+
+  private synchronized void release(Tile tile) {
+    tile.users--;
+    unmapIfUnused(tile);
+  }
+
+  private void unmapIfUnused(Tile tile) {
+    if (tile.evicted && tile.users == 0) {
+      DirectBuffers.free(tile.mapped);
+      mappedTiles--;
+    }
+  }
+
+  /**
+   * Returns the tile that holds the given pixel, mapping it if it is not in the cache.
+   */
+  private Tile tile(int row, int col) {
+    if (closed) {
+      throw new IllegalStateException("The pixel storage has been closed.");
+    }
+    long index = (long) (row / tileSize) * tilesAcross + col / tileSize;
+    Tile tile = cache.get(index);
+    if (tile == null) {
+      long tileBytes = (long) tileSize * tileSize * Integer.BYTES;
+      try {
+        tile = new Tile(channel.map(mode, HEADER_SIZE + index * tileBytes, tileBytes));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      mappedTiles++;
+      cache.put(index, tile);
+    }
+    return tile;
+  }
+}
@@ -0,0 +1,298 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Presents the pixels of another storage remapped, flipped, cropped or reduced to one channel,
+ * without copying them. Reading a view reads its source, so the source must not be changed while
+ * the view is in use. The first write to a view copies its pixels into a storage of its own,
+ * created like its source, and from then on the view reads and writes that copy; the source is
+ * never written through a view.
+ */
+public abstract class ViewPixelStorage implements PixelStorageInterface, Closeable {
+
+  private final PixelStorageInterface source;
+  private final int width;
+  private final int height;
+  private volatile PixelStorageInterface copy;
+
+  private ViewPixelStorage(PixelStorageInterface source, int width, int height) {
+    this.source = source;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Creates a view of a storage mirrored left to right.
+   *
+   * @param source the storage to view
+   * @return the view
+   */
+  public static ViewPixelStorage flippedHorizontally(PixelStorageInterface source) {
+    return new HorizontalFlip(source);
+  }
+
+  /**
+   * Creates a view of a storage mirrored top to bottom.
+   *
+   * @param source the storage to view
+   * @return the view
+   */
+  public static ViewPixelStorage flippedVertically(PixelStorageInterface source) {
+    return new VerticalFlip(source);
+  }
+
+  /**
+   * Creates a view that shows one channel of every pixel of a storage as a grey level.
+   *
+   * @param source the storage to view
+   * @param shift  the position of the channel in the packed value: 16 for red, 8 for green and 0
+   *               for blue
+   * @return the view
+   * @throws IllegalArgumentException if the shift is not 16, 8 or 0
+   */
+  public static ViewPixelStorage component(PixelStorageInterface source, int shift) {
+    if (shift != 16 && shift != 8 && shift != 0) {
+      throw new IllegalArgumentException("Channel shift must be 16, 8 or 0.");
+    }
+    return new Component(source, shift);
+  }
+
+  /**
+   * Creates a view of a rectangular region of a storage.
+   *
+   * @param source the storage to view
+   * @param x      the left column of the region
+   * @param y      the top row of the region
+   * @param width  the width of the region
+   * @param height the height of the region
+   * @return the view
+   * @throws IllegalArgumentException if the region is empty or does not lie inside the storage
+   */
+  public static ViewPixelStorage region(PixelStorageInterface source, int x, int y, int width,
+      int height) {
+    if (width <= 0 || height <= 0 || x < 0 || y < 0
+        || (long) x + width > source.getWidth() || (long) y + height > source.getHeight()) {
+      throw new IllegalArgumentException("Region " + x + " " + y + " " + width + "x" + height
+          + " lies outside the " + source.getWidth() + "x" + source.getHeight() + " image.");
+    }
+    return new Region(source, x, y, width, height);
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getRGB(int row, int col) {
+    PixelStorageInterface current = copy;
+    if (current != null) {
+      return current.getRGB(row, col);
+    }
+    Objects.checkIndex(row, height);
+    Objects.checkIndex(col, width);
+    return sourceRGB(source, row, col);
+  }
+
+  @Override
+  public void setRGB(int row, int col, int rgb) {
+    materialize().setRGB(row, col, rgb);
+  }
+
+  @Override
+  public void readRow(int row, int col, int[] dst, int offset, int length) {
+    PixelStorageInterface current = copy;
+    if (current != null) {
+      current.readRow(row, col, dst, offset, length);
+      return;
+    }
+    Objects.checkIndex(row, height);
+    Objects.checkFromIndexSize(col, length, width);
+    readSource(source, row, col, dst, offset, length);
+  }
+
+  @Override
+  public void writeRow(int row, int col, int[] src, int offset, int length) {
+    materialize().writeRow(row, col, src, offset, length);
+  }
+
+  /**
+   * Creates a storage of the kind of the source, so that operations on a view of an image held in
+   * a file write their results to a file too.
+   */
+  @Override
+  public PixelStorageInterface createCompatible(int width, int height) {
+    return source.createCompatible(width, height);
+  }
+
+  @Override
+  public PixelStorageInterface createCompatibleGrey(int width, int height) {
+    return source.createCompatibleGrey(width, height);
+  }
+
+  /**
+   * Returns whether this view reads the pixels of the given storage, directly or through other
+   * views. A view that has copied its pixels no longer reads its source.
+   */
+  @Override
+  public boolean dependsOn(PixelStorageInterface storage) {
+    return storage == this || (copy == null && source.dependsOn(storage));
+  }
+
+  /**
+   * Returns whether the pixels of the view have been copied into a storage of its own.
+   *
+   * @return true if the view has been written to
+   */
+  public boolean isMaterialized() {
+    return copy != null;
+  }
+
+  /**
+   * Releases the copy of the pixels, if the view has one that holds memory or a file. The source
+   * is left open.
+   *
+   * @throws IOException if the copy cannot be released
+   */
+  @Override
+  public void close() throws IOException {
+    PixelStorageInterface current = copy;
+    if (current instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) current).close();
+      } catch (IOException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("The copy of the view could not be released.", e);
+      }
+    }
+  }
+
+  private synchronized PixelStorageInterface materialize() {
+    PixelStorageInterface current = copy;
+    if (current == null) {
+      current = source.createCompatible(width, height);
+      int[] row = new int[width];
+      for (int i = 0; i < height; i++) {
+        readSource(source, i, 0, row, 0, width);
+        current.writeRow(i, 0, row, 0, width);
+      }
+      copy = current;
+    }
+    return current;
+  }
+
+  /**
+   * Reads the pixel of the source shown at the given position of the view.
+   */
+  abstract int sourceRGB(PixelStorageInterface source, int row, int col);
+
+  /**
+   * Reads the run of pixels of the source shown at the given position of the view.
+   */
+  abstract void readSource(PixelStorageInterface source, int row, int col, int[] dst, int offset,
+      int length);
+
+  private static final class HorizontalFlip extends ViewPixelStorage {
+
+    private final int last;
+
+    HorizontalFlip(PixelStorageInterface source) {
+      super(source, source.getWidth(), source.getHeight());
+      this.last = source.getWidth() - 1;
+    }
+
+    @Override
+    int sourceRGB(PixelStorageInterface source, int row, int col) {
+      return source.getRGB(row, last - col);
+    }
+
+    @Override
+    void readSource(PixelStorageInterface source, int row, int col, int[] dst, int offset,
+        int length) {
+      // The source run ends where the view run starts, so it is read in place and reversed
+      source.readRow(row, last - col - length + 1, dst, offset, length);
+      for (int low = offset, high = offset + length - 1; low < high; low++, high--) {
+        int swap = dst[low];
+        dst[low] = dst[high];
+        dst[high] = swap;
+      }
+    }
+  }
+
+  private static final class VerticalFlip extends ViewPixelStorage {
+
+    private final int last;
+
+    VerticalFlip(PixelStorageInterface source) {
+      super(source, source.getWidth(), source.getHeight());
+      this.last = source.getHeight() - 1;
+    }
+
+    @Override
+    int sourceRGB(PixelStorageInterface source, int row, int col) {
+      return source.getRGB(last - row, col);
+    }
+
+    @Override
+    void readSource(PixelStorageInterface source, int row, int col, int[] dst, int offset,
+        int length) {
+      source.readRow(last - row, col, dst, offset, length);
+    }
+  }
+
+  private static final class Component extends ViewPixelStorage {
+
+    private final int shift;
+
+    Component(PixelStorageInterface source, int shift) {
+      super(source, source.getWidth(), source.getHeight());
+      this.shift = shift;
+    }
+
+    @Override
+    int sourceRGB(PixelStorageInterface source, int row, int col) {
+      return ((source.getRGB(row, col) >> shift) & 0xFF) * 0x010101;
+    }
+
+    @Override
+    void readSource(PixelStorageInterface source, int row, int col, int[] dst, int offset,
+        int length) {
+      source.readRow(row, col, dst, offset, length);
+      for (int k = offset; k < offset + length; k++) {
+        dst[k] = ((dst[k] >> shift) & 0xFF) * 0x010101;
+      }
+    }
+  }
+
+  private static final class Region extends ViewPixelStorage {
+
+    private final int x;
+    private final int y;
+
+    Region(PixelStorageInterface source, int x, int y, int width, int height) {
+      super(source, width, height);
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    int sourceRGB(PixelStorageInterface source, int row, int col) {
+      return source.getRGB(y + row, x + col);
+    }
+
+    @Override
+    void readSource(PixelStorageInterface source, int row, int col, int[] dst, int offset,
+        int length) {
+      source.readRow(y + row, x + col, dst, offset, length);
+    }
+  }
+}
@@ -0,0 +1,469 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes images in the HWC format, a compressed format based on the Haar wavelet
+ * transform. The image is divided into square tiles, and the channels of each tile are
+ * transformed, thresholded, quantized and coded on their own, so reading or writing a file holds
+ * the coefficients of a single tile at a time.
+ *
+ * <p>A file starts with the bytes {@code HWC1}, followed by the width, height, tile size and
+ * number of transform levels as big-endian ints and the quantization step as a double. The tiles
+ * follow in row-major order, each stored as its length in bytes followed by a zlib stream. Within
+ * a tile the coefficients are grouped from coarse to fine: the approximations of the three
+ * channels come first, then the details of the coarsest level of each channel, down to the
+ * details of the finest level. A group is coded as the number of its nonzero coefficients
+ * followed by, for each of them, the number of zeros before it and its quantized value, all as
+ * variable-length integers.
+ */
+public final class WaveletCodec {
+
+  /**
+   * The file extension of the HWC format.
+   */
+  public static final String EXTENSION = ".hwc";
+
+  /**
+   * The width and height of the tiles written by {@link #write}.
+   */
+  public static final int TILE_SIZE = 256;
+
+  /**
+   * The number of levels of the transform applied to each tile by {@link #write}.
+   */
+  public static final int LEVELS = 3;
+
+  private static final byte[] MAGIC = {'H', 'W', 'C', '1'};
+  private static final int MAX_TILE_SIZE = 1 << 10;
+  private static final double SQRT_2 = Math.sqrt(2);
+
+  // Coefficients are rounded to whole numbers, which keeps the error of every pixel well below
+  // one level while most small details quantize to zero
+  private static final double STEP = 1;
+
+  private WaveletCodec() {
+  }
+
+  /**
+   * Writes an image in the HWC format. Coefficients whose magnitude is below the threshold are
+   * set to zero before quantization, so a higher threshold gives a smaller file and a coarser
+   * image. The stream is flushed but not closed.
+   *
+   * @param image          the image to write
+   * @param out            the stream to write to
+   * @param thresholdValue the threshold below which coefficients are set to zero
+   * @throws IOException              if writing to the stream fails
+   * @throws IllegalArgumentException if the threshold is negative
+   */
+  public static void write(Image image, OutputStream out, double thresholdValue)
+      throws IOException {
+    if (thresholdValue < 0) {
+      throw new IllegalArgumentException("Threshold cannot be negative.");
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    DataOutputStream data = new DataOutputStream(out);
+    data.write(MAGIC);
+    data.writeInt(width);
+    data.writeInt(height);
+    data.writeInt(TILE_SIZE);
+    data.writeInt(LEVELS);
+    data.writeDouble(STEP);
+
+    double[][] planes = new double[3][TILE_SIZE * TILE_SIZE];
+    int[][] quantized = new int[3][TILE_SIZE * TILE_SIZE];
+    double[] scratch = new double[TILE_SIZE];
+    int[] row = new int[TILE_SIZE];
+    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    Deflater deflater = new Deflater();
+    try {
+      for (int tileRow = 0; tileRow < height; tileRow += TILE_SIZE) {
+        for (int tileCol = 0; tileCol < width; tileCol += TILE_SIZE) {
+          int tileWidth = Math.min(TILE_SIZE, width - tileCol);
+          int tileHeight = Math.min(TILE_SIZE, height - tileRow);
+          for (int i = 0; i < tileHeight; i++) {
+            image.getRow(tileRow + i, tileCol, row, 0, tileWidth);
+            for (int j = 0; j < tileWidth; j++) {
+              int k = i * tileWidth + j;
+              planes[0][k] = (row[j] >> 16) & 0xFF;
+              planes[1][k] = (row[j] >> 8) & 0xFF;
+              planes[2][k] = row[j] & 0xFF;
+            }
+          }
+          for (int c = 0; c < 3; c++) {
+            forwardTransform(planes[c], tileWidth, tileHeight, LEVELS, scratch);
+            for (int k = 0; k < tileWidth * tileHeight; k++) {
+              double value = planes[c][k];
+              quantized[c][k] =
+                  Math.abs(value) < thresholdValue ? 0 : (int) Math.round(value / STEP);
+            }
+          }
+
+          raw.reset();
+          int[] widths = levelSizes(tileWidth, LEVELS);
+          int[] heights = levelSizes(tileHeight, LEVELS);
+          for (int group = 0; group <= LEVELS; group++) {
+            for (int c = 0; c < 3; c++) {
+              writeGroup(raw, quantized[c], tileWidth, widths, heights, group);
+            }
+          }
+
+          // Deflate the tile on its own so that a reader can skip it by its length
+          deflater.reset();
+          deflater.setInput(raw.toByteArray());
+          deflater.finish();
+          ByteArrayOutputStream packed = new ByteArrayOutputStream();
+          while (!deflater.finished()) {
+            packed.write(buffer, 0, deflater.deflate(buffer));
+          }
+          data.writeInt(packed.size());
+          packed.writeTo(data);
+        }
+      }
+    } finally {
+      deflater.end();
+    }
+    data.flush();
+  }
+
+  /**
+   * Reads an image in the HWC format. The stream is read up to the end of the image but not
+   * closed.
+   *
+   * @param in the stream to read from
+   * @return the decoded image
+   * @throws IOException if reading from the stream fails or the data is not a valid HWC image
+   */
+  public static Image read(InputStream in) throws IOException {
+    return read(in, 1);
+  }
+
+  /**
+   * Reads an image in the HWC format at a reduced resolution, where every pixel is the average
+   * of a square block of {@code divisor} by {@code divisor} pixels of the full image. The blocks
+   * cut off by the right and bottom edges average the parts they are made of with equal weights
+   * instead of averaging their pixels. Only the coarse coefficient groups that the reduced image
+   * depends on are decoded, and the inverse transform stops at the matching level, so a preview
+   * costs a fraction of a full decode. The size of the result is the size of the image divided by
+   * the divisor, rounded up. The stream is read up to the end of the image but not closed.
+   *
+   * @param in      the stream to read from
+   * @param divisor the factor by which to reduce the width and height, a power of two
+   * @return the decoded image
+   * @throws IOException              if reading from the stream fails, the data is not a valid
+   *                                  HWC image, or the image has too few levels for the divisor
+   * @throws IllegalArgumentException if the divisor is not a power of two
+   */
+  public static Image read(InputStream in, int divisor) throws IOException {
+    if (divisor <= 0 || Integer.bitCount(divisor) != 1) {
+      throw new IllegalArgumentException("Scale divisor must be a power of two.");
+    }
+    int reduction = Integer.numberOfTrailingZeros(divisor);
+
+    DataInputStream data = new DataInputStream(in);
+    byte[] magic = new byte[MAGIC.length];
+    data.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Invalid HWC file: file should begin with HWC1");
+    }
+    int width = data.readInt();
+    int height = data.readInt();
+    int tileSize = data.readInt();
+    int levels = data.readInt();
+    double step = data.readDouble();
+    if (width < 0 || height < 0 || (long) width * height > Integer.MAX_VALUE
+        || tileSize <= 0 || tileSize > MAX_TILE_SIZE || levels < 0 || levels > 31
+        || !(step > 0)) {
+      throw new IOException("Invalid HWC file: bad header");
+    }
+    if (reduction > levels) {
+      throw new IOException("The image has " + levels
+          + " wavelet levels, so it cannot be read at 1/" + divisor + " scale.");
+    }
+
+    // Every tile but the last of a row or column reduces to the same size
+    int scaledTile = levelSizes(tileSize, reduction)[reduction];
+    int scaledWidth = scaledSize(width, tileSize, reduction);
+    int scaledHeight = scaledSize(height, tileSize, reduction);
+    double scale = 1 << reduction;
+
+    int[] pixels = new int[scaledWidth * scaledHeight];
+    double[][] planes = new double[3][tileSize * tileSize];
+    double[] scratch = new double[tileSize];
+    byte[] tileBytes = new byte[0];
+    Inflater inflater = new Inflater();
+    try {
+      for (int tileRow = 0; tileRow < height; tileRow += tileSize) {
+        for (int tileCol = 0; tileCol < width; tileCol += tileSize) {
+          int tileWidth = Math.min(tileSize, width - tileCol);
+          int tileHeight = Math.min(tileSize, height - tileRow);
+          int length = data.readInt();
+          if (length < 0) {
+            throw new IOException("Invalid HWC file: bad tile length");
+          }
+          if (tileBytes.length < length) {
+            tileBytes = new byte[length];
+          }
+          data.readFully(tileBytes, 0, length);
+          inflater.reset();
+          InputStream tile = new BufferedInputStream(new InflaterInputStream(
+              new ByteArrayInputStream(tileBytes, 0, length), inflater));
+
+          // The groups are stored from coarse to fine, so the finest levels that the reduced
+          // image does not need are simply not inflated
+          int[] widths = levelSizes(tileWidth, levels);
+          int[] heights = levelSizes(tileHeight, levels);
+          for (int group = 0; group <= levels - reduction; group++) {
+            for (int c = 0; c < 3; c++) {
+              readGroup(tile, planes[c], tileWidth, widths, heights, group, step);
+            }
+          }
+
+          for (int c = 0; c < 3; c++) {
+            inverseTransform(planes[c], tileWidth, tileHeight, levels, reduction, scratch);
+          }
+
+          // Each level scales the approximations by two, so dividing by the reduction factor
+          // gives the block averages
+          int rowOffset = (tileRow / tileSize) * scaledTile;
+          int colOffset = (tileCol / tileSize) * scaledTile;
+          for (int i = 0; i < heights[reduction]; i++) {
+            int base = (rowOffset + i) * scaledWidth + colOffset;
+            for (int j = 0; j < widths[reduction]; j++) {
+              int k = i * tileWidth + j;
+              pixels[base + j] = (clamp(planes[0][k] / scale) << 16)
+                  | (clamp(planes[1][k] / scale) << 8) | clamp(planes[2][k] / scale);
+            }
+          }
+        }
+      }
+    } finally {
+      inflater.end();
+    }
+    return new Image(scaledWidth, scaledHeight, pixels);
+  }
+
+  /**
+   * Returns the number of pixels that a side of the given size has after the given number of
+   * levels of reduction, when each tile is reduced on its own.
+   */
+  private static int scaledSize(int size, int tileSize, int reduction) {
+    if (size == 0) {
+      return 0;
+    }
+    int tiles = (size + tileSize - 1) / tileSize;
+    int last = size - (tiles - 1) * tileSize;
+    return (tiles - 1) * levelSizes(tileSize, reduction)[reduction]
+        + levelSizes(last, reduction)[reduction];
+  }
+
+  /**
+   * Returns the size of the approximation after each level of the transform, starting with the
+   * full size. Each level halves the size, rounding up when it is odd.
+   */
+  private static int[] levelSizes(int size, int levels) {
+    int[] sizes = new int[levels + 1];
+    sizes[0] = size;
+    for (int level = 1; level <= levels; level++) {
+      sizes[level] = (sizes[level - 1] + 1) / 2;
+    }
+    return sizes;
+  }
+
+  /**
+   * Returns the area of a coefficient group: group 0 is the final approximation, and group g is
+   * the part of the approximation of level {@code levels - g} that the next level turns into
+   * details. The area is returned as the outer width and height and the width and height of the
+   * excluded top left corner.
+   */
+  private static int[] groupArea(int[] widths, int[] heights, int group) {
+    int levels = widths.length - 1;
+    if (group == 0) {
+      return new int[]{widths[levels], heights[levels], 0, 0};
+    }
+    int level = levels - group;
+    return new int[]{widths[level], heights[level], widths[level + 1], heights[level + 1]};
+  }
+
+  private static void writeGroup(ByteArrayOutputStream out, int[] quantized, int stride,
+                                 int[] widths, int[] heights, int group) {
+    int[] area = groupArea(widths, heights, group);
+    int nonzero = 0;
+    for (int i = 0; i < area[1]; i++) {
+      int from = i < area[3] ? area[2] : 0;
+      for (int j = from; j < area[0]; j++) {
+        if (quantized[i * stride + j] != 0) {
+          nonzero++;
+        }
+      }
+    }
+    writeVarint(out, nonzero);
+
+    int run = 0;
+    for (int i = 0; i < area[1]; i++) {
+      int from = i < area[3] ? area[2] : 0;
+      for (int j = from; j < area[0]; j++) {
+        int value = quantized[i * stride + j];
+        if (value == 0) {
+          run++;
+        } else {
+          writeVarint(out, run);
+          writeVarint(out, (value << 1) ^ (value >> 31));
+          run = 0;
+        }
+      }
+    }
+  }
+
+  private static void readGroup(InputStream in, double[] plane, int stride, int[] widths,
+                                int[] heights, int group, double step) throws IOException {
+    int[] area = groupArea(widths, heights, group);
+    int remaining = readVarint(in);
+    int run = remaining > 0 ? readVarint(in) : -1;
+    for (int i = 0; i < area[1]; i++) {
+      int from = i < area[3] ? area[2] : 0;
+      for (int j = from; j < area[0]; j++) {
+        if (run == 0) {
+          int zigzag = readVarint(in);
+          plane[i * stride + j] = ((zigzag >>> 1) ^ -(zigzag & 1)) * step;
+          remaining--;
+          run = remaining > 0 ? readVarint(in) : -1;
+        } else {
+          plane[i * stride + j] = 0;
+          run--;
+        }
+      }
+    }
+    if (remaining > 0) {
+      throw new IOException("Invalid HWC file: corrupt tile");
+    }
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int readVarint(InputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.read();
+      if (b < 0) {
+        throw new IOException("Invalid HWC file: truncated tile");
+      }
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Invalid HWC file: corrupt tile");
+  }
+
+  /**
+   * Applies the levels of a 2D Haar transform to a tile in place. Each level transforms the rows
+   * and then the columns of the approximation left by the previous level.
+   */
+  private static void forwardTransform(double[] plane, int width, int height, int levels,
+                                       double[] scratch) {
+    int[] widths = levelSizes(width, levels);
+    int[] heights = levelSizes(height, levels);
+    for (int level = 0; level < levels; level++) {
+      for (int i = 0; i < heights[level]; i++) {
+        forwardStep(plane, i * width, 1, widths[level], scratch);
+      }
+      for (int j = 0; j < widths[level]; j++) {
+        forwardStep(plane, j, width, heights[level], scratch);
+      }
+    }
+  }
+
+  /**
+   * Inverts the levels of {@link #forwardTransform} in place, from the coarsest down to the
+   * given level. Inverting down to level 0 restores the tile, while stopping at a higher level
+   * leaves the approximation of that level in the top left corner.
+   */
+  private static void inverseTransform(double[] plane, int width, int height, int levels,
+                                       int toLevel, double[] scratch) {
+    int[] widths = levelSizes(width, levels);
+    int[] heights = levelSizes(height, levels);
+    for (int level = levels - 1; level >= toLevel; level--) {
+      for (int j = 0; j < widths[level]; j++) {
+        inverseStep(plane, j, width, heights[level], scratch);
+      }
+      for (int i = 0; i < heights[level]; i++) {
+        inverseStep(plane, i * width, 1, widths[level], scratch);
+      }
+    }
+  }
+
+  /**
+   * Performs one level of the 1D Haar transform on {@code length} values that are
+   * {@code stride} apart, storing the scaled sums of the pairs first and the scaled differences
+   * after them. An unpaired last value is scaled like a sum so that every approximation stays
+   * proportional to the mean of the pixels it covers.
+   */
+  private static void forwardStep(double[] data, int offset, int stride, int length,
+                                  double[] scratch) {
+    if (length < 2) {
+      return;
+    }
+    int half = length / 2;
+    int approximations = length - half;
+    for (int i = 0; i < half; i++) {
+      double even = data[offset + 2 * i * stride];
+      double odd = data[offset + (2 * i + 1) * stride];
+      scratch[i] = (even + odd) / SQRT_2;
+      scratch[approximations + i] = (even - odd) / SQRT_2;
+    }
+    if (length % 2 == 1) {
+      scratch[half] = data[offset + (length - 1) * stride] * SQRT_2;
+    }
+    for (int i = 0; i < length; i++) {
+      data[offset + i * stride] = scratch[i];
+    }
+  }
+
+  /**
+   * Inverts one level of {@link #forwardStep}.
+   */
+  private static void inverseStep(double[] data, int offset, int stride, int length,
+                                  double[] scratch) {
+    if (length < 2) {
+      return;
+    }
+    int half = length / 2;
+    int approximations = length - half;
+    for (int i = 0; i < half; i++) {
+      double average = data[offset + i * stride];
+      double difference = data[offset + (approximations + i) * stride];
+      scratch[2 * i] = (average + difference) / SQRT_2;
+      scratch[2 * i + 1] = (average - difference) / SQRT_2;
+    }
+    if (length % 2 == 1) {
+      scratch[length - 1] = data[offset + half * stride] / SQRT_2;
+    }
+    for (int i = 0; i < length; i++) {
+      data[offset + i * stride] = scratch[i];
+    }
+  }
+
+  private static int clamp(double value) {
+    return Math.max(0, Math.min(255, (int) Math.round(value)));
+  }
+}
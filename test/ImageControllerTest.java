@@ -1,13 +1,27 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.File;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 import org.junit.Before;
 import org.junit.Test;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import controller.ImageController;
+import model.CompressionSession;
+import model.Image;
+import model.ImageOperations;
 import view.ImageView;
 
 /**
@@ -405,4 +419,465 @@ public class ImageControllerTest {
     File compressedFile = new File("res/JPG/Output/compressed-image-50.jpg");
     assertTrue("Compressed image should be saved to file", compressedFile.exists());
   }
+
+  /**
+   * Tests that an image saved in the wavelet-compressed format, with and without a threshold, is
+   * loaded back at the same size.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testWaveletFormatSaveAndLoad() throws IOException {
+    String[] commands = {
+        "load res/PNG/lion.png original",
+        "save res/PNG/Output/lion.hwc original",
+        "save res/PNG/Output/lion-coarse.hwc original threshold 20",
+        "load res/PNG/Output/lion.hwc restored",
+        "save res/PNG/Output/lion-restored.png restored"
+    };
+    controller.executeScript(commands);
+    File fine = new File("res/PNG/Output/lion.hwc");
+    File coarse = new File("res/PNG/Output/lion-coarse.hwc");
+    assertTrue(fine.exists());
+    assertTrue(coarse.length() < fine.length());
+    BufferedImage original = ImageIO.read(new File("res/PNG/lion.png"));
+    BufferedImage restored = ImageIO.read(new File("res/PNG/Output/lion-restored.png"));
+    assertEquals(original.getWidth(), restored.getWidth());
+    assertEquals(original.getHeight(), restored.getHeight());
+    assertTrue(errContent.toString().isEmpty());
+  }
+
+  /**
+   * Tests that a wavelet-compressed image can be loaded at a quarter of its size, and that a
+   * scale is rejected for PPM images.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testWaveletFormatScaledLoad() throws IOException {
+    String[] commands = {
+        "load res/PNG/lion.png original",
+        "save res/PNG/Output/lion.hwc original",
+        "load res/PNG/Output/lion.hwc preview scale 1/4",
+        "save res/PNG/Output/lion-preview.png preview",
+        "load res/PPM/simple.ppm ppm-preview scale 1/4"
+    };
+    controller.executeScript(commands);
+    BufferedImage original = ImageIO.read(new File("res/PNG/lion.png"));
+    BufferedImage preview = ImageIO.read(new File("res/PNG/Output/lion-preview.png"));
+    assertEquals((original.getWidth() + 3) / 4, preview.getWidth());
+    assertEquals((original.getHeight() + 3) / 4, preview.getHeight());
+    assertTrue(errContent.toString().contains(
+        "Invalid load command: scaled loading is not supported for PPM images."));
+  }
+
+  /**
+   * Tests that a standard image can be loaded subsampled, as a region, or as a subsampled
+   * region, and that regions outside the image or of invalid sizes are rejected.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testStandardImageScaledAndRegionLoad() throws IOException {
+    String[] commands = {
+        "load res/PNG/lion.png preview scale 1/4",
+        "save res/PNG/Output/lion-preview.png preview",
+        "load res/PNG/lion.png crop roi 10 20 30 40",
+        "save res/PNG/Output/lion-crop.png crop",
+        "load res/PNG/lion.png crop-preview roi 10 20 30 40 scale 1/2",
+        "save res/PNG/Output/lion-crop-preview.png crop-preview",
+        "load res/PNG/lion.png outside roi 0 0 100000 10",
+        "load res/PNG/lion.png empty roi 0 0 0 10"
+    };
+    controller.executeScript(commands);
+    BufferedImage original = ImageIO.read(new File("res/PNG/lion.png"));
+    BufferedImage preview = ImageIO.read(new File("res/PNG/Output/lion-preview.png"));
+    assertEquals((original.getWidth() + 3) / 4, preview.getWidth());
+    assertEquals((original.getHeight() + 3) / 4, preview.getHeight());
+    assertEquals(original.getRGB(8, 12), preview.getRGB(2, 3));
+
+    BufferedImage crop = ImageIO.read(new File("res/PNG/Output/lion-crop.png"));
+    assertEquals(30, crop.getWidth());
+    assertEquals(40, crop.getHeight());
+    assertEquals(original.getRGB(15, 27), crop.getRGB(5, 7));
+
+    BufferedImage cropPreview = ImageIO.read(new File("res/PNG/Output/lion-crop-preview.png"));
+    assertEquals(15, cropPreview.getWidth());
+    assertEquals(20, cropPreview.getHeight());
+    assertEquals(original.getRGB(14, 26), cropPreview.getRGB(2, 3));
+
+    assertTrue(errContent.toString().contains("Invalid load command: region lies outside the "
+        + original.getWidth() + "x" + original.getHeight() + " image."));
+    assertTrue(errContent.toString().contains(
+        "Invalid load command: roi must be x y width height, with a positive width and height."));
+  }
+
+  /**
+   * Tests that an image saved as a tiled raw image file is loaded, blurred and saved tile by tile
+   * with the same result as on the heap.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testTiledImageFile() throws IOException {
+    String[] commands = {
+        "load res/PNG/lion.png original",
+        "save res/PNG/Output/lion.hti original",
+        "load res/PNG/Output/lion.hti tiled",
+        "blur tiled blurred",
+        "horizontal-flip blurred blurred",
+        "save res/PNG/Output/lion-tiled.ppm blurred",
+        "blur original heap",
+        "horizontal-flip heap heap",
+        "save res/PNG/Output/lion-heap.ppm heap",
+        "load res/PNG/Output/lion.hti tiled-preview scale 1/2"
+    };
+    controller.executeScript(commands);
+    assertArrayEquals(Files.readAllBytes(Paths.get("res/PNG/Output/lion-heap.ppm")),
+        Files.readAllBytes(Paths.get("res/PNG/Output/lion-tiled.ppm")));
+    assertTrue(errContent.toString().contains(
+        "Invalid load command: scaled loading is not supported for .hti images."));
+  }
+
+  /**
+   * Tests that a failure to create the result file of an operation on a tiled raw image is
+   * reported as an error, and that the script goes on with the next command.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testTiledResultFileError() throws IOException {
+    Files.createDirectories(Paths.get("res/PNG/Output/tiled"));
+    controller.executeScript(new String[]{
+        "load res/PNG/lion.png original",
+        "save res/PNG/Output/tiled/lion.hti original",
+        "load res/PNG/Output/tiled/lion.hti tiled"
+    });
+    // Results are written next to the image file, so they cannot be once its directory is gone
+    Files.delete(Paths.get("res/PNG/Output/tiled/lion.hti"));
+    Files.delete(Paths.get("res/PNG/Output/tiled"));
+    controller.executeScript(new String[]{
+        "brighten 10 tiled brightened",
+        "save res/PNG/Output/after-error.png original"
+    });
+    assertTrue(errContent.toString().contains("Error processing image: "));
+    assertTrue(new File("res/PNG/Output/after-error.png").exists());
+  }
+
+  /**
+   * Tests that every command that takes a split processes the whole image when it is given none,
+   * exactly as with a split of 0.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testDefaultSplitIsWholeImage() throws IOException {
+    String[] commands = {"blur", "sharpen", "sepia", "greyscale", "color-correct",
+        "levels-adjust 20 128 230", "gaussian-blur 2"};
+    controller.executeScript(new String[]{
+        "load res/PNG/lion.png original",
+        "save res/PNG/Output/lion-original.ppm original"});
+    byte[] original = Files.readAllBytes(Paths.get("res/PNG/Output/lion-original.ppm"));
+    for (String command : commands) {
+      controller.executeScript(new String[]{
+          command + " original whole",
+          command + " original split-zero split 0",
+          "save res/PNG/Output/lion-whole.ppm whole",
+          "save res/PNG/Output/lion-split-zero.ppm split-zero"});
+      byte[] whole = Files.readAllBytes(Paths.get("res/PNG/Output/lion-whole.ppm"));
+      assertArrayEquals(command,
+          Files.readAllBytes(Paths.get("res/PNG/Output/lion-split-zero.ppm")), whole);
+      assertTrue(command + " should change the image", !Arrays.equals(original, whole));
+    }
+  }
+
+  /**
+   * Tests that sepia, greyscale and levels-adjust without a split also process the whole image
+   * when they are fused into one pass.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testDefaultSplitIsWholeImageWhenFused() throws IOException {
+    controller.executeScript(new String[]{
+        "load res/PNG/lion.png original",
+        "sepia original sepia-toned split 0",
+        "greyscale sepia-toned grey split 0",
+        "levels-adjust 20 128 230 grey result split 0",
+        "save res/PNG/Output/lion-unfused.ppm result"});
+    ImageController fusing = new ImageController(new ImageView());
+    fusing.setFusePointOperations(true);
+    fusing.executeScript(new String[]{
+        "load res/PNG/lion.png original",
+        "sepia original sepia-toned",
+        "greyscale sepia-toned grey",
+        "levels-adjust 20 128 230 grey result",
+        "save res/PNG/Output/lion-fused.ppm result"});
+    assertArrayEquals(Files.readAllBytes(Paths.get("res/PNG/Output/lion-unfused.ppm")),
+        Files.readAllBytes(Paths.get("res/PNG/Output/lion-fused.ppm")));
+  }
+
+  /**
+   * Tests that the crop command, flips and components give the same files whether they return
+   * views or copies, that an image held in a file stays open while a view of it is stored, and
+   * that invalid crops are rejected.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testCropAndViews() throws IOException {
+    ImageOperations viewOperations = new ImageOperations();
+    viewOperations.setViews(true);
+    ImageController viewController = new ImageController(new ImageView(), viewOperations);
+    viewController.executeScript(new String[]{
+        "load res/PNG/lion.png original",
+        "save res/PNG/Output/lion.hti original",
+        "load res/PNG/Output/lion.hti tiled",
+        "crop 10 20 100 50 tiled cropped",
+        "vertical-flip cropped cropped",
+        "green-component cropped cropped",
+        "load res/PNG/lion.png tiled",
+        "save res/PNG/Output/lion-crop-view.ppm cropped"
+    });
+    controller.executeScript(new String[]{
+        "load res/PNG/lion.png original",
+        "crop 10 20 100 50 original cropped",
+        "vertical-flip cropped cropped",
+        "green-component cropped cropped",
+        "save res/PNG/Output/lion-crop-copy.ppm cropped",
+        "crop 10 20 1000 50 original too-wide",
+        "crop 10 20 wide 50 original too-wide"
+    });
+    assertArrayEquals(Files.readAllBytes(Paths.get("res/PNG/Output/lion-crop-copy.ppm")),
+        Files.readAllBytes(Paths.get("res/PNG/Output/lion-crop-view.ppm")));
+    assertTrue(errContent.toString().contains("Invalid crop command: Region 10 20 1000x50"));
+    assertTrue(errContent.toString().contains(
+        "Invalid crop command: the region must be four integers."));
+  }
+
+  /**
+   * Tests that an image saved as a binary PPM or a greyscale PGM is loaded back, that the binary
+   * file is smaller than the plain one, and that an unknown format is rejected.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testBinaryPPMSaveAndLoad() throws IOException {
+    String[] commands = {
+        "load res/PNG/lion.png original",
+        "save res/PPM/Output/lion-plain.ppm original",
+        "save res/PPM/Output/lion-binary.ppm original format p6",
+        "load res/PPM/Output/lion-binary.ppm binary",
+        "save res/PPM/Output/lion-binary-plain.ppm binary",
+        "luma-component original luma",
+        "save res/PPM/Output/lion-luma.ppm luma",
+        "save res/PPM/Output/lion-luma.pgm luma",
+        "load res/PPM/Output/lion-luma.pgm grey",
+        "save res/PPM/Output/lion-grey.ppm grey",
+        "save res/PPM/Output/lion.ppm original format p7"
+    };
+    controller.executeScript(commands);
+    File plain = new File("res/PPM/Output/lion-plain.ppm");
+    File binary = new File("res/PPM/Output/lion-binary.ppm");
+    assertTrue(binary.length() < plain.length());
+    assertArrayEquals(Files.readAllBytes(plain.toPath()),
+        Files.readAllBytes(Paths.get("res/PPM/Output/lion-binary-plain.ppm")));
+    assertArrayEquals(Files.readAllBytes(Paths.get("res/PPM/Output/lion-luma.ppm")),
+        Files.readAllBytes(Paths.get("res/PPM/Output/lion-grey.ppm")));
+    assertTrue(errContent.toString().contains(
+        "Invalid save command: format must be p3 or p6."));
+  }
+
+  /**
+   * Tests that the compress command accepts a tile size.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testTiledCompressionCommand() throws IOException {
+    String[] commands = {
+        "load res/JPG/sunflower.jpg original",
+        "compress 80 original compressed-image tile 128",
+        "save res/JPG/Output/compressed-image-tiled.jpg compressed-image"
+    };
+    controller.executeScript(commands);
+    assertTrue(new File("res/JPG/Output/compressed-image-tiled.jpg").exists());
+    assertTrue(errContent.toString().isEmpty());
+  }
+
+  /**
+   * Tests that the compress-to command compresses to a target PSNR and nonzero fraction, and
+   * rejects an unknown target.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testCompressToCommand() throws IOException {
+    String[] commands = {
+        "load res/PNG/lion.png original",
+        "compress-to psnr 35 original by-psnr",
+        "compress-to nonzero 0.1 original by-nonzero",
+        "save res/PNG/Output/compressed-psnr.png by-psnr",
+        "compress-to size 10 original by-size"
+    };
+    controller.executeScript(commands);
+    assertTrue(new File("res/PNG/Output/compressed-psnr.png").exists());
+    assertTrue(outContent.toString().contains("Compressed image original to psnr 35"));
+    assertTrue(outContent.toString().contains("Compressed image original to nonzero 0.1"));
+    assertTrue(errContent.toString().contains("Invalid compress-to command."));
+  }
+
+  /**
+   * Tests that compress-to reuses one transform for several targets on the same source, and that
+   * the session is released once the source name is overwritten, so that it no longer keeps the
+   * transform of the replaced image alive.
+   *
+   * @throws Exception If an error occurs during command execution.
+   */
+  @Test
+  public void testCompressionSessionReleasedWhenSourceReplaced() throws Exception {
+    List<WeakReference<CompressionSession>> sessions = new ArrayList<>();
+    ImageController recording = new ImageController(new ImageView(), new ImageOperations() {
+      @Override
+      public CompressionSession createCompressionSession(Image image) {
+        CompressionSession session = super.createCompressionSession(image);
+        sessions.add(new WeakReference<>(session));
+        return session;
+      }
+    });
+    recording.executeScript(new String[]{
+        "load res/PNG/lion.png original",
+        "compress-to psnr 35 original by-psnr",
+        "compress-to nonzero 0.1 original by-nonzero",
+        "compress-to psnr 30 original original"
+    });
+    assertEquals(1, sessions.size());
+    for (int attempt = 0; attempt < 20 && sessions.get(0).get() != null; attempt++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull("The session of a replaced source should be released", sessions.get(0).get());
+  }
+
+  /**
+   * Tests that the compress command rejects a percentage outside 0-100.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testCompressionCommandRejectsInvalidPercentage() throws IOException {
+    String[] commands = {
+        "load res/PPM/simple.ppm original",
+        "compress 150 original compressed-image"
+    };
+    controller.executeScript(commands);
+    assertTrue(errContent.toString().contains(
+        "Invalid compress command: Compression percentage must be between 0 and 100."));
+  }
+
+  @Test
+  public void testGaussianBlurCommand() throws IOException {
+    String[] commands = {
+        "load res/JPG/sunflower.jpg original",
+        "gaussian-blur 5 original gaussian-blurred split 50",
+        "save res/JPG/Output/gaussian-blurred.jpg gaussian-blurred"
+    };
+    controller.executeScript(commands);
+    File blurredFile = new File("res/JPG/Output/gaussian-blurred.jpg");
+    assertTrue("Gaussian blurred image should be saved to file", blurredFile.exists());
+  }
+
+  /**
+   * Tests that fusing a chain of point operations saves the same image and reports the same
+   * messages as executing the commands one by one.
+   *
+   * @throws IOException If an error occurs during command execution or reading the results.
+   */
+  @Test
+  public void testFusedPointOperationsMatchUnfused() throws IOException {
+    String[] commands = {
+        "load res/PNG/lion.png original",
+        "brighten 20 original brightened",
+        "levels-adjust 20 128 230 brightened levelled split 30",
+        "sepia levelled sepia-toned split 50",
+        "brighten -10 sepia-toned result",
+        "save res/PNG/Output/point-chain.png result"
+    };
+    controller.executeScript(commands);
+    BufferedImage unfused = ImageIO.read(new File("res/PNG/Output/point-chain.png"));
+    String unfusedMessages = outContent.toString();
+
+    outContent.reset();
+    ImageController fusing = new ImageController(new ImageView());
+    fusing.setFusePointOperations(true);
+    fusing.executeScript(commands);
+    BufferedImage fused = ImageIO.read(new File("res/PNG/Output/point-chain.png"));
+
+    assertEquals(unfusedMessages, outContent.toString());
+    for (int y = 0; y < unfused.getHeight(); y++) {
+      for (int x = 0; x < unfused.getWidth(); x++) {
+        assertEquals(unfused.getRGB(x, y), fused.getRGB(x, y));
+      }
+    }
+  }
+
+  /**
+   * Tests that an intermediate image that is used again later in the script is still available
+   * when point operations are fused.
+   *
+   * @throws IOException If an error occurs during command execution.
+   */
+  @Test
+  public void testFusedPointOperationsKeepReferencedIntermediate() throws IOException {
+    controller.setFusePointOperations(true);
+    String[] commands = {
+        "load res/JPG/sunflower.jpg original",
+        "greyscale original grey split 0",
+        "brighten 40 grey bright-grey",
+        "save res/JPG/Output/fused-intermediate.jpg grey"
+    };
+    controller.executeScript(commands);
+    assertTrue("Referenced intermediate should be saved",
+        new File("res/JPG/Output/fused-intermediate.jpg").exists());
+  }
+
+  /**
+   * Tests that a point operation that writes its result back to its source name is not fused into
+   * the command that reads it, so that a later script still sees the brightened image under that
+   * name.
+   *
+   * @throws IOException If an error occurs during command execution or reading the results.
+   */
+  @Test
+  public void testFusedPointOperationsKeepInPlaceResult() throws IOException {
+    String[] commands = {"load res/PNG/lion.png a", "brighten 10 a a", "sepia a b"};
+    String[] save = {"save res/PNG/Output/in-place.png a"};
+    controller.executeScript(commands);
+    controller.executeScript(save);
+    BufferedImage unfused = ImageIO.read(new File("res/PNG/Output/in-place.png"));
+
+    ImageController fusing = new ImageController(new ImageView());
+    fusing.setFusePointOperations(true);
+    fusing.executeScript(commands);
+    fusing.executeScript(save);
+    BufferedImage fused = ImageIO.read(new File("res/PNG/Output/in-place.png"));
+
+    for (int y = 0; y < unfused.getHeight(); y++) {
+      for (int x = 0; x < unfused.getWidth(); x++) {
+        assertEquals(unfused.getRGB(x, y), fused.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testBlurWithEdgeModeCommand() throws IOException {
+    String[] commands = {
+        "load res/JPG/sunflower.jpg original",
+        "blur original blurred-mirror split 20 edge mirror",
+        "save res/JPG/Output/blurred-mirror.jpg blurred-mirror"
+    };
+    controller.executeScript(commands);
+    File blurredFile = new File("res/JPG/Output/blurred-mirror.jpg");
+    assertTrue("Blurred image with mirrored edges should be saved", blurredFile.exists());
+  }
 }
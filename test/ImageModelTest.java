@@ -1,16 +1,24 @@
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import org.junit.Before;
 import org.junit.Test;
+import model.CompressionSession;
+import model.EdgeMode;
+import model.GreyPixelStorage;
 import model.Image;
 import model.ImageOperations;
+import model.OffHeapPixelStorage;
+import model.PointOperation;
+import model.ViewPixelStorage;
 
 /**
  * Test class for validating image operations on the Image model.
@@ -1308,4 +1316,763 @@ public class ImageModelTest {
     assertEquals(0, compressedImage.getHeight());
     assertEquals(0, compressedImage.getWidth());
   }
-}
\ No newline at end of file
+
+  /**
+   * Tests that a Gaussian blur leaves a uniform image unchanged, including at the borders.
+   */
+  @Test
+  public void testGaussianBlurKeepsUniformImage() {
+    int[][][] pixels = new int[6][9][];
+    for (int i = 0; i < 6; i++) {
+      for (int j = 0; j < 9; j++) {
+        pixels[i][j] = new int[]{200, 100, 50};
+      }
+    }
+    Image uniform = new Image(9, 6, pixels);
+    assertEquals(uniform, operations.blur(uniform, 5.0, 0));
+  }
+
+  /**
+   * Tests that a Gaussian blur spreads a single bright pixel symmetrically and keeps the pixels
+   * left of the split unchanged.
+   */
+  @Test
+  public void testGaussianBlurIsSymmetricAndRespectsSplit() {
+    Image dot = new Image(7, 7);
+    dot.setPixel(3, 3, new int[]{255, 255, 255});
+    Image blurred = operations.blur(dot, 1.0, 0);
+    assertTrue(blurred.getPixel(3, 3)[0] < 255);
+    assertTrue(blurred.getPixel(3, 3)[0] > blurred.getPixel(3, 4)[0]);
+    assertArrayEquals(blurred.getPixel(3, 2), blurred.getPixel(3, 4));
+    assertArrayEquals(blurred.getPixel(2, 3), blurred.getPixel(4, 3));
+
+    Image split = operations.blur(dot, 1.0, 50);
+    assertArrayEquals(dot.getPixel(3, 2), split.getPixel(3, 2));
+    assertArrayEquals(blurred.getPixel(3, 4), split.getPixel(3, 4));
+  }
+
+  /**
+   * Tests that a Gaussian blur far wider than the image, which cuts its kernel at the image size,
+   * gives the same result as a direct convolution with the full kernel that clamps to the edges.
+   * The sigmas cover both tails that are added up tap by tap and tails too long for that.
+   */
+  @Test
+  public void testGaussianBlurBoundsKernelForLargeSigma() {
+    int[] pixels = new int[10 * 6];
+    for (int k = 0; k < pixels.length; k++) {
+      pixels[k] = k % 10 < 4 ? 0 : (int) ((k * 2654435761L) & 0xFFFFFF);
+    }
+    Image image = new Image(10, 6, pixels);
+    for (double sigma : new double[]{4, 100, 30000}) {
+      Image expected = clampedGaussianBlur(image, sigma);
+      Image blurred = operations.blur(image, sigma, 0);
+      for (int i = 0; i < 6; i++) {
+        for (int j = 0; j < 10; j++) {
+          for (int c = 0; c < 3; c++) {
+            assertEquals("sigma " + sigma + " at " + i + " " + j,
+                expected.getPixel(i, j)[c], blurred.getPixel(i, j)[c], 1);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that a blur so wide that nearly all of its weight lies beyond the image gives every
+   * pixel the mean of the four corners, which are the pixels that the taps beyond the edges read.
+   */
+  @Test
+  public void testGaussianBlurWithHugeSigmaAveragesCorners() {
+    Image dot = new Image(7, 5);
+    dot.setPixel(0, 0, new int[]{255, 255, 255});
+    dot.setPixel(2, 3, new int[]{255, 255, 255});
+    Image blurred = operations.blur(dot, 1e12, 0);
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 7; j++) {
+        assertEquals(64, blurred.getPixel(i, j)[0], 1);
+      }
+    }
+  }
+
+  /**
+   * Blurs an image with the full Gaussian kernel of three standard deviations on each side, a
+   * horizontal pass followed by a vertical pass, reading the nearest edge pixel beyond the image
+   * and rounding after each pass.
+   */
+  private static Image clampedGaussianBlur(Image image, double sigma) {
+    int radius = (int) Math.ceil(3 * sigma);
+    double[] weights = new double[2 * radius + 1];
+    double sum = 0;
+    for (int k = -radius; k <= radius; k++) {
+      weights[k + radius] = Math.exp(-((double) k * k) / (2 * sigma * sigma));
+      sum += weights[k + radius];
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image horizontal = new Image(width, height);
+    Image result = new Image(width, height);
+    for (int pass = 0; pass < 2; pass++) {
+      Image source = pass == 0 ? image : horizontal;
+      Image target = pass == 0 ? horizontal : result;
+      for (int i = 0; i < height; i++) {
+        for (int j = 0; j < width; j++) {
+          double[] channels = new double[3];
+          for (int k = -radius; k <= radius; k++) {
+            int row = pass == 0 ? i : Math.max(0, Math.min(height - 1, i + k));
+            int col = pass == 0 ? Math.max(0, Math.min(width - 1, j + k)) : j;
+            int[] pixel = source.getPixel(row, col);
+            for (int c = 0; c < 3; c++) {
+              channels[c] += pixel[c] * weights[k + radius] / sum;
+            }
+          }
+          target.setPixel(i, j, new int[]{(int) Math.round(channels[0]),
+              (int) Math.round(channels[1]), (int) Math.round(channels[2])});
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Tests that a Gaussian blur rejects a sigma that is not positive.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testGaussianBlurRejectsNonPositiveSigma() {
+    operations.blur(image, 0.0, 0);
+  }
+
+  /**
+   * Tests that applyLookupTable maps each channel through its own table and leaves the split part
+   * unchanged.
+   */
+  @Test
+  public void testApplyLookupTable() {
+    int[] invert = new int[256];
+    int[] identity = new int[256];
+    int[] black = new int[256];
+    for (int v = 0; v < 256; v++) {
+      invert[v] = 255 - v;
+      identity[v] = v;
+    }
+    Image result = operations.applyLookupTable(image, invert, identity, black, 0);
+    assertArrayEquals(new int[]{127, 128, 0}, result.getPixel(2, 1));
+    assertArrayEquals(new int[]{0, 0, 0}, result.getPixel(0, 0));
+
+    Image split = operations.applyLookupTable(image, invert, identity, black, 50);
+    assertArrayEquals(image.getPixel(2, 0), split.getPixel(2, 0));
+    assertArrayEquals(new int[]{255, 255, 0}, split.getPixel(1, 1));
+  }
+
+  /**
+   * Tests that applyLookupTable rejects a table with values outside 0-255.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testApplyLookupTableRejectsInvalidTable() {
+    int[] table = new int[256];
+    table[10] = 256;
+    operations.applyLookupTable(image, table, table, table, 0);
+  }
+
+  /**
+   * Tests that applying a sequence of point operations in one pass gives the same image as
+   * applying the operations one after another.
+   */
+  @Test
+  public void testApplyPointOperationsMatchesSequentialApplication() {
+    Image expected = operations.applySepia(
+        operations.levelsAdjust(operations.adjustBrightness(image, 30), 10, 100, 240, 34), 50);
+    Image fused = operations.applyPointOperations(image, Arrays.asList(
+        PointOperation.brightness(30), PointOperation.levels(10, 100, 240, 34),
+        PointOperation.sepia(50)));
+    assertEquals(expected, fused);
+    assertEquals(image, operations.applyPointOperations(image, Arrays.asList()));
+  }
+
+  /**
+   * Tests how each edge mode maps indices beyond the border of a row of five pixels.
+   */
+  @Test
+  public void testEdgeModeMapping() {
+    assertEquals(-1, EdgeMode.ZERO.map(-1, 5));
+    assertEquals(3, EdgeMode.ZERO.map(3, 5));
+    assertEquals(0, EdgeMode.CLAMP.map(-2, 5));
+    assertEquals(4, EdgeMode.CLAMP.map(7, 5));
+    assertEquals(2, EdgeMode.MIRROR.map(-2, 5));
+    assertEquals(3, EdgeMode.MIRROR.map(5, 5));
+    assertEquals(0, EdgeMode.MIRROR.map(-1, 1));
+    assertEquals(4, EdgeMode.WRAP.map(-1, 5));
+    assertEquals(1, EdgeMode.WRAP.map(6, 5));
+  }
+
+  /**
+   * Tests that blurring a uniform image keeps it uniform with every edge mode except zero, which
+   * darkens the border.
+   */
+  @Test
+  public void testBlurEdgeModes() {
+    int[][][] pixels = new int[4][5][];
+    for (int i = 0; i < 4; i++) {
+      for (int j = 0; j < 5; j++) {
+        pixels[i][j] = new int[]{100, 100, 100};
+      }
+    }
+    Image uniform = new Image(5, 4, pixels);
+    assertEquals(uniform, operations.blur(uniform, 0, EdgeMode.CLAMP));
+    assertEquals(uniform, operations.blur(uniform, 0, EdgeMode.MIRROR));
+    assertEquals(uniform, operations.blur(uniform, 0, EdgeMode.WRAP));
+    assertEquals(operations.blur(uniform, 0), operations.blur(uniform, 0, EdgeMode.ZERO));
+    assertArrayEquals(new int[]{56, 56, 56}, operations.blur(uniform, 0).getPixel(0, 0));
+    assertArrayEquals(new int[]{100, 100, 100}, operations.blur(uniform, 0).getPixel(1, 1));
+  }
+
+  /**
+   * Tests that copying part of a row returns only the requested columns.
+   */
+  @Test
+  public void testGetPartialRow() {
+    int[] row = {-1, -1, -1};
+    image.getRow(1, 1, row, 1, 2);
+    assertArrayEquals(new int[]{-1, 0x00FFFF, 0xFF00FF}, row);
+  }
+
+  /**
+   * Tests that a split filter computes the columns right of the split exactly as the full filter
+   * does, reading the halo left of the split, and keeps the columns left of it unchanged.
+   */
+  @Test
+  public void testSplitFilterMatchesFullFilterRightOfSplit() {
+    int[][][] pixels = new int[6][10][];
+    for (int i = 0; i < 6; i++) {
+      for (int j = 0; j < 10; j++) {
+        pixels[i][j] = new int[]{(i * 40 + j * 13) % 256, (i * 7 + j * 29) % 256, (i * j) % 256};
+      }
+    }
+    Image source = new Image(10, 6, pixels);
+    for (EdgeMode edgeMode : EdgeMode.values()) {
+      Image full = operations.sharpen(source, 0, edgeMode);
+      Image split = operations.sharpen(source, 40, edgeMode);
+      for (int i = 0; i < 6; i++) {
+        for (int j = 0; j < 10; j++) {
+          Image expected = j < 4 ? source : full;
+          assertEquals(expected.getRGB(i, j), split.getRGB(i, j));
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that compressing an image whose dimensions are not powers of two with a threshold of 0
+   * reproduces it exactly.
+   */
+  @Test
+  public void testCompressOddDimensionsIsLosslessWithZeroThreshold() {
+    int[][][] pixels = new int[5][7][];
+    for (int i = 0; i < 5; i++) {
+      for (int j = 0; j < 7; j++) {
+        pixels[i][j] =
+            new int[]{(i * 53 + j * 17) % 256, (i * 11 + j * 91) % 256, (i * j * 7) % 256};
+      }
+    }
+    Image odd = new Image(7, 5, pixels);
+    Image compressed = operations.compress(odd, 0);
+    assertEquals(7, compressed.getWidth());
+    assertEquals(5, compressed.getHeight());
+    assertEquals(odd, compressed);
+  }
+
+  /**
+   * Tests that a compression session gives the same image as compress for every threshold, and
+   * that compressing at one threshold does not affect the next.
+   */
+  @Test
+  public void testCompressionSessionMatchesCompress() {
+    int[][][] pixels = new int[6][9][];
+    for (int i = 0; i < 6; i++) {
+      for (int j = 0; j < 9; j++) {
+        pixels[i][j] =
+            new int[]{(i * 37 + j * 29) % 256, (i * 71 + j * 13) % 256, (i * j * 19) % 256};
+      }
+    }
+    Image source = new Image(9, 6, pixels);
+    CompressionSession session = operations.createCompressionSession(source);
+    assertEquals(9, session.getWidth());
+    assertEquals(6, session.getHeight());
+    for (double threshold : new double[]{50, 0, 5, 90, 20, 50}) {
+      assertEquals(operations.compress(source, threshold), session.compress(threshold));
+    }
+    assertEquals(source, session.compress(0));
+  }
+
+  /**
+   * Tests that compressing by percentage picks the cutoff that zeroes the requested share of the
+   * coefficients. A 1x1 image has no detail to transform, so its coefficients are its three
+   * channel values.
+   */
+  @Test
+  public void testCompressPercentage() {
+    Image single = new Image(1, 1, new int[]{(10 << 16) | (200 << 8) | 50});
+    CompressionSession session = operations.createCompressionSession(single);
+    assertEquals(10, session.thresholdForPercentage(0), 0);
+    assertEquals(10, session.thresholdForPercentage(33), 0);
+    assertEquals(50, session.thresholdForPercentage(34), 0);
+    assertEquals(200, session.thresholdForPercentage(70), 0);
+    assertEquals(Double.POSITIVE_INFINITY, session.thresholdForPercentage(100), 0);
+    assertArrayEquals(new int[]{0, 200, 50}, session.compressPercentage(34).getPixel(0, 0));
+    assertArrayEquals(new int[]{0, 0, 0}, session.compressPercentage(100).getPixel(0, 0));
+
+    int[][][] pixels = new int[7][5][];
+    for (int i = 0; i < 7; i++) {
+      for (int j = 0; j < 5; j++) {
+        pixels[i][j] =
+            new int[]{(i * 41 + j * 23) % 256, (i * 67 + j * 5) % 256, (i * j * 31) % 256};
+      }
+    }
+    Image source = new Image(5, 7, pixels);
+    session = operations.createCompressionSession(source);
+    assertEquals(source, session.compressPercentage(0));
+    double previous = 0;
+    for (double percentage : new double[]{10, 25, 50, 75, 90, 99}) {
+      double threshold = session.thresholdForPercentage(percentage);
+      assertTrue(threshold >= previous);
+      assertEquals(operations.compress(source, threshold),
+          operations.compressPercentage(source, percentage));
+      previous = threshold;
+    }
+  }
+
+  /**
+   * Tests that compressing by a percentage outside 0-100 is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testCompressPercentageRejectsOutOfRange() {
+    operations.compressPercentage(image, 101);
+  }
+
+  /**
+   * Tests that tiled compression of an image that fits in one tile matches compress, and that
+   * smaller tiles still keep the size and reproduce the image at a threshold of 0.
+   */
+  @Test
+  public void testTiledCompress() {
+    int[][][] pixels = new int[23][31][];
+    for (int i = 0; i < 23; i++) {
+      for (int j = 0; j < 31; j++) {
+        pixels[i][j] =
+            new int[]{(i * 29 + j * 7) % 256, (i * 3 + j * 61) % 256, (i * j * 13) % 256};
+      }
+    }
+    Image source = new Image(31, 23, pixels);
+    assertEquals(operations.compress(source, 20), operations.compress(source, 20, 64));
+    assertEquals(operations.compress(source, 20), operations.compress(source, 20, 31));
+    assertEquals(source, operations.compress(source, 0, 8));
+    assertEquals(source, operations.compressPercentage(source, 0, 5));
+
+    Image tiled = operations.compressPercentage(source, 75, 8);
+    assertEquals(31, tiled.getWidth());
+    assertEquals(23, tiled.getHeight());
+    assertNotEquals(source, tiled);
+  }
+
+  /**
+   * Tests that tiled compression rejects a tile size that is not positive.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testTiledCompressRejectsInvalidTileSize() {
+    operations.compress(image, 10, 0);
+  }
+
+  /**
+   * Tests that the threshold chosen for a target PSNR gives an image close to that PSNR, that a
+   * higher target gives a lower threshold, and that the nonzero fraction maps to a percentage.
+   */
+  @Test
+  public void testCompressionSessionQualityTargets() {
+    int[][][] pixels = new int[30][40][];
+    for (int i = 0; i < 30; i++) {
+      for (int j = 0; j < 40; j++) {
+        pixels[i][j] = new int[]{(i * 8 + j * 3) % 256, (int) (128 + 100 * Math.sin(j / 4.0)),
+            (i * j * 5) % 256};
+      }
+    }
+    Image source = new Image(40, 30, pixels);
+    CompressionSession session = operations.createCompressionSession(source);
+
+    double previous = Double.POSITIVE_INFINITY;
+    for (double target : new double[]{25, 35, 45}) {
+      double threshold = session.thresholdForPsnr(target);
+      assertTrue(threshold < previous);
+      Image compressed = session.compress(threshold);
+      double squaredError = 0;
+      for (int i = 0; i < 30; i++) {
+        for (int j = 0; j < 40; j++) {
+          int[] a = source.getPixel(i, j);
+          int[] b = compressed.getPixel(i, j);
+          for (int c = 0; c < 3; c++) {
+            squaredError += (a[c] - b[c]) * (a[c] - b[c]);
+          }
+        }
+      }
+      double psnr = 10 * Math.log10(255.0 * 255.0 / (squaredError / (3 * 30 * 40)));
+      assertTrue(psnr > target - 0.5);
+      previous = threshold;
+    }
+    assertEquals(Double.POSITIVE_INFINITY, session.thresholdForPsnr(1), 0);
+
+    assertEquals(session.thresholdForPercentage(75), session.thresholdForNonzeroFraction(0.25),
+        0);
+    assertEquals(session.thresholdForPercentage(0), session.thresholdForNonzeroFraction(1), 0);
+  }
+
+  /**
+   * Tests that converting from a buffered image gives the RGB values its color model reports,
+   * for the types read from their data buffers, for a subimage, and for other types.
+   */
+  @Test
+  public void testFromBufferedImage() {
+    int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_565_RGB};
+    for (int type : types) {
+      BufferedImage buffered = new BufferedImage(7, 5, type);
+      for (int y = 0; y < 5; y++) {
+        for (int x = 0; x < 7; x++) {
+          buffered.setRGB(x, y, 0x80000000 | (x * 36 << 16) | (y * 60 << 8) | (x * y * 9));
+        }
+      }
+      BufferedImage[] sources = {buffered, buffered.getSubimage(2, 1, 4, 3)};
+      for (BufferedImage source : sources) {
+        Image image = Image.fromBufferedImage(source);
+        assertEquals(source.getWidth(), image.getWidth());
+        assertEquals(source.getHeight(), image.getHeight());
+        for (int y = 0; y < source.getHeight(); y++) {
+          for (int x = 0; x < source.getWidth(); x++) {
+            assertEquals(source.getRGB(x, y) & 0xFFFFFF, image.getRGB(y, x));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that an image converted to a buffered image and back is unchanged.
+   */
+  @Test
+  public void testBufferedImageRoundTrip() {
+    int[] pixels = new int[9 * 4];
+    for (int k = 0; k < pixels.length; k++) {
+      pixels[k] = (int) ((k * 2654435761L) & 0xFFFFFF);
+    }
+    Image image = new Image(9, 4, pixels);
+    BufferedImage buffered = image.toBufferedImage();
+    assertEquals(pixels[10], buffered.getRGB(1, 1) & 0xFFFFFF);
+    assertEquals(image, Image.fromBufferedImage(buffered));
+  }
+
+  /**
+   * Tests that an image held outside the heap has the same pixels as the image it was copied
+   * from, and that operations read it directly and give the same results.
+   */
+  @Test
+  public void testOffHeapStorage() {
+    int[] pixels = new int[23 * 17];
+    for (int k = 0; k < pixels.length; k++) {
+      pixels[k] = (int) ((k * 2654435761L) & 0xFFFFFF);
+    }
+    Image heap = new Image(23, 17, pixels);
+    try (OffHeapPixelStorage storage = OffHeapPixelStorage.copyOf(heap)) {
+      Image offHeap = new Image(storage);
+      assertEquals(heap, offHeap);
+      assertEquals(operations.blur(heap, 0), operations.blur(offHeap, 0));
+      assertEquals(operations.flipVertical(heap), operations.flipVertical(offHeap));
+      assertEquals(operations.compress(heap, 10), operations.compress(offHeap, 10));
+
+      offHeap.setRGB(3, 4, 0xFF123456);
+      assertEquals(0x123456, offHeap.getRGB(3, 4));
+      assertArrayEquals(new int[]{0x12, 0x34, 0x56}, offHeap.getPixel(3, 4));
+    }
+  }
+
+  /**
+   * Tests that operations on a large image held outside the heap write their large results, grey
+   * ones included, outside the heap too, and keep small results on the heap.
+   */
+  @Test
+  public void testOffHeapResultsStayOffHeap() {
+    int side = (int) Math.sqrt(OffHeapPixelStorage.MIN_PIXELS);
+    try (OffHeapPixelStorage storage = new OffHeapPixelStorage(side, side)) {
+      storage.setRGB(5, 7, 0x102030);
+      Image offHeap = new Image(storage);
+      Image brightened = operations.adjustBrightness(offHeap, 10);
+      Image grey = operations.applyGreyscale(offHeap, 0);
+      Image small = operations.downscale(offHeap, side / 2, side / 2);
+      try {
+        assertTrue(brightened.getStorage() instanceof OffHeapPixelStorage);
+        assertTrue(grey.getStorage() instanceof OffHeapPixelStorage);
+        assertEquals(0x1A2A3A, brightened.getRGB(5, 7));
+        assertEquals(0x0A0A0A, brightened.getRGB(0, 0));
+        assertFalse(small.getStorage() instanceof OffHeapPixelStorage);
+      } finally {
+        ((OffHeapPixelStorage) brightened.getStorage()).close();
+        ((OffHeapPixelStorage) grey.getStorage()).close();
+      }
+    }
+  }
+
+  /**
+   * Tests that a closed off-heap storage can be closed again but not used.
+   */
+  @Test
+  public void testOffHeapStorageClose() {
+    OffHeapPixelStorage storage = new OffHeapPixelStorage(4, 3);
+    assertEquals(0, storage.getRGB(2, 3));
+    storage.close();
+    assertTrue(storage.isClosed());
+    storage.close();
+    try {
+      storage.getRGB(0, 0);
+      fail("A closed storage should not be readable");
+    } catch (IllegalStateException e) {
+      assertEquals("The pixel storage has been closed.", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests that flips, components and crops returned as views have the same pixels as copies, read
+   * whole, by runs and by single pixels, and that operations read views like any other image.
+   */
+  @Test
+  public void testViewsMatchCopies() {
+    int[] pixels = new int[7 * 5];
+    for (int k = 0; k < pixels.length; k++) {
+      pixels[k] = (int) ((k * 2654435761L) & 0xFFFFFF);
+    }
+    Image source = new Image(7, 5, pixels);
+    ImageOperations viewOperations = new ImageOperations();
+    viewOperations.setViews(true);
+    Image[] expected = {operations.flipHorizontal(source), operations.flipVertical(source),
+        operations.visualizeRedComponent(source), operations.visualizeGreenComponent(source),
+        operations.visualizeBlueComponent(source), operations.crop(source, 2, 1, 4, 3)};
+    Image[] actual = {viewOperations.flipHorizontal(source), viewOperations.flipVertical(source),
+        viewOperations.visualizeRedComponent(source),
+        viewOperations.visualizeGreenComponent(source),
+        viewOperations.visualizeBlueComponent(source), viewOperations.crop(source, 2, 1, 4, 3)};
+    for (int k = 0; k < expected.length; k++) {
+      assertTrue(actual[k].getStorage() instanceof ViewPixelStorage);
+      assertEquals(expected[k], actual[k]);
+      int[] run = new int[2];
+      actual[k].getRow(2, 1, run, 0, 2);
+      assertArrayEquals(new int[]{expected[k].getRGB(2, 1), expected[k].getRGB(2, 2)}, run);
+      assertEquals(operations.blur(expected[k], 0), operations.blur(actual[k], 0));
+    }
+    assertEquals(source, viewOperations.flipHorizontal(viewOperations.flipHorizontal(source)));
+    assertEquals(((pixels[7 + 2] >> 16) & 0xFF) * 0x010101,
+        viewOperations.visualizeRedComponent(source).getRGB(1, 2));
+  }
+
+  /**
+   * Tests that writing to a view copies its pixels and leaves the source image unchanged.
+   */
+  @Test
+  public void testViewCopiedOnWrite() {
+    Image original = new Image(3, 3, new int[][][]{
+        {{255, 0, 0}, {0, 255, 0}, {0, 0, 255}},
+        {{255, 255, 0}, {0, 255, 255}, {255, 0, 255}},
+        {{0, 0, 0}, {128, 128, 128}, {255, 255, 255}}});
+    operations.setViews(true);
+    Image flipped = operations.flipVertical(image);
+    ViewPixelStorage storage = (ViewPixelStorage) flipped.getStorage();
+    assertTrue(storage.dependsOn(image.getStorage()));
+    flipped.setRGB(0, 0, 0x123456);
+    assertTrue(storage.isMaterialized());
+    assertTrue(!storage.dependsOn(image.getStorage()));
+    assertEquals(0x123456, flipped.getRGB(0, 0));
+    assertEquals(0xFF0000, flipped.getRGB(2, 0));
+    assertEquals(original, image);
+  }
+
+  /**
+   * Tests that a crop outside the image is rejected, with views and without.
+   */
+  @Test
+  public void testCropOutsideImage() {
+    for (boolean views : new boolean[]{false, true}) {
+      operations.setViews(views);
+      try {
+        operations.crop(image, 1, 1, 3, 1);
+        fail("A region outside the image should be rejected");
+      } catch (IllegalArgumentException e) {
+        assertEquals("Region 1 1 3x1 lies outside the 3x3 image.", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Tests that the component, luma and greyscale operations store their results as grey levels,
+   * that operations that keep a grey image grey do so, and that the results match the same
+   * operations on the image held packed.
+   */
+  @Test
+  public void testGreyResults() {
+    int[] pixels = new int[9 * 6];
+    for (int k = 0; k < pixels.length; k++) {
+      pixels[k] = (int) ((k * 2654435761L) & 0xFFFFFF);
+    }
+    Image source = new Image(9, 6, pixels);
+    Image[] greyResults = {operations.getValue(source), operations.getIntensity(source),
+        operations.getLuma(source), operations.applyGreyscale(source, 0),
+        operations.visualizeRedComponent(source), operations.visualizeGreenComponent(source),
+        operations.visualizeBlueComponent(source)};
+    for (Image grey : greyResults) {
+      assertTrue(grey.getStorage() instanceof GreyPixelStorage);
+      Image packed = new Image(9, 6);
+      packed.copyRegion(grey, 0, 0, 0, 0, 9, 6);
+      assertEquals(packed, grey);
+
+      Image[] kept = {operations.flipHorizontal(grey), operations.flipVertical(grey),
+          operations.crop(grey, 1, 2, 5, 3), operations.blur(grey, 0), operations.sharpen(grey, 0),
+          operations.blur(grey, 1.5, 0), operations.downscale(grey, 5, 4),
+          operations.adjustBrightness(grey, 40), operations.levelsAdjust(grey, 10, 100, 200, 0)};
+      Image[] expected = {operations.flipHorizontal(packed), operations.flipVertical(packed),
+          operations.crop(packed, 1, 2, 5, 3), operations.blur(packed, 0),
+          operations.sharpen(packed, 0), operations.blur(packed, 1.5, 0),
+          operations.downscale(packed, 5, 4), operations.adjustBrightness(packed, 40),
+          operations.levelsAdjust(packed, 10, 100, 200, 0)};
+      for (int k = 0; k < kept.length; k++) {
+        assertTrue(((GreyPixelStorage) kept[k].getStorage()).isGrey());
+        assertEquals(expected[k], kept[k]);
+      }
+      assertEquals(operations.generateHistogram(packed), operations.generateHistogram(grey));
+      assertEquals(operations.applySepia(packed, 0), operations.applySepia(grey, 0));
+    }
+    assertTrue(!(operations.applyGreyscale(source, 50).getStorage() instanceof GreyPixelStorage));
+  }
+
+  /**
+   * Tests that writing a pixel that is not grey to a grey storage keeps every pixel.
+   */
+  @Test
+  public void testGreyStorageHoldsColour() {
+    GreyPixelStorage storage = new GreyPixelStorage(3, 2);
+    storage.writeRow(1, 0, new int[]{0x101010, 0x202020, 0x303030}, 0, 3);
+    storage.setRGB(0, 2, 0x7F7F7F);
+    assertTrue(storage.isGrey());
+    storage.writeRow(0, 0, new int[]{0x404040, 0x123456}, 0, 2);
+    assertTrue(!storage.isGrey());
+    int[] row = new int[3];
+    storage.readRow(0, 0, row, 0, 3);
+    assertArrayEquals(new int[]{0x404040, 0x123456, 0x7F7F7F}, row);
+    storage.readRow(1, 0, row, 0, 3);
+    assertArrayEquals(new int[]{0x101010, 0x202020, 0x303030}, row);
+  }
+
+  /**
+   * Tests that a channel value outside 0-255 is rejected by setPixel and leaves the pixel
+   * unchanged.
+   */
+  @Test
+  public void testSetPixelRejectsOutOfRange() {
+    int[][] invalid = {{256, 0, 0}, {0, -1, 0}, {0, 0, 300}};
+    for (int[] rgb : invalid) {
+      try {
+        image.setPixel(1, 1, rgb);
+        fail("A channel value outside 0-255 should be rejected");
+      } catch (IllegalArgumentException e) {
+        assertEquals("RGB values must be in the range 0-255", e.getMessage());
+      }
+    }
+    assertArrayEquals(new int[]{0, 255, 255}, image.getPixel(1, 1));
+  }
+
+  /**
+   * Tests that getPixel returns a copy, so that changing the returned array does not change the
+   * image, and that setPixel stores the channels packed.
+   */
+  @Test
+  public void testGetPixelReturnsCopy() {
+    int[] pixel = image.getPixel(0, 0);
+    pixel[0] = 7;
+    assertArrayEquals(new int[]{255, 0, 0}, image.getPixel(0, 0));
+    image.setPixel(0, 0, new int[]{0x12, 0x34, 0x56});
+    assertEquals(0x123456, image.getRGB(0, 0));
+    assertArrayEquals(new int[]{0x12, 0x34, 0x56}, image.getPixel(0, 0));
+  }
+
+  /**
+   * Tests that an image built from a packed array uses the array itself rather than a copy.
+   */
+  @Test
+  public void testPackedConstructorTakesArray() {
+    int[] rgb = {0x010203, 0x040506, 0x070809, 0x0A0B0C, 0x0D0E0F, 0x101112};
+    Image packed = new Image(3, 2, rgb);
+    assertEquals(0x0A0B0C, packed.getRGB(1, 0));
+    rgb[4] = 0xABCDEF;
+    assertEquals(0xABCDEF, packed.getRGB(1, 1));
+    packed.setRGB(0, 2, 0x654321);
+    assertEquals(0x654321, rgb[2]);
+  }
+
+  /**
+   * Tests that a packed array whose length does not match the dimensions is rejected.
+   */
+  @Test
+  public void testPackedConstructorRejectsWrongLength() {
+    try {
+      new Image(3, 2, new int[5]);
+      fail("An array of the wrong length should be rejected");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Expected 6 pixels but got 5", e.getMessage());
+    }
+  }
+
+  /**
+   * Tests that whole rows and runs that end at the last column are copied out of and into an
+   * image, and that a run past the edge is rejected.
+   */
+  @Test
+  public void testRowsAtImageEdges() {
+    int[] row = new int[5];
+    image.getRow(2, row, 2);
+    assertArrayEquals(new int[]{0, 0, 0x000000, 0x808080, 0xFFFFFF}, row);
+    image.getRow(0, 2, row, 0, 1);
+    assertEquals(0x0000FF, row[0]);
+
+    image.setRow(0, new int[]{9, 0x111111, 0x222222, 0x333333}, 1);
+    assertEquals(0x111111, image.getRGB(0, 0));
+    assertEquals(0x333333, image.getRGB(0, 2));
+    try {
+      image.getRow(1, 2, row, 0, 2);
+      fail("A run past the last column should be rejected");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that a region touching the corners of both images is copied, leaving every other pixel
+   * unchanged.
+   */
+  @Test
+  public void testCopyRegionAtImageEdges() {
+    Image target = new Image(4, 4);
+    target.copyRegion(image, 1, 1, 2, 2, 2, 2);
+    assertEquals(0x00FFFF, target.getRGB(2, 2));
+    assertEquals(0xFF00FF, target.getRGB(2, 3));
+    assertEquals(0x808080, target.getRGB(3, 2));
+    assertEquals(0xFFFFFF, target.getRGB(3, 3));
+    assertEquals(0, target.getRGB(1, 3));
+    assertEquals(0, target.getRGB(3, 1));
+
+    target.copyRegion(image, 0, 0, 0, 0, 3, 3);
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        assertEquals(image.getRGB(i, j), target.getRGB(i, j));
+      }
+    }
+    try {
+      target.copyRegion(image, 0, 0, 2, 2, 3, 1);
+      fail("A region past the edge of the target should be rejected");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+  }
+}
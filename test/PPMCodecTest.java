@@ -0,0 +1,287 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import model.GreyPixelStorage;
+import model.Image;
+import model.PPMCodec;
+import org.junit.Test;
+
+/**
+ * Test class for reading and writing images in the PPM and PGM formats.
+ */
+public class PPMCodecTest {
+
+  private static Image read(String text) throws IOException {
+    return PPMCodec.read(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)));
+  }
+
+  private static byte[] binary(String header, int... samples) {
+    byte[] text = header.getBytes(StandardCharsets.US_ASCII);
+    byte[] bytes = new byte[text.length + samples.length];
+    System.arraycopy(text, 0, bytes, 0, text.length);
+    for (int k = 0; k < samples.length; k++) {
+      bytes[text.length + k] = (byte) samples[k];
+    }
+    return bytes;
+  }
+
+  private static Image randomImage(int width, int height) {
+    int[] pixels = new int[width * height];
+    for (int k = 0; k < pixels.length; k++) {
+      pixels[k] = (int) ((k * 2654435761L) & 0xFFFFFF);
+    }
+    return new Image(width, height, pixels);
+  }
+
+  private static Image readFile(byte[] bytes) throws IOException {
+    Path path = Files.createTempFile("ppm", ".ppm");
+    try {
+      Files.write(path, bytes);
+      return PPMCodec.read(path);
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  /**
+   * Tests that a plain PPM image is read with every sample in place.
+   *
+   * @throws IOException if the image cannot be read
+   */
+  @Test
+  public void testReadPlain() throws IOException {
+    Image image = read("P3\n3 2\n255\n255 0 0  0 255 0  0 0 255\n1 2 3  4 5 6  7 8 9\n");
+    assertEquals(3, image.getWidth());
+    assertEquals(2, image.getHeight());
+    assertArrayEquals(new int[]{255, 0, 0}, image.getPixel(0, 0));
+    assertArrayEquals(new int[]{0, 0, 255}, image.getPixel(0, 2));
+    assertArrayEquals(new int[]{4, 5, 6}, image.getPixel(1, 1));
+  }
+
+  /**
+   * Tests that comments are skipped wherever they appear, including directly after a number
+   * and inside the pixel data, and that any whitespace separates values.
+   *
+   * @throws IOException if the image cannot be read
+   */
+  @Test
+  public void testCommentsAnywhere() throws IOException {
+    Image image = read("# leading comment\nP3 # after magic\n2# after width\n1\r\n"
+        + "255\t10 20 30 # inside the data\n\n  40\n50 60# at the end");
+    assertArrayEquals(new int[]{10, 20, 30}, image.getPixel(0, 0));
+    assertArrayEquals(new int[]{40, 50, 60}, image.getPixel(0, 1));
+  }
+
+  /**
+   * Tests that samples of a maximum value other than 255 are scaled to 0-255.
+   *
+   * @throws IOException if the image cannot be read
+   */
+  @Test
+  public void testScalesOtherMaximumValues() throws IOException {
+    assertArrayEquals(new int[]{0, 85, 255}, read("P3 1 1 15 0 5 15").getPixel(0, 0));
+    assertArrayEquals(new int[]{0, 128, 255},
+        read("P3 1 1 1000 0 502 1000").getPixel(0, 0));
+  }
+
+  /**
+   * Tests that a file without the P3, P5 or P6 magic number is rejected.
+   *
+   * @throws IOException if the image cannot be read
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsOtherMagic() throws IOException {
+    read("P2 1 1 255 0");
+  }
+
+  /**
+   * Tests that a file that ends before all pixels are read is rejected.
+   *
+   * @throws IOException if the data is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testRejectsTruncatedData() throws IOException {
+    read("P3 2 1 255 1 2 3 4 5");
+  }
+
+  /**
+   * Tests that a sample above the maximum value is rejected.
+   *
+   * @throws IOException if the data is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testRejectsSampleAboveMaximum() throws IOException {
+    read("P3 1 1 255 1 256 3");
+  }
+
+  /**
+   * Tests that a token that is not a number is rejected.
+   *
+   * @throws IOException if the data is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testRejectsNonNumericSample() throws IOException {
+    read("P3 1 1 255 1 2x 3");
+  }
+
+  /**
+   * Tests that an image is written with the header and one pixel per line, and read back
+   * unchanged.
+   *
+   * @throws IOException if the image cannot be written or read
+   */
+  @Test
+  public void testWrite() throws IOException {
+    Image image = new Image(2, 2, new int[]{0xFF0000, 0x00FF7F, 0x0A0B0C, 0x000000});
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PPMCodec.write(image, out);
+    assertEquals("P3\n2 2\n255\n255 0 0\n0 255 127\n10 11 12\n0 0 0\n",
+        out.toString("US-ASCII"));
+    assertEquals(image, PPMCodec.read(new ByteArrayInputStream(out.toByteArray())));
+  }
+
+  /**
+   * Tests that an image larger than the write buffer is written and read back unchanged.
+   *
+   * @throws IOException if the image cannot be written or read
+   */
+  @Test
+  public void testWriteLargeImage() throws IOException {
+    Image image = randomImage(300, 200);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PPMCodec.write(image, out);
+    assertEquals(image, PPMCodec.read(new ByteArrayInputStream(out.toByteArray())));
+  }
+
+  /**
+   * Tests that a binary PPM image is read from a stream and from a mapped file, with a comment
+   * in the header.
+   *
+   * @throws IOException if the image cannot be read
+   */
+  @Test
+  public void testReadBinary() throws IOException {
+    byte[] bytes = binary("P6\n# camera\n2 1\n255\n", 255, 0, 10, 32, 200, 13);
+    Image expected = new Image(2, 1, new int[]{0xFF000A, 0x20C80D});
+    assertEquals(expected, PPMCodec.read(new ByteArrayInputStream(bytes)));
+    assertEquals(expected, readFile(bytes));
+  }
+
+  /**
+   * Tests that a greyscale image repeats each sample in all three channels.
+   *
+   * @throws IOException if the image cannot be read
+   */
+  @Test
+  public void testReadGreyscale() throws IOException {
+    byte[] bytes = binary("P5 3 1 255 ", 0, 128, 255);
+    Image expected = new Image(3, 1, new int[]{0x000000, 0x808080, 0xFFFFFF});
+    assertEquals(expected, PPMCodec.read(new ByteArrayInputStream(bytes)));
+    assertEquals(expected, readFile(bytes));
+  }
+
+  /**
+   * Tests that two-byte samples are read with the most significant byte first and scaled to
+   * 0-255.
+   *
+   * @throws IOException if the image cannot be read
+   */
+  @Test
+  public void testReadSixteenBitSamples() throws IOException {
+    byte[] bytes = binary("P6 1 1 65535\n", 0xFF, 0xFF, 0x80, 0x00, 0x00, 0x00);
+    assertArrayEquals(new int[]{255, 128, 0},
+        PPMCodec.read(new ByteArrayInputStream(bytes)).getPixel(0, 0));
+    assertArrayEquals(new int[]{255, 128, 0}, readFile(bytes).getPixel(0, 0));
+  }
+
+  /**
+   * Tests that a binary raster that ends early is rejected from a stream.
+   *
+   * @throws IOException if the data is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testRejectsTruncatedBinaryStream() throws IOException {
+    PPMCodec.read(new ByteArrayInputStream(binary("P6 2 1 255\n", 1, 2, 3, 4)));
+  }
+
+  /**
+   * Tests that a binary raster that ends early is rejected from a file.
+   *
+   * @throws IOException if the data is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testRejectsTruncatedBinaryFile() throws IOException {
+    readFile(binary("P6 2 1 255\n", 1, 2, 3, 4));
+  }
+
+  /**
+   * Tests that images are written in the binary formats with the header followed by the raw
+   * samples, and that a colour pixel is written to the greyscale format as its luma.
+   *
+   * @throws IOException if the image cannot be written
+   */
+  @Test
+  public void testWriteBinaryAndGreyscale() throws IOException {
+    Image image = new Image(2, 1, new int[]{0xFF000A, 0x404040});
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PPMCodec.writeBinary(image, out);
+    assertArrayEquals(binary("P6\n2 1\n255\n", 255, 0, 10, 64, 64, 64), out.toByteArray());
+    out.reset();
+    PPMCodec.writeGreyscale(image, out);
+    assertArrayEquals(binary("P5\n2 1\n255\n", 54, 64), out.toByteArray());
+  }
+
+  /**
+   * Tests that an image larger than the buffers is written in the binary format and read back
+   * unchanged from a stream and from a mapped file.
+   *
+   * @throws IOException if the image cannot be written or read
+   */
+  @Test
+  public void testBinaryRoundTrip() throws IOException {
+    Image image = randomImage(300, 200);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PPMCodec.writeBinary(image, out);
+    assertEquals(image, PPMCodec.read(new ByteArrayInputStream(out.toByteArray())));
+    assertEquals(image, readFile(out.toByteArray()));
+  }
+
+  /**
+   * Tests that an image held as grey levels is written, larger than the buffers, with the same
+   * bytes as the same pixels held packed, and that a greyscale file is read back as grey levels.
+   *
+   * @throws IOException if the image cannot be written or read
+   */
+  @Test
+  public void testGreyLevelsRoundTrip() throws IOException {
+    byte[] levels = new byte[400 * 300];
+    int[] packed = new int[levels.length];
+    for (int k = 0; k < levels.length; k++) {
+      levels[k] = (byte) (k * 7);
+      packed[k] = (levels[k] & 0xFF) * 0x010101;
+    }
+    Image grey = new Image(new GreyPixelStorage(400, 300, levels));
+    Image colour = new Image(400, 300, packed);
+    ByteArrayOutputStream greyOut = new ByteArrayOutputStream();
+    ByteArrayOutputStream colourOut = new ByteArrayOutputStream();
+    PPMCodec.writeBinary(grey, greyOut);
+    PPMCodec.writeBinary(colour, colourOut);
+    assertArrayEquals(colourOut.toByteArray(), greyOut.toByteArray());
+    greyOut.reset();
+    colourOut.reset();
+    PPMCodec.writeGreyscale(grey, greyOut);
+    PPMCodec.writeGreyscale(colour, colourOut);
+    assertArrayEquals(colourOut.toByteArray(), greyOut.toByteArray());
+    Image read = PPMCodec.read(new ByteArrayInputStream(greyOut.toByteArray()));
+    assertTrue(read.getStorage() instanceof GreyPixelStorage);
+    assertEquals(colour, read);
+    assertEquals(colour, readFile(greyOut.toByteArray()));
+  }
+}
@@ -0,0 +1,112 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import model.PackedPixelStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for the packed pixel storage that backs images by default.
+ */
+public class PackedPixelStorageTest {
+
+  private PackedPixelStorage storage;
+
+  /**
+   * Creates a black 4x3 storage.
+   */
+  @Before
+  public void setUp() {
+    storage = new PackedPixelStorage(4, 3);
+  }
+
+  /**
+   * Tests that a new storage has the given size and is black.
+   */
+  @Test
+  public void testNewStorageIsBlack() {
+    assertEquals(4, storage.getWidth());
+    assertEquals(3, storage.getHeight());
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 4; j++) {
+        assertEquals(0, storage.getRGB(i, j));
+      }
+    }
+  }
+
+  /**
+   * Tests that single pixels are stored by row and column, with anything above the low 24 bits
+   * dropped.
+   */
+  @Test
+  public void testSetAndGetRGB() {
+    storage.setRGB(2, 3, 0x123456);
+    storage.setRGB(0, 1, 0xFFABCDEF);
+    assertEquals(0x123456, storage.getRGB(2, 3));
+    assertEquals(0xABCDEF, storage.getRGB(0, 1));
+    assertEquals(0, storage.getRGB(2, 0));
+  }
+
+  /**
+   * Tests that runs of pixels are written and read at offsets in both the row and the array.
+   */
+  @Test
+  public void testReadAndWriteRow() {
+    storage.writeRow(1, 1, new int[]{9, 0x111111, 0x222222, 0x333333}, 1, 3);
+    int[] row = new int[6];
+    storage.readRow(1, 0, row, 2, 4);
+    assertArrayEquals(new int[]{0, 0, 0, 0x111111, 0x222222, 0x333333}, row);
+  }
+
+  /**
+   * Tests that pixels and runs outside the grid are rejected.
+   */
+  @Test
+  public void testRejectsOutOfBounds() {
+    int[][] positions = {{3, 0}, {0, 4}, {-1, 0}, {0, -1}};
+    for (int[] position : positions) {
+      try {
+        storage.getRGB(position[0], position[1]);
+        fail("A pixel outside the grid should be rejected");
+      } catch (IndexOutOfBoundsException e) {
+        // Expected
+      }
+    }
+    try {
+      storage.readRow(0, 2, new int[4], 0, 3);
+      fail("A run past the end of a row should be rejected");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Tests that a storage over an existing array uses the array without copying it.
+   */
+  @Test
+  public void testWrapsArray() {
+    int[] data = new int[4 * 3];
+    PackedPixelStorage wrapped = new PackedPixelStorage(4, 3, data);
+    data[5] = 0x445566;
+    assertEquals(0x445566, wrapped.getRGB(1, 1));
+    wrapped.setRGB(2, 0, 0x778899);
+    assertEquals(0x778899, data[8]);
+  }
+
+  /**
+   * Tests that an array of the wrong length is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsWrongLength() {
+    new PackedPixelStorage(4, 3, new int[11]);
+  }
+
+  /**
+   * Tests that negative dimensions are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsNegativeDimensions() {
+    new PackedPixelStorage(-1, 3);
+  }
+}
@@ -0,0 +1,118 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import model.Image;
+import model.ImageOperations;
+import model.ParallelImageOperations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class verifying that the parallel operations produce exactly the same images as the
+ * sequential ones.
+ */
+public class ParallelImageOperationsTest {
+
+  private Image image;
+  private ImageOperations sequential;
+  private ParallelImageOperations parallel;
+
+  /**
+   * Creates a random 37x29 image and a parallel instance that splits even the smallest work.
+   */
+  @Before
+  public void setUp() {
+    Random random = new Random(42);
+    int[][][] pixels = new int[29][37][3];
+    for (int i = 0; i < 29; i++) {
+      for (int j = 0; j < 37; j++) {
+        for (int c = 0; c < 3; c++) {
+          pixels[i][j][c] = random.nextInt(256);
+        }
+      }
+    }
+    image = new Image(37, 29, pixels);
+    sequential = new ImageOperations();
+    parallel = new ParallelImageOperations(4, 0);
+  }
+
+  /**
+   * Shuts down the worker threads of the parallel instance.
+   */
+  @After
+  public void tearDown() {
+    parallel.close();
+  }
+
+  /**
+   * Tests that flips and component visualizations match the sequential results.
+   */
+  @Test
+  public void testFlipsAndComponentsMatchSequential() {
+    assertEquals(sequential.flipHorizontal(image), parallel.flipHorizontal(image));
+    assertEquals(sequential.flipVertical(image), parallel.flipVertical(image));
+    assertEquals(sequential.visualizeRedComponent(image), parallel.visualizeRedComponent(image));
+    assertEquals(sequential.getValue(image), parallel.getValue(image));
+    assertEquals(sequential.getLuma(image), parallel.getLuma(image));
+    assertEquals(sequential.getIntensity(image), parallel.getIntensity(image));
+  }
+
+  /**
+   * Tests that tone and color operations match the sequential results.
+   */
+  @Test
+  public void testToneOperationsMatchSequential() {
+    assertEquals(sequential.applySepia(image, 30), parallel.applySepia(image, 30));
+    assertEquals(sequential.applyGreyscale(image, 0), parallel.applyGreyscale(image, 0));
+    assertEquals(sequential.adjustBrightness(image, -40), parallel.adjustBrightness(image, -40));
+    assertEquals(sequential.colorCorrect(image, 50), parallel.colorCorrect(image, 50));
+    assertEquals(sequential.levelsAdjust(image, 20, 128, 230, 75),
+        parallel.levelsAdjust(image, 20, 128, 230, 75));
+  }
+
+  /**
+   * Tests that filters, compression and downscaling match the sequential results.
+   */
+  @Test
+  public void testFiltersCompressAndDownscaleMatchSequential() {
+    assertEquals(sequential.blur(image, 0), parallel.blur(image, 0));
+    assertEquals(sequential.sharpen(image, 40), parallel.sharpen(image, 40));
+    assertEquals(sequential.blur(image, 2.5, 30), parallel.blur(image, 2.5, 30));
+    assertEquals(sequential.compress(image, 20), parallel.compress(image, 20));
+    assertEquals(sequential.compress(image, 20, 8), parallel.compress(image, 20, 8));
+    assertEquals(sequential.compressPercentage(image, 60, 16),
+        parallel.compressPercentage(image, 60, 16));
+    assertEquals(sequential.downscale(image, 20, 11), parallel.downscale(image, 20, 11));
+    assertEquals(sequential.generateHistogram(image), parallel.generateHistogram(image));
+  }
+
+  /**
+   * Tests that an invalid parallelism level is rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidParallelism() {
+    new ParallelImageOperations(0, 100);
+  }
+
+  /**
+   * Tests that closing an instance shuts down the pool it created, and that an instance on the
+   * common pool keeps working after it is closed.
+   */
+  @Test
+  public void testCloseShutsDownOwnPool() {
+    parallel.close();
+    try {
+      parallel.flipHorizontal(image);
+      fail("Work should not be split after the pool is shut down");
+    } catch (RejectedExecutionException e) {
+      // Expected
+    }
+    ParallelImageOperations shared = new ParallelImageOperations();
+    shared.close();
+    Image large = new Image(512, 512);
+    assertEquals(sequential.flipHorizontal(large), shared.flipHorizontal(large));
+  }
+}
@@ -0,0 +1,331 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import model.Image;
+import model.ImageOperations;
+import model.ParallelImageOperations;
+import model.PointOperation;
+import model.TiledFilePixelStorage;
+import model.ViewPixelStorage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for images held in tiled raw image files.
+ */
+public class TiledFilePixelStorageTest {
+
+  private Path directory;
+  private Image image;
+
+  /**
+   * Creates a directory for the files and a 53x37 image, which spans tiles of 16 pixels that do
+   * not divide it evenly.
+   *
+   * @throws IOException if the directory cannot be created
+   */
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("tiles");
+    int[] pixels = new int[53 * 37];
+    for (int k = 0; k < pixels.length; k++) {
+      pixels[k] = (int) ((k * 2654435761L) & 0xFFFFFF);
+    }
+    image = new Image(53, 37, pixels);
+  }
+
+  /**
+   * Deletes the directory and any files left in it.
+   *
+   * @throws IOException if a file cannot be deleted
+   */
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  private TiledFilePixelStorage copyToTiles(Path path) throws IOException {
+    TiledFilePixelStorage storage = TiledFilePixelStorage.create(path, 53, 37, 16, 2);
+    int[] row = new int[53];
+    for (int i = 0; i < 37; i++) {
+      image.getRow(i, row, 0);
+      storage.writeRow(i, 0, row, 0, 53);
+    }
+    return storage;
+  }
+
+  /**
+   * Tests that pixels written across tiles are read back, by rows, runs and single pixels, with a
+   * cache of two tiles that has to unmap tiles all the time.
+   *
+   * @throws IOException if the file cannot be created
+   */
+  @Test
+  public void testReadAndWriteAcrossTiles() throws IOException {
+    try (TiledFilePixelStorage storage = copyToTiles(directory.resolve("image.hti"))) {
+      Image tiled = new Image(storage);
+      assertEquals(image, tiled);
+      int[] run = new int[30];
+      tiled.getRow(20, 10, run, 0, 30);
+      int[] expected = new int[30];
+      image.getRow(20, 10, expected, 0, 30);
+      assertTrue(Arrays.equals(expected, run));
+      tiled.setRGB(36, 52, 0xFF123456);
+      assertEquals(0x123456, tiled.getRGB(36, 52));
+    }
+  }
+
+  /**
+   * Tests that an image written to a file and opened again has the same pixels, and that the
+   * opened file cannot be written.
+   *
+   * @throws IOException if the file cannot be written or read
+   */
+  @Test
+  public void testWriteAndOpen() throws IOException {
+    Path path = directory.resolve("image.hti");
+    TiledFilePixelStorage.write(image, path);
+    try (TiledFilePixelStorage storage = TiledFilePixelStorage.open(path, 3)) {
+      assertEquals(TiledFilePixelStorage.DEFAULT_TILE_SIZE, storage.getTileSize());
+      assertEquals(image, new Image(storage));
+      try {
+        storage.setRGB(0, 0, 0);
+        fail("An opened file should not be writable");
+      } catch (UnsupportedOperationException e) {
+        // Expected
+      }
+    }
+  }
+
+  /**
+   * Tests that several threads copying rows at the same time read what was written, while a cache
+   * of two tiles keeps unmapping tiles that other threads may still be copying.
+   *
+   * @throws Exception if the file cannot be created or a thread fails
+   */
+  @Test
+  public void testConcurrentCopies() throws Exception {
+    try (TiledFilePixelStorage storage = copyToTiles(directory.resolve("image.hti"))) {
+      Thread[] threads = new Thread[4];
+      AssertionError[] failures = new AssertionError[threads.length];
+      for (int t = 0; t < threads.length; t++) {
+        int first = t;
+        threads[t] = new Thread(() -> {
+          int[] expected = new int[53];
+          int[] row = new int[53];
+          try {
+            for (int pass = 0; pass < 50; pass++) {
+              for (int i = first; i < 37; i += threads.length) {
+                image.getRow(i, expected, 0);
+                storage.writeRow(i, 0, expected, 0, 53);
+                storage.readRow(i, 0, row, 0, 53);
+                assertTrue(Arrays.equals(expected, row));
+              }
+            }
+          } catch (AssertionError e) {
+            failures[first] = e;
+          }
+        });
+        threads[t].start();
+      }
+      for (int t = 0; t < threads.length; t++) {
+        threads[t].join();
+        if (failures[t] != null) {
+          throw failures[t];
+        }
+      }
+      assertEquals(image, new Image(storage));
+    }
+  }
+
+  /**
+   * Tests that a row copy that fails partway, because a later tile of the row cannot be mapped,
+   * releases the tiles it held exactly once, so that every tile is unmapped again in the end.
+   *
+   * @throws IOException if a file cannot be created, read or changed
+   */
+  @Test
+  public void testFailedCopyReleasesTilesOnce() throws IOException {
+    Path path = directory.resolve("image.hti");
+    copyToTiles(path).close();
+    byte[] bytes = Files.readAllBytes(path);
+    // The header and the first tile; the second tile of the first row lies past the end
+    int kept = 4096 + 16 * 16 * 4;
+    int[] row = new int[53];
+    try (TiledFilePixelStorage storage = TiledFilePixelStorage.open(path, 1)) {
+      storage.readRow(0, 0, row, 0, 16);
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+        channel.truncate(kept);
+      }
+      try {
+        storage.readRow(0, 0, row, 0, 53);
+        fail("A tile past the end of the file should not be mapped");
+      } catch (UncheckedIOException e) {
+        // Expected
+      }
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+        channel.write(ByteBuffer.wrap(bytes, kept, bytes.length - kept), kept);
+      }
+      assertEquals(image, new Image(storage));
+      storage.close();
+      assertEquals(0, storage.getMappedTiles());
+    }
+  }
+
+  /**
+   * Tests that closing a storage while other threads are copying rows from it leaves the tiles
+   * they hold mapped until their copies end, after which every tile is unmapped and further
+   * copies fail.
+   *
+   * @throws Exception if the file cannot be created or a thread fails
+   */
+  @Test
+  public void testCloseWhileCopying() throws Exception {
+    TiledFilePixelStorage storage = copyToTiles(directory.resolve("image.hti"));
+    Thread[] threads = new Thread[4];
+    boolean[] stopped = new boolean[threads.length];
+    for (int t = 0; t < threads.length; t++) {
+      int index = t;
+      threads[t] = new Thread(() -> {
+        int[] row = new int[53];
+        try {
+          for (int i = index; ; i = (i + 1) % 37) {
+            storage.readRow(i, 0, row, 0, 53);
+          }
+        } catch (IllegalStateException e) {
+          stopped[index] = true;
+        }
+      });
+      threads[t].start();
+    }
+    Thread.sleep(50);
+    storage.close();
+    for (int t = 0; t < threads.length; t++) {
+      threads[t].join();
+      assertTrue(stopped[t]);
+    }
+    assertEquals(0, storage.getMappedTiles());
+  }
+
+  /**
+   * Tests that a view of an image held in a tiled file copies itself to a temporary tiled file when
+   * it is written, and that closing the view deletes that file but leaves the source open.
+   *
+   * @throws IOException if a file cannot be created or deleted
+   */
+  @Test
+  public void testClosingViewReleasesCopy() throws IOException {
+    try (TiledFilePixelStorage storage = copyToTiles(directory.resolve("image.hti"))) {
+      try (ViewPixelStorage view = ViewPixelStorage.flippedVertically(storage)) {
+        view.setRGB(0, 0, 0x123456);
+        assertEquals(0x123456, view.getRGB(0, 0));
+        try (Stream<Path> files = Files.list(directory)) {
+          assertEquals(2, files.count());
+        }
+      }
+      try (Stream<Path> files = Files.list(directory)) {
+        assertEquals(1, files.count());
+      }
+      assertEquals(image, new Image(storage));
+    }
+  }
+
+  /**
+   * Tests that operations on an image held in a tiled file give the same results as on the heap,
+   * written to temporary tiled files that are deleted when they are closed.
+   *
+   * @throws IOException if a file cannot be created
+   */
+  @Test
+  public void testOperationsStreamTiles() throws IOException {
+    ImageOperations[] allOperations = {new ImageOperations(), new ParallelImageOperations(4, 1)};
+    for (ImageOperations operations : allOperations) {
+      try (TiledFilePixelStorage storage = copyToTiles(directory.resolve("image.hti"))) {
+        Image tiled = new Image(storage);
+        Image[] expected = {operations.flipHorizontal(image), operations.flipVertical(image),
+            operations.blur(image, 20), operations.blur(image, 2.5, 0),
+            operations.applyPointOperations(image,
+                Arrays.asList(PointOperation.brightness(30), PointOperation.sepia(50))),
+            operations.downscale(image, 20, 11), operations.compress(image, 10),
+            operations.compress(image, 10, 16),
+            operations.createCompressionSession(image).compressPercentage(50)};
+        Image[] actual = {operations.flipHorizontal(tiled), operations.flipVertical(tiled),
+            operations.blur(tiled, 20), operations.blur(tiled, 2.5, 0),
+            operations.applyPointOperations(tiled,
+                Arrays.asList(PointOperation.brightness(30), PointOperation.sepia(50))),
+            operations.downscale(tiled, 20, 11), operations.compress(tiled, 10),
+            operations.compress(tiled, 10, 16),
+            operations.createCompressionSession(tiled).compressPercentage(50)};
+        for (int k = 0; k < expected.length; k++) {
+          assertTrue(actual[k].getStorage() instanceof TiledFilePixelStorage);
+          assertEquals(expected[k], actual[k]);
+          ((TiledFilePixelStorage) actual[k].getStorage()).close();
+        }
+      }
+      try (Stream<Path> files = Files.list(directory)) {
+        assertEquals(1, files.count());
+      }
+    }
+    ((ParallelImageOperations) allOperations[1]).close();
+  }
+
+  /**
+   * Tests that a closed storage cannot be used.
+   *
+   * @throws IOException if the file cannot be created
+   */
+  @Test(expected = IllegalStateException.class)
+  public void testClosedStorage() throws IOException {
+    TiledFilePixelStorage storage = copyToTiles(directory.resolve("image.hti"));
+    storage.close();
+    storage.getRGB(0, 0);
+  }
+
+  /**
+   * Tests that a file without the tiled raw image header is rejected.
+   *
+   * @throws IOException if the file is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testRejectsMissingHeader() throws IOException {
+    Path path = directory.resolve("image.hti");
+    Files.write(path, "P3\n1 1\n255\n0 0 0\n".getBytes());
+    TiledFilePixelStorage.open(path);
+  }
+
+  /**
+   * Tests that a file cut off before its last tile is rejected.
+   *
+   * @throws IOException if the file is rejected as expected
+   */
+  @Test
+  public void testRejectsTruncatedFile() throws IOException {
+    Path path = directory.resolve("image.hti");
+    TiledFilePixelStorage.write(image, path);
+    byte[] bytes = Files.readAllBytes(path);
+    Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+    try {
+      TiledFilePixelStorage.open(path);
+      fail("A truncated file should be rejected");
+    } catch (IOException e) {
+      assertFalse(e.getMessage().isEmpty());
+    }
+  }
+}
@@ -0,0 +1,190 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import model.Image;
+import model.WaveletCodec;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for reading and writing images in the wavelet-compressed HWC format.
+ */
+public class WaveletCodecTest {
+
+  private Image image;
+
+  /**
+   * Creates a smooth 300x270 image, which spans four tiles of which three have odd sizes.
+   */
+  @Before
+  public void setUp() {
+    int[] pixels = new int[300 * 270];
+    for (int i = 0; i < 270; i++) {
+      for (int j = 0; j < 300; j++) {
+        int red = (i * 255) / 269;
+        int green = (j * 255) / 299;
+        int blue = (int) (127.5 + 127.5 * Math.sin(i / 20.0) * Math.cos(j / 30.0));
+        pixels[i * 300 + j] = (red << 16) | (green << 8) | blue;
+      }
+    }
+    image = new Image(300, 270, pixels);
+  }
+
+  private static byte[] encode(Image image, double thresholdValue) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    WaveletCodec.write(image, out, thresholdValue);
+    return out.toByteArray();
+  }
+
+  private static int maxDifference(Image expected, Image actual) {
+    int max = 0;
+    for (int i = 0; i < expected.getHeight(); i++) {
+      for (int j = 0; j < expected.getWidth(); j++) {
+        int[] a = expected.getPixel(i, j);
+        int[] b = actual.getPixel(i, j);
+        for (int c = 0; c < 3; c++) {
+          max = Math.max(max, Math.abs(a[c] - b[c]));
+        }
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Tests that an image written with a threshold of 0 is read back with every channel within one
+   * level of the original, and that the file is smaller than the raw pixels.
+   *
+   * @throws IOException if encoding or decoding fails
+   */
+  @Test
+  public void testRoundTripWithoutThreshold() throws IOException {
+    byte[] encoded = encode(image, 0);
+    Image decoded = WaveletCodec.read(new ByteArrayInputStream(encoded));
+    assertEquals(300, decoded.getWidth());
+    assertEquals(270, decoded.getHeight());
+    assertTrue(maxDifference(image, decoded) <= 1);
+    assertTrue(encoded.length < 300 * 270 * 3);
+  }
+
+  /**
+   * Tests that a higher threshold gives a smaller file that still decodes to an image of the
+   * same size.
+   *
+   * @throws IOException if encoding or decoding fails
+   */
+  @Test
+  public void testThresholdShrinksFile() throws IOException {
+    byte[] fine = encode(image, 0);
+    byte[] coarse = encode(image, 20);
+    assertTrue(coarse.length < fine.length);
+    Image decoded = WaveletCodec.read(new ByteArrayInputStream(coarse));
+    assertEquals(300, decoded.getWidth());
+    assertEquals(270, decoded.getHeight());
+  }
+
+  /**
+   * Tests that images smaller than the transform levels, and empty images, are read back.
+   *
+   * @throws IOException if encoding or decoding fails
+   */
+  @Test
+  public void testTinyImages() throws IOException {
+    Image single = new Image(1, 1, new int[]{0x3C80FF});
+    assertEquals(single, WaveletCodec.read(new ByteArrayInputStream(encode(single, 0))));
+    Image column = new Image(1, 3, new int[]{0x000000, 0x808080, 0xFFFFFF});
+    assertEquals(column, WaveletCodec.read(new ByteArrayInputStream(encode(column, 0))));
+    Image empty = new Image(0, 0, new int[0]);
+    assertEquals(0, WaveletCodec.read(new ByteArrayInputStream(encode(empty, 0))).getWidth());
+  }
+
+  /**
+   * Tests that data without the HWC header is rejected.
+   *
+   * @throws IOException if the data is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testRejectsMissingHeader() throws IOException {
+    WaveletCodec.read(new ByteArrayInputStream("P3\n1 1\n255\n0 0 0\n".getBytes()));
+  }
+
+  /**
+   * Tests that a file cut off in the middle of its tiles is rejected.
+   *
+   * @throws IOException if the data is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testRejectsTruncatedFile() throws IOException {
+    byte[] encoded = encode(image, 0);
+    WaveletCodec.read(new ByteArrayInputStream(encoded, 0, encoded.length / 2));
+  }
+
+  /**
+   * Tests that a negative threshold is rejected.
+   *
+   * @throws IOException if encoding fails
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsNegativeThreshold() throws IOException {
+    encode(image, -1);
+  }
+
+  /**
+   * Tests that reading at a reduced scale gives the rounded-up size and pixels that are the
+   * averages of the full blocks they cover.
+   *
+   * @throws IOException if encoding or decoding fails
+   */
+  @Test
+  public void testScaledRead() throws IOException {
+    byte[] encoded = encode(image, 0);
+    int[][] sizes = {{1, 300, 270}, {2, 150, 135}, {4, 75, 68}, {8, 38, 34}};
+    for (int[] size : sizes) {
+      int divisor = size[0];
+      Image scaled = WaveletCodec.read(new ByteArrayInputStream(encoded), divisor);
+      assertEquals(size[1], scaled.getWidth());
+      assertEquals(size[2], scaled.getHeight());
+      for (int i = 0; i < 270 / divisor; i++) {
+        for (int j = 0; j < 300 / divisor; j++) {
+          double[] sum = new double[3];
+          int count = 0;
+          for (int y = i * divisor; y < (i + 1) * divisor; y++) {
+            for (int x = j * divisor; x < (j + 1) * divisor; x++) {
+              int[] pixel = image.getPixel(y, x);
+              for (int c = 0; c < 3; c++) {
+                sum[c] += pixel[c];
+              }
+              count++;
+            }
+          }
+          int[] actual = scaled.getPixel(i, j);
+          for (int c = 0; c < 3; c++) {
+            assertEquals(sum[c] / count, actual[c], 1.5);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that a scale that is not a power of two is rejected.
+   *
+   * @throws IOException if decoding fails
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testScaledReadRejectsNonPowerOfTwo() throws IOException {
+    WaveletCodec.read(new ByteArrayInputStream(encode(image, 0)), 3);
+  }
+
+  /**
+   * Tests that a scale needing more levels than the file has is rejected.
+   *
+   * @throws IOException if the file is rejected as expected
+   */
+  @Test(expected = IOException.class)
+  public void testScaledReadRejectsTooManyLevels() throws IOException {
+    WaveletCodec.read(new ByteArrayInputStream(encode(image, 0)), 16);
+  }
+}